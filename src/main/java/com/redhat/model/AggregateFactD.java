@@ -1,10 +1,28 @@
 package com.redhat.model;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
-public class AggregateFactD {
-    private Collection<CompositeFactC> facts = new ArrayList<CompositeFactC>();
+/**
+ * Aggregate of CompositeFactC, e.g. collected by "Debug Rule 3" with facts not contains $factC<BR>
+ * <BR>
+ * The facts are indexed by identity, contains is O(1) and the hash code is kept up to date as facts are added and
+ * removed. Two aggregates are equal when they hold the same CompositeFactC instances, the state of the facts is not
+ * compared, so a modify of a CompositeFactC does not change the hash code of the aggregates holding it.
+ */
+public class AggregateFactD implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    private final FactIndex facts = new FactIndex();
 
     public Collection<CompositeFactC> getFacts() {
         return facts;
@@ -14,12 +32,27 @@ public class AggregateFactD {
         this.facts.add( fact );
     }
 
+    @Override
+    public void writeExternal( ObjectOutput out ) throws IOException {
+        ModelEncoding.writeVarInt( out, facts.size() );
+        // a CompositeFactC held by several aggregates is only written once
+        for ( CompositeFactC fact : facts ) {
+            out.writeObject( fact );
+        }
+    }
+
+    @Override
+    public void readExternal( ObjectInput in ) throws IOException, ClassNotFoundException {
+        int size = ModelEncoding.readVarInt( in );
+        facts.clear();
+        for ( int i = 0; i < size; i++ ) {
+            facts.add( (CompositeFactC) in.readObject() );
+        }
+    }
+
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ( ( facts == null ) ? 0 : facts.hashCode() );
-        return result;
+        return facts.hashCode();
     }
 
     @Override
@@ -31,12 +64,119 @@ public class AggregateFactD {
         if ( getClass() != obj.getClass() )
             return false;
         AggregateFactD other = (AggregateFactD) obj;
-        if ( facts == null ) {
-            if ( other.facts != null )
+        return facts.equals( other.facts );
+    }
+
+    /**
+     * Facts in the order they were added, with the number of times each instance was added<BR>
+     * ※ the counts are int[1], updated in place and compared by value
+     */
+    static class FactIndex extends AbstractCollection<CompositeFactC> {
+        private final List<CompositeFactC> order = new ArrayList<CompositeFactC>();
+        private final Map<CompositeFactC, int[]> counts = new IdentityHashMap<CompositeFactC, int[]>();
+        private int hash = 0;
+
+        @Override
+        public boolean add( CompositeFactC fact ) {
+            order.add( fact );
+            int[] count = counts.get( fact );
+            if ( count == null ) {
+                counts.put( fact, new int[] { 1 } );
+            } else {
+                count[0]++;
+            }
+            hash += System.identityHashCode( fact );
+            return true;
+        }
+
+        @Override
+        public boolean contains( Object o ) {
+            return counts.containsKey( o );
+        }
+
+        @Override
+        public boolean remove( Object o ) {
+            if ( !counts.containsKey( o ) ) {
                 return false;
-        } else if ( !facts.equals( other.facts ) )
-            return false;
-        return true;
+            }
+            for ( Iterator<CompositeFactC> it = order.iterator(); it.hasNext(); ) {
+                if ( it.next() == o ) {
+                    it.remove();
+                    break;
+                }
+            }
+            unregister( o );
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            order.clear();
+            counts.clear();
+            hash = 0;
+        }
+
+        @Override
+        public int size() {
+            return order.size();
+        }
+
+        @Override
+        public Iterator<CompositeFactC> iterator() {
+            Iterator<CompositeFactC> it = order.iterator();
+            return new Iterator<CompositeFactC>() {
+                private CompositeFactC last;
+
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public CompositeFactC next() {
+                    last = it.next();
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    it.remove();
+                    unregister( last );
+                }
+            };
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if ( this == obj )
+                return true;
+            if ( !( obj instanceof FactIndex ) )
+                return false;
+            FactIndex other = (FactIndex) obj;
+            if ( hash != other.hash || order.size() != other.order.size() || counts.size() != other.counts.size() ) {
+                return false;
+            }
+            for ( Map.Entry<CompositeFactC, int[]> entry : counts.entrySet() ) {
+                int[] count = other.counts.get( entry.getKey() );
+                if ( count == null || count[0] != entry.getValue()[0] ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void unregister( Object fact ) {
+            int[] count = counts.get( fact );
+            if ( --count[0] == 0 ) {
+                counts.remove( fact );
+            }
+            hash -= System.identityHashCode( fact );
+        }
     }
 
 }
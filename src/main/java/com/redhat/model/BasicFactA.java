@@ -1,10 +1,19 @@
 package com.redhat.model;
 
-public class BasicFactA {
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+public class BasicFactA implements Externalizable {
+    private static final long serialVersionUID = 1L;
 
     private int num;
     private String str;
 
+    public BasicFactA() {
+    }
+
     public BasicFactA( int num, String str ) {
         super();
         this.num = num;
@@ -27,6 +36,18 @@ public class BasicFactA {
         this.str = str;
     }
 
+    @Override
+    public void writeExternal( ObjectOutput out ) throws IOException {
+        ModelEncoding.writeVarInt( out, num );
+        ModelEncoding.writeString( out, str );
+    }
+
+    @Override
+    public void readExternal( ObjectInput in ) throws IOException, ClassNotFoundException {
+        num = ModelEncoding.readVarInt( in );
+        str = ModelEncoding.readString( in );
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
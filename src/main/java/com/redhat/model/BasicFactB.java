@@ -1,10 +1,20 @@
 package com.redhat.model;
 
-public class BasicFactB {
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+public class BasicFactB implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
     private int id;
     private String str;
     private double dbl;
 
+    public BasicFactB() {
+    }
+
     public BasicFactB( int id, String str, double dbl ) {
         super();
         this.id = id;
@@ -36,6 +46,20 @@ public class BasicFactB {
         this.dbl = dbl;
     }
 
+    @Override
+    public void writeExternal( ObjectOutput out ) throws IOException {
+        ModelEncoding.writeVarInt( out, id );
+        ModelEncoding.writeString( out, str );
+        out.writeDouble( dbl );
+    }
+
+    @Override
+    public void readExternal( ObjectInput in ) throws IOException, ClassNotFoundException {
+        id = ModelEncoding.readVarInt( in );
+        str = ModelEncoding.readString( in );
+        dbl = in.readDouble();
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -1,10 +1,20 @@
 package com.redhat.model;
 
-public class CompositeFactC {
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+public class CompositeFactC implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
     private int id;
     private BasicFactA factA;
     private BasicFactB factB;
 
+    public CompositeFactC() {
+    }
+
     public CompositeFactC( int id, BasicFactA factA, BasicFactB factB ) {
         super();
         this.id = id;
@@ -36,6 +46,21 @@ public class CompositeFactC {
         this.factB = factB;
     }
 
+    @Override
+    public void writeExternal( ObjectOutput out ) throws IOException {
+        ModelEncoding.writeVarInt( out, id );
+        // written as objects, facts shared with other objects are back-references
+        out.writeObject( factA );
+        out.writeObject( factB );
+    }
+
+    @Override
+    public void readExternal( ObjectInput in ) throws IOException, ClassNotFoundException {
+        id = ModelEncoding.readVarInt( in );
+        factA = (BasicFactA) in.readObject();
+        factB = (BasicFactB) in.readObject();
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -1,21 +1,94 @@
 package com.redhat.model;
 
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Functions called from the rules, e.g. in eval, so for every candidate tuple<BR>
+ * <BR>
+ * The counters are LongAdder, the instance can be shared by sessions on several threads. Nothing is allocated per
+ * call once a rule has its counter.
+ */
 public class GlobalFunctions {
 
-    private long numEval = 0;
+    private final LongAdder numEval = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> evalsByRule = new ConcurrentHashMap<String, LongAdder>();
     private static final Logger LOG = LoggerFactory.getLogger( GlobalFunctions.class );
 
+    public GlobalFunctions() {
+    }
+
+    /**
+     * Restore the state of a GlobalFunctions from a session snapshot
+     */
+    public GlobalFunctions( long numEval ) {
+        this.numEval.add( numEval );
+    }
+
+    /**
+     * Restore the state of a GlobalFunctions from a session snapshot
+     *
+     * @param numEval
+     * @param evalsByRule
+     *            evaluations of each rule, as returned by {@link #getEvalsByRule()}
+     */
+    public GlobalFunctions( long numEval, Map<String, Long> evalsByRule ) {
+        this( numEval );
+        evalsByRule.forEach( ( rule, evals ) -> counter( rule ).add( evals ) );
+    }
+
     public boolean evaluate( Object o ) {
-        LOG.info( "executing global function on object " + o.toString() );
-        numEval++;
+        if ( LOG.isDebugEnabled() ) {
+            LOG.debug( "executing global function on object {}", o );
+        }
+        numEval.increment();
         return o != null;
     }
 
+    /**
+     * Count an evaluation for a rule, the evaluation itself is counted by {@link #evaluate(Object)}<BR>
+     * ※ an eval can't tell which rule it belongs to, the rules are resolved outside the DRL by a
+     * {@link com.redhat.util.RuleEvalCounter}
+     *
+     * @param rule
+     *            name of the rule
+     */
+    public void countEval( String rule ) {
+        counter( rule ).increment();
+    }
+
     public long getEvals() {
-        return this.numEval;
+        return this.numEval.sum();
+    }
+
+    /**
+     * @param rule
+     * @return evaluations counted for the rule
+     */
+    public long getEvals( String rule ) {
+        LongAdder evals = evalsByRule.get( rule );
+        return evals != null ? evals.sum() : 0;
+    }
+
+    /**
+     * @return evaluations of each rule, sorted by rule name<BR>
+     *         ※ the counters are read one after the other, not atomically
+     */
+    public Map<String, Long> getEvalsByRule() {
+        Map<String, Long> evals = new TreeMap<String, Long>();
+        evalsByRule.forEach( ( rule, counter ) -> evals.put( rule, counter.sum() ) );
+        return evals;
+    }
+
+    private LongAdder counter( String rule ) {
+        LongAdder counter = evalsByRule.get( rule );
+        return counter != null ? counter : evalsByRule.computeIfAbsent( rule, r -> new LongAdder() );
     }
 
 }
@@ -0,0 +1,81 @@
+package com.redhat.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Compact encoding shared by the Externalizable facts and the ModelObjectMarshallingStrategy
+ */
+public final class ModelEncoding {
+
+    private ModelEncoding() {
+    }
+
+    /**
+     * Zigzag varint, 1 byte for ints between -64 and 63
+     */
+    public static void writeVarInt( DataOutput out, int value ) throws IOException {
+        int zigzag = ( value << 1 ) ^ ( value >> 31 );
+        while ( ( zigzag & ~0x7F ) != 0 ) {
+            out.writeByte( ( zigzag & 0x7F ) | 0x80 );
+            zigzag >>>= 7;
+        }
+        out.writeByte( zigzag );
+    }
+
+    public static int readVarInt( DataInput in ) throws IOException {
+        int zigzag = 0;
+        int shift = 0;
+        int b;
+        do {
+            if ( shift > 28 ) {
+                throw new IOException( "Malformed varint" );
+            }
+            b = in.readUnsignedByte();
+            zigzag |= ( b & 0x7F ) << shift;
+            shift += 7;
+        } while ( ( b & 0x80 ) != 0 );
+        return ( zigzag >>> 1 ) ^ -( zigzag & 1 );
+    }
+
+    /**
+     * Zigzag varint of a long, 1 byte for longs between -64 and 63
+     */
+    public static void writeVarLong( DataOutput out, long value ) throws IOException {
+        long zigzag = ( value << 1 ) ^ ( value >> 63 );
+        while ( ( zigzag & ~0x7FL ) != 0 ) {
+            out.writeByte( (int) ( zigzag & 0x7F ) | 0x80 );
+            zigzag >>>= 7;
+        }
+        out.writeByte( (int) zigzag );
+    }
+
+    public static long readVarLong( DataInput in ) throws IOException {
+        long zigzag = 0;
+        int shift = 0;
+        int b;
+        do {
+            if ( shift > 63 ) {
+                throw new IOException( "Malformed varlong" );
+            }
+            b = in.readUnsignedByte();
+            zigzag |= (long) ( b & 0x7F ) << shift;
+            shift += 7;
+        } while ( ( b & 0x80 ) != 0 );
+        return ( zigzag >>> 1 ) ^ -( zigzag & 1 );
+    }
+
+    /**
+     * Strings are written as objects, so the stream writes a repeated String instance as a back-reference
+     */
+    static void writeString( ObjectOutput out, String value ) throws IOException {
+        out.writeObject( value );
+    }
+
+    static String readString( ObjectInput in ) throws IOException, ClassNotFoundException {
+        return (String) in.readObject();
+    }
+}
@@ -0,0 +1,341 @@
+package com.redhat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.drools.compiler.compiler.io.memory.MemoryFileSystem;
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.drools.compiler.kie.builder.impl.KieBuilderImpl;
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.drools.compiler.kproject.models.KieModuleModelImpl;
+import org.kie.api.KieServices;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.builder.model.KieBaseModel;
+import org.kie.api.builder.model.KieModuleModel;
+import org.kie.api.builder.model.KieSessionModel.KieSessionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.BinaryKModuleExternalizer.ConversionReport;
+
+/**
+ * Compiles a directory of rule projects into Binary Files on a pool of workers<BR>
+ * <BR>
+ * Each *.jar of the directory is a KJAR, each sub directory with *.drl files is a DRL set, compiled as one KieBase
+ * "kbase" with a KieSession "ksession" unless it has a META-INF/kmodule.xml. The image of a project is written to the
+ * output directory under the name of the jar or directory, with the .bin extension.<BR>
+ * ※ a project is read into a KieModule of its own and built in a KieContainer with its own ProjectClassLoader. The
+ * workers share the KieServices singleton and its global KieRepository, which every KieContainerImpl is given. Nothing
+ * is added to the repository or looked up in it, the KieBases of a project are resolved from its own KieModule, so the
+ * workers never contend on it.<BR>
+ * ※ the pom dependencies of a KJAR are not resolved, a project with a KieBase that includes a KieBase it does not
+ * define fails, see BinaryKModuleExternalizer#readKJar
+ */
+public class BatchImageCompiler {
+    private static Logger logger = LoggerFactory.getLogger( BatchImageCompiler.class );
+
+    /**
+     * Group and version of the ReleaseId of a DRL set, its artifact id is the name of the directory
+     */
+    public static final String DRL_SET_GROUP_ID = "com.redhat.rules";
+    public static final String DRL_SET_VERSION = "1.0.0";
+
+    private final int workers;
+    private final Codec codec;
+
+    /**
+     * Outcome of one project
+     */
+    public static class ModuleResult {
+        private final File source;
+        private final File image;
+        private final String worker;
+        private final ConversionReport report;
+        private final long nanos;
+        private final Exception error;
+
+        ModuleResult( File source, File image, String worker, ConversionReport report, long nanos, Exception error ) {
+            this.source = source;
+            this.image = image;
+            this.worker = worker;
+            this.report = report;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        public File getSource() {
+            return source;
+        }
+
+        public File getImage() {
+            return image;
+        }
+
+        public String getWorker() {
+            return worker;
+        }
+
+        /**
+         * @return the conversion, null when it failed
+         */
+        public ConversionReport getReport() {
+            return report;
+        }
+
+        /**
+         * @return time to read, compile and write the project
+         */
+        public long getMillis() {
+            return TimeUnit.NANOSECONDS.toMillis( nanos );
+        }
+
+        /**
+         * @return why the project failed, null when it was compiled
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean isFailed() {
+            return error != null;
+        }
+
+        @Override
+        public String toString() {
+            return source.getName() + " " + ( error != null ? "failed: " + error.getMessage() : report ) + " (" + getMillis() + " ms on " + worker + ")";
+        }
+    }
+
+    /**
+     * Outcome of a batch
+     */
+    public static class BatchReport {
+        private final List<ModuleResult> results;
+        private final int workers;
+        private final long totalNanos;
+
+        BatchReport( List<ModuleResult> results, int workers, long totalNanos ) {
+            this.results = Collections.unmodifiableList( results );
+            this.workers = workers;
+            this.totalNanos = totalNanos;
+        }
+
+        /**
+         * @return results in the order of the projects
+         */
+        public List<ModuleResult> getResults() {
+            return results;
+        }
+
+        public int getModules() {
+            return results.size();
+        }
+
+        public int getFailures() {
+            return (int) results.stream().filter( ModuleResult::isFailed ).count();
+        }
+
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis( totalNanos );
+        }
+
+        /**
+         * @return projects compiled, failed or not, per minute of the whole batch
+         */
+        public double getModulesPerMinute() {
+            return totalNanos > 0 ? results.size() * (double) TimeUnit.MINUTES.toNanos( 1 ) / totalNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format( "%d modules, %d failed, in %d ms on %d workers: %.1f modules/min", getModules(), getFailures(), getTotalMillis(), workers,
+                    getModulesPerMinute() );
+        }
+    }
+
+    /**
+     * @param workers
+     *            number of projects compiled at the same time, e.g. the number of cores
+     * @param codec
+     *            codec of the images
+     */
+    public BatchImageCompiler( int workers, Codec codec ) {
+        if ( workers <= 0 ) {
+            throw new IllegalArgumentException( "The number of workers must be positive, not " + workers );
+        }
+        this.workers = workers;
+        this.codec = codec;
+    }
+
+    /**
+     * Compile every project of the input directory, a project that fails is reported and does not stop the others
+     *
+     * @param inputDir
+     *            KJARs and DRL set directories
+     * @param outputDir
+     *            created if needed
+     * @return BatchReport
+     */
+    public BatchReport compile( File inputDir, File outputDir ) throws IOException, InterruptedException {
+        List<File> sources = findSources( inputDir );
+        Files.createDirectories( outputDir.toPath() );
+        logger.info( "Compiling {} projects of {} on {} workers", sources.size(), inputDir, workers );
+
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool( workers, runnable -> {
+            Thread thread = new Thread( runnable, "kie-compiler-" + count.getAndIncrement() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        long start = System.nanoTime();
+        try {
+            List<Future<ModuleResult>> futures = new ArrayList<Future<ModuleResult>>();
+            for ( File source : sources ) {
+                futures.add( threads.submit( () -> compile( source, outputDir ) ) );
+            }
+            List<ModuleResult> results = new ArrayList<ModuleResult>();
+            for ( Future<ModuleResult> future : futures ) {
+                try {
+                    results.add( future.get() );
+                }
+                catch ( ExecutionException e ) {
+                    // compile(File, File) reports its exceptions, only errors get here
+                    futures.forEach( f -> f.cancel( true ) );
+                    throw new IllegalStateException( "Batch compilation aborted", e.getCause() );
+                }
+            }
+            BatchReport report = new BatchReport( results, workers, System.nanoTime() - start );
+            logger.info( "Compiled {}", report );
+            return report;
+        }
+        finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * Compile one project
+     *
+     * @param source
+     *            KJAR or DRL set directory
+     * @param outputDir
+     * @return ModuleResult
+     */
+    public ModuleResult compile( File source, File outputDir ) {
+        long start = System.nanoTime();
+        File image = new File( outputDir, imageName( source ) );
+        String worker = Thread.currentThread().getName();
+        try {
+            InternalKieModule kModule = source.isDirectory() ? readDrlSet( source ) : BinaryKModuleExternalizer.readKJar( source );
+            ConversionReport report = BinaryKModuleExternalizer.kieModuleToBinary( kModule, image, codec, true );
+            ModuleResult result = new ModuleResult( source, image, worker, report, System.nanoTime() - start, null );
+            logger.debug( "{}", result );
+            return result;
+        }
+        catch ( Exception e ) {
+            ModuleResult result = new ModuleResult( source, image, worker, null, System.nanoTime() - start, e );
+            logger.warn( "{}", result, e );
+            return result;
+        }
+    }
+
+    /**
+     * Read the *.drl files of a directory, and its sub directories, into a KieModule that is not added to the
+     * KieRepository
+     *
+     * @param drlSetDir
+     * @return MemoryKieModule
+     */
+    public static MemoryKieModule readDrlSet( File drlSetDir ) throws IOException {
+        Path root = drlSetDir.toPath();
+        MemoryFileSystem mfs = new MemoryFileSystem();
+        List<Path> drls;
+        try ( Stream<Path> files = Files.walk( root ) ) {
+            drls = files.filter( file -> file.toString().endsWith( ".drl" ) ).sorted().collect( Collectors.toList() );
+        }
+        for ( Path drl : drls ) {
+            mfs.write( root.relativize( drl ).toString().replace( File.separatorChar, '/' ), Files.readAllBytes( drl ), true );
+        }
+
+        KieModuleModel kModuleModel;
+        File kModuleXml = new File( drlSetDir, KieModuleModelImpl.KMODULE_JAR_PATH );
+        if ( kModuleXml.isFile() ) {
+            kModuleModel = KieModuleModelImpl.fromXML( new ByteArrayInputStream( Files.readAllBytes( kModuleXml.toPath() ) ) );
+        } else {
+            kModuleModel = new KieModuleModelImpl();
+            KieBaseModel kBaseModel = kModuleModel.newKieBaseModel( "kbase" ).setDefault( true );
+            kBaseModel.newKieSessionModel( "ksession" ).setType( KieSessionType.STATEFUL ).setDefault( true );
+        }
+        KieBuilderImpl.setDefaultsforEmptyKieModule( kModuleModel );
+        BinaryKModuleExternalizer.checkOwnIncludes( kModuleModel, drlSetDir );
+        mfs.write( KieModuleModelImpl.KMODULE_JAR_PATH, kModuleModel.toXML().getBytes( "UTF-8" ), true );
+
+        ReleaseId releaseId = KieServices.Factory.get().newReleaseId( DRL_SET_GROUP_ID, drlSetDir.getName(), DRL_SET_VERSION );
+        return new MemoryKieModule( releaseId, kModuleModel, mfs );
+    }
+
+    /**
+     * Compile the projects of a directory<BR>
+     * BatchImageCompiler inputDir outputDir [workers] [codec]
+     *
+     * @param args
+     */
+    public static void main( String[] args ) throws Exception {
+        if ( args.length < 2 ) {
+            System.err.println( "Usage: BatchImageCompiler <input dir> <output dir> [workers] [" + Arrays.toString( Codec.values() ) + "]" );
+            System.exit( 1 );
+        }
+        int workers = args.length > 2 ? Integer.parseInt( args[2] ) : Runtime.getRuntime().availableProcessors();
+        Codec codec = args.length > 3 ? Codec.valueOf( args[3] ) : Codec.NONE;
+
+        BatchReport report = new BatchImageCompiler( workers, codec ).compile( new File( args[0] ), new File( args[1] ) );
+        for ( ModuleResult result : report.getResults() ) {
+            System.out.println( "  " + result );
+        }
+        System.out.println();
+        System.out.println( report );
+        System.exit( report.getFailures() == 0 ? 0 : 2 );
+    }
+
+    private static List<File> findSources( File inputDir ) throws IOException {
+        File[] files = inputDir.listFiles();
+        if ( files == null ) {
+            throw new IOException( inputDir + " is not a directory" );
+        }
+        List<File> sources = new ArrayList<File>();
+        for ( File file : files ) {
+            if ( file.isFile() && file.getName().endsWith( ".jar" ) || file.isDirectory() && containsDrl( file ) ) {
+                sources.add( file );
+            }
+        }
+        Collections.sort( sources );
+        return sources;
+    }
+
+    private static boolean containsDrl( File dir ) throws IOException {
+        try ( Stream<Path> files = Files.walk( dir.toPath() ) ) {
+            return files.anyMatch( file -> file.toString().endsWith( ".drl" ) );
+        }
+    }
+
+    private static String imageName( File source ) {
+        String name = source.getName();
+        return ( name.endsWith( ".jar" ) ? name.substring( 0, name.length() - 4 ) : name ) + ".bin";
+    }
+}
@@ -0,0 +1,204 @@
+package com.redhat.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kie.api.KieServices;
+import org.kie.api.command.Command;
+import org.kie.api.command.KieCommands;
+import org.kie.api.runtime.ExecutionResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.util.KieSessionPool.PooledKieSession;
+
+/**
+ * Collects the facts of concurrent requests into micro-batches, each batch is inserted with one BatchExecutionCommand
+ * and fired once on a session of a KieSessionPool<BR>
+ * <BR>
+ * A batch is closed when it holds maxBatchSize facts or maxDelay after its first request, whichever comes first. A
+ * request is never split over two batches. The future of a request completes with its facts as the rules left them.<BR>
+ * ※ the facts of the requests of a batch are in the same working memory, rules joining facts must only match facts of
+ * the same request, e.g. by id
+ */
+public class BatchingKieExecutor implements AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger( BatchingKieExecutor.class );
+
+    private static final String FIRED = "fired";
+
+    private final KieSessionPool pool;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingDeque<Request> requests = new LinkedBlockingDeque<Request>();
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong facts = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * @param pool
+     *            sessions the batches are executed on
+     * @param workers
+     *            number of batches executed at the same time
+     * @param maxBatchSize
+     *            facts in a batch
+     * @param maxDelay
+     *            time a request waits for the batch to fill up
+     * @param unit
+     */
+    public BatchingKieExecutor( KieSessionPool pool, int workers, int maxBatchSize, long maxDelay, TimeUnit unit ) {
+        this.pool = pool;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = unit.toNanos( maxDelay );
+        for ( int i = 0; i < workers; i++ ) {
+            Thread worker = new Thread( this::run, "kie-batch-" + i );
+            worker.setDaemon( true );
+            worker.start();
+            this.workers.add( worker );
+        }
+    }
+
+    /**
+     * @param facts
+     *            facts of a request, inserted in the same batch
+     * @return future completed with the facts once the rules of their batch fired
+     */
+    public CompletableFuture<List<Object>> submit( Collection<?> facts ) {
+        CompletableFuture<List<Object>> future = new CompletableFuture<List<Object>>();
+        if ( closed ) {
+            future.completeExceptionally( new IllegalStateException( "The executor is closed" ) );
+            return future;
+        }
+        Request request = new Request( new ArrayList<Object>( facts ), future );
+        requests.offerLast( request );
+        // closed while it was queued, close() may have drained the queue already
+        if ( closed && requests.remove( request ) ) {
+            future.completeExceptionally( new IllegalStateException( "The executor is closed" ) );
+        }
+        return future;
+    }
+
+    public CompletableFuture<List<Object>> submit( Object... facts ) {
+        return submit( Arrays.asList( facts ) );
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return average number of facts in a batch
+     */
+    public double getAverageBatchSize() {
+        long count = batches.get();
+        return count == 0 ? 0 : (double) facts.get() / count;
+    }
+
+    /**
+     * Stop the workers, the requests still waiting are failed
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        for ( Thread worker : workers ) {
+            worker.interrupt();
+        }
+        for ( Thread worker : workers ) {
+            worker.join();
+        }
+        Request request;
+        while ( ( request = requests.poll() ) != null ) {
+            request.future.completeExceptionally( new IllegalStateException( "The executor is closed" ) );
+        }
+        logger.info( "Executed {} batches of {} facts on average", batches.get(), String.format( "%.1f", getAverageBatchSize() ) );
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<Request>();
+        while ( !closed ) {
+            try {
+                Request first = requests.take();
+                batch.add( first );
+                int size = first.facts.size();
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while ( size < maxBatchSize ) {
+                    Request next = requests.poll( deadline - System.nanoTime(), TimeUnit.NANOSECONDS );
+                    if ( next == null ) {
+                        break;
+                    }
+                    if ( size + next.facts.size() > maxBatchSize ) {
+                        // first of the next batch
+                        requests.offerFirst( next );
+                        break;
+                    }
+                    batch.add( next );
+                    size += next.facts.size();
+                }
+                execute( batch, size );
+            }
+            catch ( InterruptedException e ) {
+                for ( Request request : batch ) {
+                    request.future.completeExceptionally( e );
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void execute( List<Request> batch, int size ) throws InterruptedException {
+        KieCommands commandFactory = KieServices.Factory.get().getCommands();
+        List<Command<?>> commands = new ArrayList<Command<?>>( size + 1 );
+        for ( int r = 0; r < batch.size(); r++ ) {
+            List<Object> requestFacts = batch.get( r ).facts;
+            for ( int f = 0; f < requestFacts.size(); f++ ) {
+                commands.add( commandFactory.newInsert( requestFacts.get( f ), r + ":" + f ) );
+            }
+        }
+        commands.add( commandFactory.newFireAllRules( FIRED ) );
+
+        ExecutionResults results;
+        try ( PooledKieSession session = pool.borrow() ) {
+            results = session.getSession().execute( commandFactory.newBatchExecution( commands ) );
+        }
+        catch ( RuntimeException e ) {
+            logger.warn( "Batch of {} requests failed", batch.size(), e );
+            for ( Request request : batch ) {
+                request.future.completeExceptionally( e );
+            }
+            return;
+        }
+        batches.incrementAndGet();
+        facts.addAndGet( size );
+        logger.debug( "Batch of {} requests, {} facts fired {} rules", batch.size(), size, results.getValue( FIRED ) );
+
+        for ( int r = 0; r < batch.size(); r++ ) {
+            Request request = batch.get( r );
+            List<Object> values = new ArrayList<Object>( request.facts.size() );
+            for ( int f = 0; f < request.facts.size(); f++ ) {
+                values.add( results.getValue( r + ":" + f ) );
+            }
+            request.future.complete( values );
+        }
+    }
+
+    private static class Request {
+        private final List<Object> facts;
+        private final CompletableFuture<List<Object>> future;
+
+        private Request( List<Object> facts, CompletableFuture<List<Object>> future ) {
+            this.facts = facts;
+            this.future = future;
+        }
+    }
+}
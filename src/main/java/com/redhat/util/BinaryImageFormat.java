@@ -0,0 +1,553 @@
+package com.redhat.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.drools.core.common.DroolsObjectOutputStream;
+import org.drools.core.impl.KnowledgeBaseImpl;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Framed container format for binary images<BR>
+ * <BR>
+ * magic, format version, Drools version, releaseId, codec, payload length, CRC32 of the payload, sections length,
+ * CRC32 of the object stream, payload<BR>
+ * <BR>
+ * The payload is the (compressed) DroolsObjectOutputStream output, followed by the raw sections written through a
+ * SectionObjectOutputStream. Sections are only written to uncompressed files, so that a mapped image can be read in
+ * place. The header can be read and the checksum of the whole payload verified without deserializing anything. A load
+ * only checks the object stream, the sections are left to their readers, which checksum each one as it is read. Images
+ * written before the format existed have no header and are still readable.
+ */
+public class BinaryImageFormat {
+
+    public static final int MAGIC = 0x4B494D47; // KIMG
+    public static final int FORMAT_VERSION = 3;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Compression codec of the payload
+     */
+    public enum Codec {
+        NONE {
+            @Override
+            OutputStream compress( OutputStream out ) {
+                return out;
+            }
+
+            @Override
+            InputStream decompress( InputStream in ) {
+                return in;
+            }
+        },
+        DEFLATE {
+            @Override
+            OutputStream compress( OutputStream out ) {
+                return new DeflaterOutputStream( out );
+            }
+
+            @Override
+            InputStream decompress( InputStream in ) {
+                return new InflaterInputStream( in );
+            }
+        },
+        /**
+         * LZ4 block format, using the pure Java (safe) implementation
+         */
+        LZ4 {
+            @Override
+            OutputStream compress( OutputStream out ) {
+                return new LZ4BlockOutputStream( out, BUFFER_SIZE, LZ4Factory.safeInstance().fastCompressor() );
+            }
+
+            @Override
+            InputStream decompress( InputStream in ) {
+                return new LZ4BlockInputStream( in, LZ4Factory.safeInstance().fastDecompressor() );
+            }
+        };
+
+        abstract OutputStream compress( OutputStream out ) throws IOException;
+
+        abstract InputStream decompress( InputStream in ) throws IOException;
+    }
+
+    /**
+     * Writes the payload of an image
+     */
+    public interface PayloadWriter {
+        void write( ObjectOutputStream out ) throws IOException;
+    }
+
+    /**
+     * Header of a framed image
+     */
+    public static class ImageHeader {
+        int formatVersion;
+        String droolsVersion;
+        String releaseId;
+        Codec codec;
+        long payloadLength;
+        long checksum;
+        long sectionsLength;
+        long streamChecksum;
+
+        public int getFormatVersion() {
+            return formatVersion;
+        }
+
+        public String getDroolsVersion() {
+            return droolsVersion;
+        }
+
+        public String getReleaseId() {
+            return releaseId;
+        }
+
+        public Codec getCodec() {
+            return codec;
+        }
+
+        public long getPayloadLength() {
+            return payloadLength;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * @return bytes of raw sections at the end of the payload, 0 for a compressed image
+         */
+        public long getSectionsLength() {
+            return sectionsLength;
+        }
+
+        /**
+         * @return CRC32 of the payload without the sections, what a load verifies
+         */
+        public long getStreamChecksum() {
+            return streamChecksum;
+        }
+
+        /**
+         * Bytes a load reads and checksums, the sections are checked by their readers
+         */
+        long streamLength() {
+            return formatVersion >= 3 ? payloadLength - sectionsLength : payloadLength;
+        }
+
+        void write( DataOutput out ) throws IOException {
+            out.writeInt( MAGIC );
+            out.writeShort( formatVersion );
+            out.writeUTF( droolsVersion );
+            out.writeUTF( releaseId );
+            out.writeByte( codec.ordinal() );
+            out.writeLong( payloadLength );
+            out.writeLong( checksum );
+            out.writeLong( sectionsLength );
+            out.writeLong( streamChecksum );
+        }
+
+        /**
+         * Read the header after the magic number
+         */
+        static ImageHeader read( DataInput in ) throws IOException {
+            ImageHeader header = new ImageHeader();
+            header.formatVersion = in.readShort();
+            if ( header.formatVersion > FORMAT_VERSION ) {
+                throw new IOException( "Unsupported image format version " + header.formatVersion );
+            }
+            header.droolsVersion = in.readUTF();
+            header.releaseId = in.readUTF();
+            int codec = in.readByte();
+            if ( codec < 0 || codec >= Codec.values().length ) {
+                throw new IOException( "Unknown codec " + codec + " in image of " + header.releaseId );
+            }
+            header.codec = Codec.values()[codec];
+            header.payloadLength = in.readLong();
+            header.checksum = in.readLong();
+            if ( header.formatVersion >= 2 ) {
+                header.sectionsLength = in.readLong();
+            }
+            // before, a load checksummed the sections as well
+            header.streamChecksum = header.formatVersion >= 3 ? in.readLong() : header.checksum;
+            return header;
+        }
+
+        @Override
+        public String toString() {
+            return "ImageHeader [formatVersion=" + formatVersion + ", droolsVersion=" + droolsVersion + ", releaseId=" + releaseId + ", codec=" + codec
+                    + ", payloadLength=" + payloadLength + ", checksum=" + Long.toHexString( checksum ) + ", sectionsLength=" + sectionsLength + ", streamChecksum=" + Long.toHexString( streamChecksum ) + "]";
+        }
+    }
+
+    /**
+     * Write a framed image to a file, the payload is streamed to disk and the header completed afterwards<BR>
+     * ※ the image is written to a temporary file of the same directory and renamed into place, so a failed write leaves
+     * nothing behind and a reader that mapped the previous image keeps its own copy. An existing image is replaced, a
+     * file system that cannot rename atomically fails the write with an AtomicMoveNotSupportedException
+     *
+     * @param file
+     * @param releaseId
+     * @param codec
+     * @param payload
+     * @return ImageHeader
+     */
+    public static ImageHeader write( File file, String releaseId, Codec codec, PayloadWriter payload ) throws IOException {
+        File tmp = File.createTempFile( file.getName(), ".tmp", file.getAbsoluteFile().getParentFile() );
+        try {
+            ImageHeader header = writeTo( tmp, releaseId, codec, payload );
+            Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            return header;
+        }
+        finally {
+            Files.deleteIfExists( tmp.toPath() );
+        }
+    }
+
+    private static ImageHeader writeTo( File file, String releaseId, Codec codec, PayloadWriter payload ) throws IOException {
+        ImageHeader header = newHeader( releaseId, codec );
+        // sections are spooled while the object stream is written and appended after it
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ); SectionSpool spool = codec == Codec.NONE ? new SectionSpool( file.getParentFile() ) : null ) {
+            raf.setLength( 0 );
+            header.write( raf ); // placeholder for the lengths and checksums
+            long start = raf.getFilePointer();
+
+            CheckedOutputStream checked = new CheckedOutputStream( new BufferedOutputStream( Channels.newOutputStream( raf.getChannel() ), BUFFER_SIZE ), new CRC32() );
+            writePayload( checked, codec, payload, spool );
+            header.streamChecksum = checked.getChecksum().getValue();
+            if ( spool != null ) {
+                header.sectionsLength = spool.length();
+                spool.copyTo( checked );
+            }
+            checked.flush();
+
+            header.payloadLength = raf.getChannel().position() - start;
+            header.checksum = checked.getChecksum().getValue();
+            raf.seek( 0 );
+            header.write( raf );
+        }
+        return header;
+    }
+
+    /**
+     * Write a framed image to a stream, e.g. a DB blob<BR>
+     * ※ the compressed payload is buffered in memory to complete the header first
+     *
+     * @param out
+     * @param releaseId
+     * @param codec
+     * @param payload
+     * @return ImageHeader
+     */
+    public static ImageHeader write( OutputStream out, String releaseId, Codec codec, PayloadWriter payload ) throws IOException {
+        ImageHeader header = newHeader( releaseId, codec );
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream( BUFFER_SIZE );
+        CheckedOutputStream checked = new CheckedOutputStream( buffer, new CRC32() );
+        writePayload( checked, codec, payload, null );
+
+        header.payloadLength = buffer.size();
+        header.checksum = checked.getChecksum().getValue();
+        header.streamChecksum = header.checksum;
+        DataOutputStream dout = new DataOutputStream( new BufferedOutputStream( out, BUFFER_SIZE ) );
+        header.write( dout );
+        buffer.writeTo( dout );
+        dout.flush();
+        return header;
+    }
+
+    /**
+     * Read the header of an image without reading the payload
+     *
+     * @param file
+     * @return ImageHeader, or null for an image without header
+     */
+    public static ImageHeader readHeader( File file ) throws IOException {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) ) {
+            return in.readInt() == MAGIC ? ImageHeader.read( in ) : null;
+        }
+    }
+
+    /**
+     * Verify the checksum of an image without deserializing the payload
+     *
+     * @param file
+     * @return true if the checksum matches or the image has no header
+     */
+    public static boolean verify( File file ) throws IOException {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ) ) ) {
+            if ( in.readInt() != MAGIC ) {
+                return true;
+            }
+            ImageHeader header = ImageHeader.read( in );
+            CheckedInputStream checked = new CheckedInputStream( new BoundedInputStream( in, header.payloadLength ), new CRC32() );
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while ( checked.read( buffer ) != -1 ) {
+                // consume
+            }
+            return checked.getChecksum().getValue() == header.checksum;
+        }
+    }
+
+    /**
+     * Open the (decompressed) payload of an image, the checksum of the object stream is verified when the stream is
+     * closed<BR>
+     * ※ the sections are neither read nor checked here, only verify(File) checks the whole payload<BR>
+     * ※ a stream supporting mark, like the one of a MappedImage, is read without an extra buffer
+     *
+     * @param in
+     * @return payload stream to read with a DroolsObjectInputStream
+     */
+    public static InputStream openPayload( InputStream in ) throws IOException {
+        InputStream bin = in.markSupported() ? in : new BufferedInputStream( in, BUFFER_SIZE );
+        bin.mark( 4 );
+        DataInputStream din = new DataInputStream( bin );
+        if ( din.readInt() != MAGIC ) {
+            // raw DroolsObjectOutputStream image
+            bin.reset();
+            return bin;
+        }
+        ImageHeader header = ImageHeader.read( din );
+        VerifyingInputStream verifying = new VerifyingInputStream( new BoundedInputStream( bin, header.streamLength() ), header );
+        InputStream payload = header.codec == Codec.NONE ? verifying : new BufferedInputStream( header.codec.decompress( verifying ), BUFFER_SIZE );
+        return new FilterInputStream( payload ) {
+            @Override
+            public void close() throws IOException {
+                verifying.verify();
+                super.close();
+            }
+        };
+    }
+
+    /**
+     * The raw sections of a framed image, read in place
+     *
+     * @param image
+     *            the whole image, e.g. a memory mapping
+     * @return view of the sections, offsets are relative to its start, or null when the image has none
+     */
+    public static ByteBuffer sections( ByteBuffer image ) throws IOException {
+        ByteBuffer buffer = image.duplicate();
+        buffer.position( 0 );
+        // not buffered, so the position of the buffer is the end of the header
+        DataInputStream in = new DataInputStream( new MappedImage.ByteBufferInputStream( buffer ) );
+        if ( buffer.remaining() < 4 || in.readInt() != MAGIC ) {
+            return null;
+        }
+        ImageHeader header = ImageHeader.read( in );
+        if ( header.sectionsLength == 0 ) {
+            return null;
+        }
+        long end = buffer.position() + header.payloadLength;
+        if ( end > buffer.capacity() || header.sectionsLength > header.payloadLength ) {
+            throw new IOException( "Truncated image of " + header.releaseId );
+        }
+        buffer.limit( (int) end );
+        buffer.position( (int) ( end - header.sectionsLength ) );
+        return buffer.slice();
+    }
+
+    static String droolsVersion() {
+        String version = KnowledgeBaseImpl.class.getPackage().getImplementationVersion();
+        return version != null ? version : "unknown";
+    }
+
+    private static ImageHeader newHeader( String releaseId, Codec codec ) {
+        ImageHeader header = new ImageHeader();
+        header.formatVersion = FORMAT_VERSION;
+        header.droolsVersion = droolsVersion();
+        header.releaseId = releaseId != null ? releaseId : "";
+        header.codec = codec;
+        return header;
+    }
+
+    private static void writePayload( OutputStream out, Codec codec, PayloadWriter payload, SectionSpool spool ) throws IOException {
+        // closing the object stream finishes the codec without closing the target
+        OutputStream target = codec.compress( new FilterOutputStream( out ) {
+            @Override
+            public void write( byte[] b, int off, int len ) throws IOException {
+                out.write( b, off, len );
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        } );
+        ObjectOutputStream so = spool != null ? new SectionObjectOutputStream( target, spool ) : new DroolsObjectOutputStream( target );
+        payload.write( so );
+        so.close();
+    }
+
+    /**
+     * Object stream of an uncompressed image file, large blocks can be written as raw sections instead of inline
+     */
+    public static class SectionObjectOutputStream extends DroolsObjectOutputStream {
+        private final SectionSpool spool;
+
+        SectionObjectOutputStream( OutputStream out, SectionSpool spool ) throws IOException {
+            super( out );
+            this.spool = spool;
+        }
+
+        /**
+         * Write a raw section
+         *
+         * @param bytes
+         * @return offset of the section, see {@link BinaryImageFormat#sections(ByteBuffer)}
+         */
+        public long writeSection( byte[] bytes ) throws IOException {
+            return spool.write( bytes );
+        }
+    }
+
+    /**
+     * Temporary file of the sections, created on the first section
+     */
+    static class SectionSpool implements Closeable {
+        private final File directory;
+        private File file;
+        private OutputStream out;
+        private long length;
+
+        SectionSpool( File directory ) {
+            this.directory = directory;
+        }
+
+        long write( byte[] bytes ) throws IOException {
+            if ( out == null ) {
+                file = File.createTempFile( "sections", ".tmp", directory );
+                out = new BufferedOutputStream( new FileOutputStream( file ), BUFFER_SIZE );
+            }
+            long offset = length;
+            out.write( bytes );
+            length += bytes.length;
+            return offset;
+        }
+
+        long length() {
+            return length;
+        }
+
+        void copyTo( OutputStream target ) throws IOException {
+            if ( out != null ) {
+                out.close();
+                Files.copy( file.toPath(), target );
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if ( out != null ) {
+                out.close();
+            }
+            if ( file != null ) {
+                Files.deleteIfExists( file.toPath() );
+            }
+        }
+    }
+
+    /**
+     * Stops at the end of the payload
+     */
+    static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream( InputStream in, long length ) {
+            super( in );
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if ( remaining <= 0 ) {
+                return -1;
+            }
+            int b = in.read();
+            if ( b != -1 ) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException {
+            if ( remaining <= 0 ) {
+                return -1;
+            }
+            int n = in.read( b, off, (int) Math.min( len, remaining ) );
+            if ( n > 0 ) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip( long n ) throws IOException {
+            long skipped = in.skip( Math.min( n, remaining ) );
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min( in.available(), remaining );
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Checksums the object stream, whatever the codec leaves unread of it is consumed on verification
+     */
+    static class VerifyingInputStream extends CheckedInputStream {
+        private final ImageHeader header;
+
+        VerifyingInputStream( InputStream in, ImageHeader header ) {
+            super( in, new CRC32() );
+            this.header = header;
+        }
+
+        void verify() throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while ( read( buffer ) != -1 ) {
+                // consume
+            }
+            if ( getChecksum().getValue() != header.streamChecksum ) {
+                throw new IOException( "Checksum mismatch for image of " + header.releaseId );
+            }
+        }
+    }
+}
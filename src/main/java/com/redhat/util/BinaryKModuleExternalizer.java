@@ -15,23 +15,55 @@
  */
 package com.redhat.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.Externalizable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
+import org.drools.compiler.compiler.io.memory.MemoryFileSystem;
 import org.drools.compiler.kie.builder.impl.InternalKieModule;
-import org.drools.core.common.DroolsObjectInputStream;
+import org.drools.compiler.kie.builder.impl.KieBuilderImpl;
+import org.drools.compiler.kie.builder.impl.KieContainerImpl;
+import org.drools.compiler.kie.builder.impl.KieModuleKieProject;
+import org.drools.compiler.kie.builder.impl.KieProject;
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.drools.compiler.kproject.ReleaseIdImpl;
+import org.drools.compiler.kproject.models.KieModuleModelImpl;
 import org.drools.core.common.DroolsObjectOutputStream;
+import org.drools.core.common.ProjectClassLoader;
+import org.drools.core.definitions.InternalKnowledgePackage;
 import org.drools.core.impl.KnowledgeBaseImpl;
+import org.drools.core.rule.JavaDialectRuntimeData;
+import org.drools.core.rule.TypeDeclaration;
+import org.drools.core.util.IoUtils;
 import org.kie.api.KieBase;
+import org.kie.api.KieBaseConfiguration;
 import org.kie.api.KieServices;
 import org.kie.api.builder.KieBuilder;
 import org.kie.api.builder.KieFileSystem;
@@ -46,12 +78,21 @@ import org.kie.api.builder.model.KieSessionModel.KieSessionType;
 import org.kie.api.conf.EqualityBehaviorOption;
 import org.kie.api.conf.EventProcessingOption;
 import org.kie.api.definition.KiePackage;
+import org.kie.api.runtime.Environment;
 import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.KieSessionConfiguration;
 import org.kie.api.runtime.conf.ClockTypeOption;
+import org.kie.internal.KnowledgeBaseFactory;
 import org.kie.internal.definition.KnowledgePackage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.BinaryImageFormat.SectionObjectOutputStream;
+import com.redhat.util.StartupProfiler.Phase;
+import com.redhat.util.StartupProfiler.Timer;
+
 /**
  * Binary KieModule tool
  * 
@@ -61,49 +102,179 @@ public class BinaryKModuleExternalizer {
     private static Logger logger = LoggerFactory.getLogger( BinaryKModuleExternalizer.class );
 
     /**
-     * Binary KieModule
+     * Binary KieModule<BR>
+     * ※ a dependency is either embedded in dependencyMap, or stored as a shared image of DependencyImages and only its
+     * content id is kept here
      */
     public static class BinKieModule implements Externalizable {
+        /**
+         * Version of the externalized form, see {@link BinaryKModuleExternalizer#readStreamVersion}
+         */
+        static final int STREAM_VERSION = 1;
+
         ReleaseId releaseId;
         HashMap<ReleaseId, BinKieModule> dependencyMap;
         HashMap<String, BinKieBaseModel> binKBaseModelMap;
+        // .class files of the module, kept for a dependency only, e.g. the POJOs of a shared model KJAR
+        HashMap<String, byte[]> classes;
+        HashMap<ReleaseId, String> dependencyImageIds;
+        // direct dependencies, embedded or stored, and the containers they are built in while this is copied
+        private final Map<ReleaseId, BinKieModule> capturedDependencies;
+        private final List<KieContainer> dependencyContainers;
 
         public BinKieModule() {
             dependencyMap = new HashMap<ReleaseId, BinKieModule>();
             binKBaseModelMap = new HashMap<String, BinKieBaseModel>();
+            classes = new HashMap<String, byte[]>();
+            dependencyImageIds = new HashMap<ReleaseId, String>();
+            capturedDependencies = new HashMap<ReleaseId, BinKieModule>();
+            dependencyContainers = new ArrayList<KieContainer>();
         }
 
         public void copy( KieServices ks, InternalKieModule kModule ) {
+            copy( ks.newKieContainer( kModule.getReleaseId() ), kModule );
+        }
+
+        /**
+         * Copy the KieBases of a container the KieModule is built in, they are kept in it<BR>
+         * ※ the copy can be written any number of times without building anything again
+         * 
+         * @param kContainer
+         * @param kModule
+         */
+        public void copy( KieContainer kContainer, InternalKieModule kModule ) {
             releaseId = kModule.getReleaseId();
-            /*
             // dump with dependencies
-            kModule.getKieDependencies().forEach((depReleaseId, depKModule) -> {
-            	BinKieModule depBinKModule = new BinKieModule();
-            	depBinKModule.copy(ks, depKModule);
-            	dependencyMap.put(depReleaseId, depBinKModule);
-            });
-            */
-            KieContainer kContainer = ks.newKieContainer( kModule.getReleaseId() );
+            kModule.getKieDependencies().forEach( ( depReleaseId, depKModule ) -> {
+                BinKieModule depBinKModule = new BinKieModule();
+                depBinKModule.copy( newDependencyContainer( depKModule ), depKModule );
+                depBinKModule.copyClasses( depKModule );
+                dependencyMap.put( depReleaseId, depBinKModule );
+                capturedDependencies.put( depReleaseId, depBinKModule );
+            } );
             kModule.getKieModuleModel().getKieBaseModels().forEach( ( name, kBaseModel ) -> {
                 BinKieBaseModel binKBaseModel = new BinKieBaseModel();
+                binKBaseModel.includeDependencyKieBases( kBaseModel, capturedDependencies );
                 binKBaseModel.copy( kContainer, kBaseModel );
                 binKBaseModelMap.put( name, binKBaseModel );
             } );
         }
 
+        /**
+         * Copy the models only, each KieBase is built when its Binary KieBaseModel is written and released right after
+         * 
+         * @param kContainer
+         *            container of the KieModule, the KieBases are not cached in it
+         * @param kModule
+         * @param releaseBuilders
+         *            drop the KnowledgeBuilders the KieModule caches per KieBase too, when nothing else uses the module
+         */
+        public void copyOnWrite( KieContainer kContainer, InternalKieModule kModule, boolean releaseBuilders ) throws IOException {
+            copyOnWrite( kContainer, kModule, releaseBuilders, null, null );
+        }
+
+        /**
+         * Same as {@link #copyOnWrite(KieContainer, InternalKieModule, boolean)}, the dependencies are stored as shared
+         * images<BR>
+         * ※ a dependency the directory has already is not built again, the packages an included KieBase of a
+         * dependency has are left out of the KieBases of this module
+         * 
+         * @param kContainer
+         * @param kModule
+         * @param releaseBuilders
+         * @param dependencyImages
+         *            where the dependencies are stored, or null to embed them
+         * @param codec
+         *            codec of the dependency images
+         */
+        public void copyOnWrite( KieContainer kContainer, InternalKieModule kModule, boolean releaseBuilders, DependencyImages dependencyImages, Codec codec )
+                throws IOException {
+            releaseId = kModule.getReleaseId();
+            for ( Map.Entry<ReleaseId, InternalKieModule> dependency : kModule.getKieDependencies().entrySet() ) {
+                captureDependency( dependency.getKey(), dependency.getValue(), dependencyImages, codec );
+            }
+            kModule.getKieModuleModel().getKieBaseModels().forEach( ( name, kBaseModel ) -> {
+                BinKieBaseModel binKBaseModel = new BinKieBaseModel();
+                binKBaseModel.includeDependencyKieBases( kBaseModel, capturedDependencies );
+                binKBaseModel.copyOnWrite( kContainer, releaseBuilders ? kModule : null, kBaseModel );
+                binKBaseModelMap.put( name, binKBaseModel );
+            } );
+        }
+
+        /**
+         * Embed a dependency, or store it unless the directory has its content already<BR>
+         * ※ the KnowledgeBuilders of a dependency are kept, other modules may use it
+         */
+        private void captureDependency( ReleaseId depReleaseId, InternalKieModule depKModule, DependencyImages dependencyImages, Codec codec ) throws IOException {
+            BinKieModule depBinKModule;
+            if ( dependencyImages == null ) {
+                depBinKModule = new BinKieModule();
+                depBinKModule.copyOnWrite( newDependencyContainer( depKModule ), depKModule, false, null, null );
+                depBinKModule.copyClasses( depKModule );
+                dependencyMap.put( depReleaseId, depBinKModule );
+            } else {
+                String contentId = DependencyImages.contentId( depKModule );
+                if ( dependencyImages.contains( contentId ) ) {
+                    // only the models are needed, to know which packages are shared
+                    depBinKModule = dependencyImages.load( contentId );
+                } else {
+                    depBinKModule = new BinKieModule();
+                    depBinKModule.copyOnWrite( newDependencyContainer( depKModule ), depKModule, false, dependencyImages, codec );
+                    depBinKModule.copyClasses( depKModule );
+                    dependencyImages.store( contentId, depBinKModule, codec );
+                }
+                dependencyImageIds.put( depReleaseId, contentId );
+            }
+            capturedDependencies.put( depReleaseId, depBinKModule );
+        }
+
+        /**
+         * A dependency is not in the KieRepository necessarily, it is built in a container of its own<BR>
+         * ※ the container is given the global KieRepository, but the KieBases are resolved from the dependency itself
+         */
+        private KieContainer newDependencyContainer( InternalKieModule depKModule ) {
+            KieContainer depContainer = new KieContainerImpl( new KieModuleKieProject( depKModule ), KieServices.Factory.get().getRepository() );
+            dependencyContainers.add( depContainer );
+            return depContainer;
+        }
+
+        private void copyClasses( InternalKieModule kModule ) {
+            for ( String fileName : kModule.getFileNames() ) {
+                if ( fileName.endsWith( ".class" ) ) {
+                    classes.put( fileName, kModule.getBytes( fileName ) );
+                }
+            }
+        }
+
+        /**
+         * Dispose the containers the dependencies were built in, once this is written
+         */
+        void releaseDependencies() {
+            dependencyContainers.forEach( KieContainer::dispose );
+            dependencyContainers.clear();
+            capturedDependencies.values().forEach( BinKieModule::releaseDependencies );
+        }
+
         @Override
         public void writeExternal( ObjectOutput out ) throws IOException {
+            out.writeInt( STREAM_VERSION );
             out.writeObject( releaseId );
+            // embedded dependencies first, the KieBases that include theirs need their packages built
             out.writeObject( dependencyMap );
             out.writeObject( binKBaseModelMap );
+            out.writeObject( classes );
+            out.writeObject( dependencyImageIds );
         }
 
         @SuppressWarnings( "unchecked" )
         @Override
         public void readExternal( ObjectInput in ) throws IOException, ClassNotFoundException {
+            readStreamVersion( in, BinKieModule.class, 1, STREAM_VERSION );
             releaseId = (ReleaseId) in.readObject();
             dependencyMap = (HashMap<ReleaseId, BinKieModule>) in.readObject();
             binKBaseModelMap = (HashMap<String, BinKieBaseModel>) in.readObject();
+            classes = (HashMap<String, byte[]>) in.readObject();
+            dependencyImageIds = (HashMap<ReleaseId, String>) in.readObject();
         }
     }
 
@@ -111,25 +282,68 @@ public class BinaryKModuleExternalizer {
      * Binary KieBaseModel
      */
     public static class BinKieBaseModel implements Externalizable {
+        /**
+         * Version of the externalized form, see {@link BinaryKModuleExternalizer#readStreamVersion}
+         */
+        static final int STREAM_VERSION = 3;
+
         String name;
         Boolean isDefault;
         EqualityBehaviorOption equalsBahavior;
         EventProcessingOption eventProcessingMode;
         Collection<KiePackage> kPackages;
+        byte[] kPackagesBytes;
+        // the packages in a section of a mapped image, read in place, and the CRC32 of the section, -1 if unknown
+        ByteBuffer kPackagesSection;
+        long kPackagesChecksum = -1;
+        HashMap<String, byte[]> classes;
         HashMap<String, BinKieSessionModel> binKieSessionModelMap;
+        // included KieBases of dependencies, and the packages that are taken from them instead of being written here
+        HashMap<String, ReleaseId> includedKieBases;
+        HashSet<String> sharedPackageNames;
+        // digest of the content of each package, see KiePackageDiff#fingerprint, shared ones included
+        HashMap<String, String> packageFingerprints;
+        private final Map<String, BinKieBaseModel> includedModels;
+        // set by copyOnWrite, the KieBase is built from them when written
+        private KieContainer sourceContainer;
+        private InternalKieModule sourceModule;
 
         public BinKieBaseModel() {
+            classes = new HashMap<String, byte[]>();
             binKieSessionModelMap = new HashMap<String, BinKieSessionModel>();
+            includedKieBases = new HashMap<String, ReleaseId>();
+            sharedPackageNames = new HashSet<String>();
+            packageFingerprints = new HashMap<String, String>();
+            includedModels = new HashMap<String, BinKieBaseModel>();
         }
 
         public void copy( KieContainer kContainer, KieBaseModel kBaseModel ) {
+            copyModel( kBaseModel );
+            KieBase kBase = kContainer.getKieBase( name );
+            kPackages = kBase.getKiePackages();
+            shareIncludedPackages();
+            copyDeclaredTypes( kContainer.getClassLoader(), ( (KnowledgeBaseImpl) kBase ).getRootClassLoader() );
+        }
+
+        /**
+         * Copy the model only, the KieBase is built with KieContainer#newKieBase when this is written
+         * 
+         * @param kContainer
+         * @param kModule
+         *            module of the KieBase, its cached KnowledgeBuilder is dropped once written, or null to keep it
+         * @param kBaseModel
+         */
+        public void copyOnWrite( KieContainer kContainer, InternalKieModule kModule, KieBaseModel kBaseModel ) {
+            copyModel( kBaseModel );
+            sourceContainer = kContainer;
+            sourceModule = kModule;
+        }
+
+        private void copyModel( KieBaseModel kBaseModel ) {
             name = kBaseModel.getName();
             isDefault = kBaseModel.isDefault();
             equalsBahavior = kBaseModel.getEqualsBehavior();
             eventProcessingMode = kBaseModel.getEventProcessingMode();
-
-            KieBase kBase = kContainer.getKieBase( name );
-            kPackages = kBase.getKiePackages();
             kBaseModel.getKieSessionModels().forEach( ( name, kSessionModel ) -> {
                 BinKieSessionModel binKSessionModel = new BinKieSessionModel();
                 binKSessionModel.copy( kSessionModel );
@@ -137,25 +351,268 @@ public class BinaryKModuleExternalizer {
             } );
         }
 
+        /**
+         * Build the KieBase of copyOnWrite, not cached in the container so it can be collected once written
+         */
+        private void buildFromSource() {
+            long start = System.nanoTime();
+            KieBaseConfiguration kBaseConf = KieServices.Factory.get().newKieBaseConfiguration( null, sourceContainer.getClassLoader() );
+            if ( equalsBahavior != null ) {
+                kBaseConf.setOption( equalsBahavior );
+            }
+            if ( eventProcessingMode != null ) {
+                kBaseConf.setOption( eventProcessingMode );
+            }
+            KieBase kBase = sourceContainer.newKieBase( name, kBaseConf );
+            kPackages = kBase.getKiePackages();
+            shareIncludedPackages();
+            copyDeclaredTypes( sourceContainer.getClassLoader(), ( (KnowledgeBaseImpl) kBase ).getRootClassLoader() );
+            logger.debug( "KieBase {} built in {} ms", name, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+        }
+
+        /**
+         * Find the KieBases of the dependencies this KieBase includes
+         * 
+         * @param kBaseModel
+         * @param dependencies
+         *            direct dependencies of the module, the includes of a transitive one are not shared
+         */
+        void includeDependencyKieBases( KieBaseModel kBaseModel, Map<ReleaseId, BinKieModule> dependencies ) {
+            for ( String include : kBaseModel.getIncludes() ) {
+                dependencies.forEach( ( depReleaseId, depBinKModule ) -> {
+                    BinKieBaseModel included = depBinKModule.binKBaseModelMap.get( include );
+                    if ( included != null ) {
+                        includedKieBases.put( include, depReleaseId );
+                        includedModels.put( include, included );
+                    }
+                } );
+            }
+        }
+
+        /**
+         * Drop the packages that are the same as a package of an included KieBase of a dependency, they are taken from
+         * the dependency when this KieBase is populated<BR>
+         * ※ packages are compared by a digest of their rules, functions, declared types and globals, a package that
+         * also has rules of this module, or a rule of the same name that differs, is kept whole
+         */
+        private void shareIncludedPackages() {
+            packageFingerprints.clear();
+            sharedPackageNames.clear();
+            kPackages.forEach( kPackage -> packageFingerprints.put( kPackage.getName(), KiePackageDiff.fingerprint( (InternalKnowledgePackage) kPackage ) ) );
+            if ( includedModels.isEmpty() ) {
+                return;
+            }
+            List<KiePackage> ownPackages = new ArrayList<KiePackage>();
+            for ( KiePackage kPackage : kPackages ) {
+                String fingerprint = packageFingerprints.get( kPackage.getName() );
+                if ( includedModels.values().stream().anyMatch( included -> fingerprint.equals( included.packageFingerprints.get( kPackage.getName() ) ) ) ) {
+                    sharedPackageNames.add( kPackage.getName() );
+                } else {
+                    ownPackages.add( kPackage );
+                }
+            }
+            logger.debug( "KieBase {} shares {} of its packages with {}", name, sharedPackageNames.size(), includedKieBases.keySet() );
+            kPackages = ownPackages;
+        }
+
+        /**
+         * Keep the generated bytecode of the declared types, TypeDeclaration#typeClass is transient
+         * 
+         * @param classLoaders
+         */
+        private void copyDeclaredTypes( ClassLoader... classLoaders ) {
+            for ( KiePackage kPackage : kPackages ) {
+                InternalKnowledgePackage pkg = (InternalKnowledgePackage) kPackage;
+                for ( TypeDeclaration typeDeclaration : pkg.getTypeDeclarations().values() ) {
+                    if ( typeDeclaration.getNature() != TypeDeclaration.Nature.DEFINITION ) {
+                        continue; // declared on top of an existing class
+                    }
+                    String resourceName = typeDeclaration.getTypeClassName().replace( '.', '/' ) + ".class";
+                    byte[] bytecode = getBytecode( pkg, resourceName, classLoaders );
+                    if ( bytecode == null ) {
+                        logger.warn( "No bytecode found for declared type {}", typeDeclaration.getTypeClassName() );
+                    } else {
+                        classes.put( resourceName, bytecode );
+                    }
+                }
+            }
+        }
+
+        private static byte[] getBytecode( InternalKnowledgePackage pkg, String resourceName, ClassLoader... classLoaders ) {
+            for ( ClassLoader classLoader : classLoaders ) {
+                try ( InputStream is = classLoader.getResourceAsStream( resourceName ) ) {
+                    if ( is != null ) {
+                        return IoUtils.readBytesFromInputStream( is );
+                    }
+                }
+                catch ( IOException e ) {
+                    logger.debug( "Unable to read {} from {}", resourceName, classLoader, e );
+                }
+            }
+            JavaDialectRuntimeData dialectData = (JavaDialectRuntimeData) pkg.getDialectRuntimeRegistry().getDialectData( "java" );
+            return dialectData != null ? dialectData.getStore().get( resourceName ) : null;
+        }
+
         @Override
         public void writeExternal( ObjectOutput out ) throws IOException {
-            out.writeObject( name );
-            out.writeObject( isDefault );
-            out.writeObject( equalsBahavior );
-            out.writeObject( eventProcessingMode );
-            out.writeObject( kPackages );
-            out.writeObject( binKieSessionModelMap );
+            boolean built = kPackages == null && kPackagesBytes == null && kPackagesSection == null && sourceContainer != null;
+            if ( built ) {
+                buildFromSource();
+            }
+            try {
+                out.writeInt( STREAM_VERSION );
+                out.writeObject( name );
+                out.writeObject( isDefault );
+                out.writeObject( equalsBahavior );
+                out.writeObject( eventProcessingMode );
+                // declared types first, the packages can only be read once they are defined
+                out.writeObject( classes );
+                // packages are kept as a raw block so that each KieBase can be deserialized on its own
+                byte[] packages = packagesToBytes();
+                if ( out instanceof SectionObjectOutputStream ) {
+                    // outside of the object stream, so that a mapped image is read in place
+                    out.writeBoolean( true );
+                    out.writeLong( ( (SectionObjectOutputStream) out ).writeSection( packages ) );
+                    out.writeInt( packages.length );
+                    // a load does not checksum the sections, each one is checked when it is read
+                    CRC32 crc = new CRC32();
+                    crc.update( packages );
+                    out.writeLong( crc.getValue() );
+                } else {
+                    out.writeBoolean( false );
+                    out.writeInt( packages.length );
+                    out.write( packages );
+                }
+                out.writeObject( binKieSessionModelMap );
+                out.writeObject( includedKieBases );
+                out.writeObject( sharedPackageNames );
+                out.writeObject( packageFingerprints );
+            }
+            finally {
+                if ( built ) {
+                    // nothing of the KieBase is kept once it is written
+                    kPackages = null;
+                    classes.clear();
+                    if ( sourceModule != null ) {
+                        sourceModule.cacheKnowledgeBuilderForKieBase( name, null );
+                    }
+                }
+            }
         }
 
         @SuppressWarnings( "unchecked" )
         @Override
         public void readExternal( ObjectInput in ) throws IOException, ClassNotFoundException {
+            int version = readStreamVersion( in, BinKieBaseModel.class, 1, STREAM_VERSION );
             name = (String) in.readObject();
             isDefault = (Boolean) in.readObject();
             equalsBahavior = (EqualityBehaviorOption) in.readObject();
             eventProcessingMode = (EventProcessingOption) in.readObject();
-            kPackages = (Collection<KiePackage>) in.readObject();
+            classes = (HashMap<String, byte[]>) in.readObject();
+            if ( version >= 2 && in.readBoolean() ) {
+                long offset = in.readLong();
+                int length = in.readInt();
+                kPackagesChecksum = version >= 3 ? in.readLong() : -1;
+                ByteBuffer sections = in instanceof ImageObjectInputStream ? ( (ImageObjectInputStream) in ).sections : null;
+                if ( sections == null || offset + length > sections.capacity() ) {
+                    throw new IOException( "The packages of KieBase " + name + " are in a section of the image, it must be read from its file" );
+                }
+                ByteBuffer section = sections.duplicate();
+                section.limit( (int) offset + length );
+                section.position( (int) offset );
+                kPackagesSection = section.slice();
+            } else {
+                kPackagesBytes = new byte[in.readInt()];
+                in.readFully( kPackagesBytes );
+            }
             binKieSessionModelMap = (HashMap<String, BinKieSessionModel>) in.readObject();
+            includedKieBases = (HashMap<String, ReleaseId>) in.readObject();
+            sharedPackageNames = (HashSet<String>) in.readObject();
+            packageFingerprints = (HashMap<String, String>) in.readObject();
+        }
+
+        /**
+         * Define the bytecode of the declared types in the ProjectClassLoader of the KieBase<BR>
+         * ※ ProjectClassLoader#storeClasses is not thread safe, this is called on one thread before any package is read
+         * 
+         * @param classLoader
+         */
+        void storeClasses( ClassLoader classLoader ) {
+            if ( classes.isEmpty() ) {
+                return;
+            }
+            if ( !( classLoader instanceof ProjectClassLoader ) ) {
+                throw new IllegalArgumentException( "The declared types of KieBase " + name + " can only be defined in a ProjectClassLoader, not " + classLoader );
+            }
+            ( (ProjectClassLoader) classLoader ).storeClasses( classes );
+        }
+
+        /**
+         * Get the KiePackages of this KieBase, deserializing them on first access<BR>
+         * ※ the bytecode of the declared types must have been stored with storeClasses, in the ProjectClassLoader of the
+         * KieBase
+         * 
+         * @param classLoader
+         * @return KiePackages
+         */
+        public synchronized Collection<KiePackage> getKiePackages( ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+            if ( kPackages == null ) {
+                kPackages = readKiePackages( classLoader );
+                kPackagesBytes = null;
+                kPackagesSection = null;
+            }
+            return kPackages;
+        }
+
+        /**
+         * Deserialize the KiePackages of this KieBase again, for a KieBase of a dependency that several containers
+         * include
+         * 
+         * @param classLoader
+         * @return KiePackages, not kept
+         */
+        @SuppressWarnings( "unchecked" )
+        Collection<KiePackage> readKiePackages( ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+            if ( kPackagesBytes == null && kPackagesSection == null ) {
+                throw new IllegalStateException( "The packages of KieBase " + name + " were read already" );
+            }
+            try ( Timer timer = StartupProfiler.getInstance().start( Phase.READ_PACKAGES, name ) ) {
+                InputStream packages = kPackagesSection != null ? new MappedImage.ByteBufferInputStream( kPackagesSection.duplicate() ) : new ByteArrayInputStream( kPackagesBytes );
+                CheckedInputStream checked = kPackagesSection != null && kPackagesChecksum >= 0 ? new CheckedInputStream( packages, new CRC32() ) : null;
+                ObjectInputStream si = new ProfilingObjectInputStream( checked != null ? checked : packages, classLoader, timer, name );
+                Collection<KiePackage> kiePackages = (Collection<KiePackage>) si.readObject();
+                if ( checked != null ) {
+                    // the object stream may stop short of the end of the section
+                    byte[] rest = new byte[256];
+                    while ( checked.read( rest ) != -1 ) {
+                        // consume
+                    }
+                    if ( checked.getChecksum().getValue() != kPackagesChecksum ) {
+                        throw new IOException( "Checksum mismatch for the packages of KieBase " + name );
+                    }
+                }
+                si.close();
+                return kiePackages;
+            }
+        }
+
+        private byte[] packagesToBytes() throws IOException {
+            if ( kPackages == null ) {
+                if ( kPackagesSection != null ) {
+                    byte[] bytes = new byte[kPackagesSection.remaining()];
+                    kPackagesSection.duplicate().get( bytes );
+                    return bytes;
+                }
+                if ( kPackagesBytes == null ) {
+                    throw new IllegalStateException( "KieBase " + name + " has no packages to write, they were neither copied nor read" );
+                }
+                return kPackagesBytes;
+            }
+            ByteArrayOutputStream bo = new ByteArrayOutputStream();
+            ObjectOutputStream so = new DroolsObjectOutputStream( bo );
+            so.writeObject( kPackages );
+            so.close();
+            return bo.toByteArray();
         }
     }
 
@@ -192,6 +649,39 @@ public class BinaryKModuleExternalizer {
         }
     }
 
+    /**
+     * KieContainer which serves KieBases restored from a Binary KieModule instead of building them from resources
+     */
+    public static class BinKieContainer extends KieContainerImpl {
+        private final Map<String, KieBase> kBases = new ConcurrentHashMap<String, KieBase>();
+        // KieBases whose first KieSession was created, it is recorded as FIRST_SESSION
+        private final Set<String> startedKieBases = ConcurrentHashMap.newKeySet();
+
+        public BinKieContainer( KieProject kProject, KieRepository kr ) {
+            super( kProject, kr );
+        }
+
+        @Override
+        public KieSession newKieSession( String kSessionName, Environment environment, KieSessionConfiguration conf ) {
+            KieSessionModel kSessionModel = getKieSessionModel( kSessionName );
+            if ( kSessionModel == null || !startedKieBases.add( kSessionModel.getKieBaseModel().getName() ) ) {
+                return super.newKieSession( kSessionName, environment, conf );
+            }
+            try ( Timer timer = StartupProfiler.getInstance().start( Phase.FIRST_SESSION, kSessionModel.getKieBaseModel().getName() ) ) {
+                return super.newKieSession( kSessionName, environment, conf );
+            }
+        }
+
+        @Override
+        public KieBase getKieBase( String kBaseName ) {
+            KieBase kBase = kBases.get( kBaseName );
+            if ( kBase == null ) {
+                throw new RuntimeException( "The requested KieBase \"" + kBaseName + "\" does not exist" );
+            }
+            return kBase;
+        }
+    }
+
     /**
      * Make a Binary File from an existing KJAR
      * 
@@ -199,11 +689,138 @@ public class BinaryKModuleExternalizer {
      * @param binFile
      */
     public static void kjarToBinary( File kjarFile, File binFile ) throws Exception {
-        KieServices ks = KieServices.Factory.get();
-        KieRepository kr = ks.getRepository();
+        kjarToBinary( kjarFile, binFile, Codec.NONE );
+    }
+
+    /**
+     * Make a framed Binary File from an existing KJAR, one KieBase at a time<BR>
+     * ※ the KJAR is read into a KieModule of its own, it is not added to the KieRepository, and each KieBase is built
+     * while it is written and released before the next one, so the heap holds one KieBase at most<BR>
+     * ※ the dependencies of the KJAR are not resolved, see readKJar
+     * 
+     * @param kjarFile
+     * @param binFile
+     * @param codec
+     * @return ConversionReport
+     */
+    public static ConversionReport kjarToBinary( File kjarFile, File binFile, Codec codec ) throws Exception {
+        long start = System.nanoTime();
+        ConversionReport report = kieModuleToBinary( readKJar( kjarFile ), binFile, codec, true );
+        report.totalNanos = System.nanoTime() - start;
+        logger.info( "Converted {} to {}: {}", kjarFile, binFile, report );
+        return report;
+    }
+
+    /**
+     * Read a KJAR into a KieModule that is not added to the KieRepository<BR>
+     * ※ the dependencies of its pom are not resolved, a KJAR with a KieBase that includes a KieBase of a dependency
+     * is rejected. Build such a module with its dependencies, e.g. KieBuilder#setDependencies, and write it with
+     * kieModuleToBinary(KieModule, File, Codec, DependencyImages)
+     * 
+     * @param kjarFile
+     * @return MemoryKieModule with the resources of the KJAR, its KieBases are built from them
+     * @throws IllegalArgumentException
+     *             if the file is not a KJAR or a KieBase includes a KieBase the KJAR does not define
+     */
+    public static MemoryKieModule readKJar( File kjarFile ) throws IOException {
+        MemoryFileSystem mfs;
+        try ( InputStream in = new FileInputStream( kjarFile ) ) {
+            mfs = MemoryFileSystem.readFromJar( in );
+        }
+        byte[] kModuleXml = mfs.getBytes( KieModuleModelImpl.KMODULE_JAR_PATH );
+        if ( kModuleXml == null ) {
+            throw new IllegalArgumentException( kjarFile + " is not a KJAR, it has no " + KieModuleModelImpl.KMODULE_JAR_PATH );
+        }
+        KieModuleModel kModuleModel = KieModuleModelImpl.fromXML( new ByteArrayInputStream( kModuleXml ) );
+        KieBuilderImpl.setDefaultsforEmptyKieModule( kModuleModel );
+        checkOwnIncludes( kModuleModel, kjarFile );
+        return new MemoryKieModule( ReleaseIdImpl.fromPropertiesString( mfs.findPomProperties() ), kModuleModel, mfs );
+    }
+
+    /**
+     * Fail fast when a KieBase includes a KieBase the module does not define, it could only come from a dependency
+     * and the module would be converted without the rules of that KieBase
+     * 
+     * @param kModuleModel
+     * @param source
+     *            KJAR or directory the module is read from, for the message
+     */
+    static void checkOwnIncludes( KieModuleModel kModuleModel, File source ) {
+        for ( KieBaseModel kBaseModel : kModuleModel.getKieBaseModels().values() ) {
+            for ( String include : kBaseModel.getIncludes() ) {
+                if ( !kModuleModel.getKieBaseModels().containsKey( include ) ) {
+                    throw new IllegalArgumentException( "KieBase " + kBaseModel.getName() + " of " + source + " includes " + include
+                            + ", which is not defined by the module and dependencies are not resolved: build the module with its dependencies and use kieModuleToBinary(KieModule, File, Codec, DependencyImages)" );
+                }
+            }
+        }
+    }
+
+    /**
+     * Make a framed Binary File from a KieModule, one KieBase at a time, in a KieContainer of its own<BR>
+     * ※ the KieContainer has its own ProjectClassLoader and is not registered anywhere, so conversions of different
+     * modules can run in parallel. It holds the global KieRepository, as every KieContainerImpl does, but neither adds
+     * the module to it nor looks modules up in it
+     * 
+     * @param kModule
+     * @param binFile
+     * @param codec
+     * @param releaseBuilders
+     *            drop the KnowledgeBuilders the KieModule caches, when nothing else uses the module
+     * @return ConversionReport
+     */
+    static ConversionReport kieModuleToBinary( InternalKieModule kModule, File binFile, Codec codec, boolean releaseBuilders ) throws Exception {
+        return kieModuleToBinary( kModule, binFile, codec, releaseBuilders, null );
+    }
 
-        InternalKieModule kModule = (InternalKieModule) kr.addKieModule( ks.getResources().newFileSystemResource( kjarFile ) );
-        kieModuleToBinary( kModule, binFile );
+    /**
+     * Same as {@link #kieModuleToBinary(InternalKieModule, File, Codec, boolean)}, storing the dependencies as shared
+     * images, or embedding them when dependencyImages is null
+     */
+    static ConversionReport kieModuleToBinary( InternalKieModule kModule, File binFile, Codec codec, boolean releaseBuilders, DependencyImages dependencyImages )
+            throws Exception {
+        ConversionReport report = new ConversionReport();
+        long start = System.nanoTime();
+        KieContainer kContainer = new KieContainerImpl( new KieModuleKieProject( kModule ), KieServices.Factory.get().getRepository() );
+        BinKieModule binKModule = new BinKieModule();
+        try {
+            binKModule.copyOnWrite( kContainer, kModule, releaseBuilders, dependencyImages, codec );
+            BinaryImageFormat.write( binFile, kModule.getReleaseId().toExternalForm(), codec, so -> so.writeObject( binKModule ) );
+            report.kBases = binKModule.binKBaseModelMap.size();
+        }
+        finally {
+            binKModule.releaseDependencies();
+            kContainer.dispose();
+        }
+        report.totalNanos = System.nanoTime() - start;
+        report.imageBytes = binFile.length();
+        return report;
+    }
+
+    /**
+     * Outcome of a KJAR conversion
+     */
+    public static class ConversionReport {
+        int kBases;
+        long imageBytes;
+        long totalNanos;
+
+        public int getKieBases() {
+            return kBases;
+        }
+
+        public long getImageBytes() {
+            return imageBytes;
+        }
+
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis( totalNanos );
+        }
+
+        @Override
+        public String toString() {
+            return kBases + " KieBases, " + imageBytes + " bytes in " + getTotalMillis() + " ms";
+        }
     }
 
     /**
@@ -214,15 +831,33 @@ public class BinaryKModuleExternalizer {
      * @param binFile
      */
     public static void kieModuleToBinary( KieModule kModule, File binFile ) throws Exception {
-        KieServices ks = KieServices.Factory.get();
-        BinKieModule binKModule = new BinKieModule();
-        binKModule.copy( ks, (InternalKieModule) kModule );
+        kieModuleToBinary( kModule, binFile, Codec.NONE );
+    }
+
+    /**
+     * Make a framed Binary File from a KieModule, compressing the payload with the codec
+     * 
+     * @param kModule
+     * @param binFile
+     * @param codec
+     */
+    public static void kieModuleToBinary( KieModule kModule, File binFile, Codec codec ) throws Exception {
+        // the KieModule keeps what it had cached
+        kieModuleToBinary( (InternalKieModule) kModule, binFile, codec, false );
+    }
 
-        FileOutputStream fo = new FileOutputStream( binFile );
-        ObjectOutputStream so = new DroolsObjectOutputStream( fo );
-        so.writeObject( binKModule );
-        so.flush();
-        so.close();
+    /**
+     * Make a framed Binary File from a KieModule, each of its dependencies is stored once in dependencyImages and shared
+     * by every module that depends on it<BR>
+     * ※ the Binary File is restored with the DependencyImages of the same directory
+     * 
+     * @param kModule
+     * @param binFile
+     * @param codec
+     * @param dependencyImages
+     */
+    public static void kieModuleToBinary( KieModule kModule, File binFile, Codec codec, DependencyImages dependencyImages ) throws Exception {
+        kieModuleToBinary( (InternalKieModule) kModule, binFile, codec, false, dependencyImages );
     }
 
     /**
@@ -232,11 +867,46 @@ public class BinaryKModuleExternalizer {
      * @return KieContainer
      */
     public static KieContainer getKieContainer( File binFile ) throws Exception {
-        FileInputStream fi = new FileInputStream( binFile );
-        ObjectInputStream si = new DroolsObjectInputStream( fi );
-        BinKieModule binKModule = (BinKieModule) si.readObject();
-        si.close();
+        return getKieContainer( binFile, null );
+    }
+
+    /**
+     * Get a KieContainer from a Binary File<BR>
+     * ※ the KieBases are deserialized and populated in parallel on the executor, or one after another when it is null
+     * 
+     * @param binFile
+     * @param executor
+     * @return KieContainer
+     */
+    public static KieContainer getKieContainer( File binFile, ExecutorService executor ) throws Exception {
+        return getKieContainer( binFile, defaultDependencyImages( binFile ), executor );
+    }
 
+    /**
+     * Get a KieContainer from a Binary File whose dependencies were stored in dependencyImages
+     * 
+     * @param binFile
+     * @param dependencyImages
+     * @param executor
+     * @return KieContainer
+     */
+    public static KieContainer getKieContainer( File binFile, DependencyImages dependencyImages, ExecutorService executor ) throws Exception {
+        return getKieContainer( readBinKieModule( binFile ), dependencyImages, executor );
+    }
+
+    /**
+     * Get a KieContainer from a memory mapped Binary File
+     * 
+     * @param image
+     * @param executor
+     * @return KieContainer
+     */
+    public static KieContainer getKieContainer( MappedImage image, ExecutorService executor ) throws Exception {
+        return getKieContainer( readBinKieModule( image.getBuffer() ), defaultDependencyImages( image.getFile() ), executor );
+    }
+
+    private static KieContainer getKieContainer( BinKieModule binKModule, DependencyImages dependencyImages, ExecutorService executor ) throws Exception {
+        Map<ReleaseId, BinKieModule> dependencies = resolveDependencies( binKModule, dependencyImages );
         KieServices ks = KieServices.Factory.get();
         KieFileSystem kfs = ks.newKieFileSystem();
         // kmodule info
@@ -244,23 +914,305 @@ public class BinaryKModuleExternalizer {
         kfs.writeKModuleXML( kModuleModel.toXML() );
         kfs.generateAndWritePomXML( binKModule.releaseId );
 
-        // build with empty resources
-        KieBuilder kb = ks.newKieBuilder( kfs );
-        kb.buildAll();
-        if ( kb.getResults().hasMessages( Level.ERROR ) ) {
-            throw new RuntimeException( "Build Errors:\n" + kb.getResults().toString() );
+        KieContainer kContainer;
+        try ( Timer timer = StartupProfiler.getInstance().start( Phase.BUILD_CONTAINER, binKModule.releaseId.toExternalForm() ) ) {
+            // build with empty resources
+            KieBuilder kb = ks.newKieBuilder( kfs );
+            kb.buildAll();
+            if ( kb.getResults().hasMessages( Level.ERROR ) ) {
+                throw new RuntimeException( "Build Errors:\n" + kb.getResults().toString() );
+            }
+            // create container
+            kContainer = ks.newKieContainer( binKModule.releaseId );
         }
-        // create container
-        KieContainer kContainer = ks.newKieContainer( binKModule.releaseId );
+        storeClasses( kContainer, binKModule, dependencies );
+        populateKieBases( kContainer, binKModule, dependencies, executor );
+        return kContainer;
+
+    }
+
+    /**
+     * Restore a KieContainer from a Binary File without running the KieBuilder<BR>
+     * ※ the KieBases are created straight from the Binary KieBaseModels, so nothing is compiled
+     * 
+     * @param binFile
+     * @return KieContainer
+     */
+    public static KieContainer restoreKieContainer( File binFile ) throws Exception {
+        return restoreKieContainer( binFile, null );
+    }
+
+    /**
+     * Restore a KieContainer from a Binary File without running the KieBuilder<BR>
+     * ※ the KieBases are populated in parallel on the executor, or one after another when it is null
+     * 
+     * @param binFile
+     * @param executor
+     * @return KieContainer
+     */
+    public static KieContainer restoreKieContainer( File binFile, ExecutorService executor ) throws Exception {
+        return restoreKieContainer( binFile, defaultDependencyImages( binFile ), executor );
+    }
+
+    /**
+     * Restore a KieContainer from a Binary File whose dependencies were stored in dependencyImages
+     * 
+     * @param binFile
+     * @param dependencyImages
+     * @param executor
+     * @return KieContainer
+     */
+    public static KieContainer restoreKieContainer( File binFile, DependencyImages dependencyImages, ExecutorService executor ) throws Exception {
+        return restoreKieContainer( readBinKieModule( binFile ), dependencyImages, executor );
+    }
+
+    /**
+     * Restore a KieContainer from a memory mapped Binary File without running the KieBuilder
+     * 
+     * @param image
+     * @param executor
+     * @return KieContainer
+     */
+    public static KieContainer restoreKieContainer( MappedImage image, ExecutorService executor ) throws Exception {
+        return restoreKieContainer( readBinKieModule( image.getBuffer() ), defaultDependencyImages( image.getFile() ), executor );
+    }
+
+    private static KieContainer restoreKieContainer( BinKieModule binKModule, DependencyImages dependencyImages, ExecutorService executor ) throws Exception {
+        Map<ReleaseId, BinKieModule> dependencies = resolveDependencies( binKModule, dependencyImages );
+        KieServices ks = KieServices.Factory.get();
+        // kmodule info only, there are no resources to build
+        MemoryKieModule kModule = new MemoryKieModule( binKModule.releaseId, getKieModuleModel( binKModule, ks ), new MemoryFileSystem() );
+        BinKieContainer kContainer = new BinKieContainer( new KieModuleKieProject( kModule ), ks.getRepository() );
         binKModule.binKBaseModelMap.forEach( ( kBaseName, binKBaseModel ) -> {
-            // add KnowledgePackages to KnowledgeBase
-            KnowledgeBaseImpl knowledgeBase = (KnowledgeBaseImpl) kContainer.getKieBase( kBaseName );
-            @SuppressWarnings( "unchecked" )
-            Collection<KnowledgePackage> knowledgePackages = (Collection<KnowledgePackage>) (Collection<?>) binKBaseModel.kPackages;
-            knowledgeBase.addKnowledgePackages( knowledgePackages );
+            KieBaseConfiguration kBaseConf = ks.newKieBaseConfiguration( null, kContainer.getClassLoader() );
+            if ( binKBaseModel.equalsBahavior != null ) {
+                kBaseConf.setOption( binKBaseModel.equalsBahavior );
+            }
+            if ( binKBaseModel.eventProcessingMode != null ) {
+                kBaseConf.setOption( binKBaseModel.eventProcessingMode );
+            }
+            kContainer.kBases.put( kBaseName, KnowledgeBaseFactory.newKnowledgeBase( kBaseName, kBaseConf ) );
         } );
+        storeClasses( kContainer, binKModule, dependencies );
+        populateKieBases( kContainer, binKModule, dependencies, executor );
         return kContainer;
+    }
+
+    /**
+     * Read a Binary KieModule from a Binary File<BR>
+     * ※ the file is mapped, the packages of an uncompressed image stay in the mapping until the KieBase is populated
+     * 
+     * @param binFile
+     * @return BinKieModule
+     */
+    static BinKieModule readBinKieModule( File binFile ) throws Exception {
+        return readBinKieModule( MappedImage.map( binFile ) );
+    }
+
+    private static BinKieModule readBinKieModule( ByteBuffer image ) throws Exception {
+        try ( Timer timer = StartupProfiler.getInstance().start( Phase.READ_IMAGE, null ) ) {
+            ObjectInputStream si = new ImageObjectInputStream( BinaryImageFormat.openPayload( new MappedImage.ByteBufferInputStream( image.duplicate() ) ),
+                    BinaryImageFormat.sections( image ), timer );
+            BinKieModule binKModule = (BinKieModule) si.readObject();
+            si.close();
+            return binKModule;
+        }
+    }
+
+    /**
+     * Object stream of an image, with the sections the Binary KieBaseModels refer to
+     */
+    private static class ImageObjectInputStream extends ProfilingObjectInputStream {
+        private final ByteBuffer sections;
+
+        ImageObjectInputStream( InputStream in, ByteBuffer sections, Timer timer ) throws IOException {
+            super( in, null, timer, null );
+            this.sections = sections;
+        }
+    }
+
+    /**
+     * Read the layout version the Binary models write first<BR>
+     * ※ every Binary model is versioned and an image of another layout is rejected up front, whether it was written
+     * before the versions existed or by a newer release. Images are generated again from their KJAR, never migrated
+     * 
+     * @param in
+     * @param type
+     *            Binary model being read, for the message
+     * @param oldest
+     *            oldest version still read
+     * @param current
+     * @return version of the image
+     */
+    static int readStreamVersion( ObjectInput in, Class<?> type, int oldest, int current ) throws IOException {
+        int version;
+        try {
+            version = in.readInt();
+        }
+        catch ( EOFException e ) {
+            // the first field of the unversioned layouts is an object, not an int
+            throw new InvalidClassException( type.getName(), "Image written before the versioned layout, it must be generated again" );
+        }
+        if ( version < oldest || version > current ) {
+            throw new InvalidClassException( type.getName(), "Unsupported layout version " + version + ", expected " + oldest + " to " + current );
+        }
+        return version;
+    }
+
+    /**
+     * The dependency images next to a Binary File
+     */
+    private static DependencyImages defaultDependencyImages( File binFile ) throws IOException {
+        return DependencyImages.forDirectory( binFile.getAbsoluteFile().getParentFile() );
+    }
+
+    /**
+     * Collect the dependencies of a Binary KieModule, embedded or stored, with their own dependencies
+     * 
+     * @param binKModule
+     * @param dependencyImages
+     *            where the stored dependencies are read from, each one once
+     * @return dependencies by ReleaseId
+     */
+    private static Map<ReleaseId, BinKieModule> resolveDependencies( BinKieModule binKModule, DependencyImages dependencyImages ) throws IOException {
+        Map<ReleaseId, BinKieModule> dependencies = new LinkedHashMap<ReleaseId, BinKieModule>();
+        resolveDependencies( binKModule, dependencyImages, dependencies );
+        return dependencies;
+    }
 
+    private static void resolveDependencies( BinKieModule binKModule, DependencyImages dependencyImages, Map<ReleaseId, BinKieModule> dependencies ) throws IOException {
+        for ( Map.Entry<ReleaseId, BinKieModule> dependency : binKModule.dependencyMap.entrySet() ) {
+            if ( dependencies.putIfAbsent( dependency.getKey(), dependency.getValue() ) == null ) {
+                resolveDependencies( dependency.getValue(), dependencyImages, dependencies );
+            }
+        }
+        for ( Map.Entry<ReleaseId, String> dependency : binKModule.dependencyImageIds.entrySet() ) {
+            if ( dependencies.containsKey( dependency.getKey() ) ) {
+                continue;
+            }
+            if ( dependencyImages == null || !dependencyImages.contains( dependency.getValue() ) ) {
+                throw new IOException( "The image of dependency " + dependency.getKey() + " of " + binKModule.releaseId + " is missing: " + dependency.getValue() );
+            }
+            BinKieModule depBinKModule = dependencyImages.load( dependency.getValue() );
+            dependencies.put( dependency.getKey(), depBinKModule );
+            resolveDependencies( depBinKModule, dependencyImages, dependencies );
+        }
+    }
+
+    /**
+     * Define the classes of the dependencies and the declared types of every KieBase in the ProjectClassLoader of the
+     * container, on the calling thread before any package is read, the KieBases may be populated in parallel
+     */
+    private static void storeClasses( KieContainer kContainer, BinKieModule binKModule, Map<ReleaseId, BinKieModule> dependencies ) {
+        ClassLoader classLoader = kContainer.getClassLoader();
+        for ( BinKieModule depBinKModule : dependencies.values() ) {
+            if ( !depBinKModule.classes.isEmpty() ) {
+                ( (ProjectClassLoader) classLoader ).storeClasses( depBinKModule.classes );
+            }
+            depBinKModule.binKBaseModelMap.values().forEach( binKBaseModel -> binKBaseModel.storeClasses( classLoader ) );
+        }
+        binKModule.binKBaseModelMap.values().forEach( binKBaseModel -> binKBaseModel.storeClasses( classLoader ) );
+        CachingObjectInputStream.invalidate( classLoader );
+    }
+
+    /**
+     * Add the KnowledgePackages of every Binary KieBaseModel to the KieBases of the container
+     * 
+     * @param kContainer
+     * @param binKModule
+     * @param dependencies
+     * @param executor
+     */
+    private static void populateKieBases( KieContainer kContainer, BinKieModule binKModule, Map<ReleaseId, BinKieModule> dependencies, ExecutorService executor )
+            throws Exception {
+        long start = System.nanoTime();
+        Map<String, Long> timings = new TreeMap<String, Long>();
+        if ( executor == null ) {
+            for ( BinKieBaseModel binKBaseModel : binKModule.binKBaseModelMap.values() ) {
+                timings.put( binKBaseModel.name, populateKieBase( kContainer, binKBaseModel, dependencies ) );
+            }
+        } else {
+            Map<String, Future<Long>> futures = new HashMap<String, Future<Long>>();
+            binKModule.binKBaseModelMap.values().forEach( binKBaseModel -> {
+                futures.put( binKBaseModel.name, executor.submit( () -> populateKieBase( kContainer, binKBaseModel, dependencies ) ) );
+            } );
+            for ( Map.Entry<String, Future<Long>> future : futures.entrySet() ) {
+                try {
+                    timings.put( future.getKey(), future.getValue().get() );
+                }
+                catch ( ExecutionException e ) {
+                    futures.values().forEach( f -> f.cancel( true ) );
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        long total = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+        timings.forEach( ( kBaseName, millis ) -> logger.info( "KieBase {} populated in {} ms", kBaseName, millis ) );
+        timings.entrySet().stream().max( Map.Entry.comparingByValue() ).ifPresent( slowest -> {
+            logger.info( "{} KieBases populated in {} ms ({}), slowest was {} with {} ms", timings.size(), total, executor == null ? "sequential" : "parallel",
+                    slowest.getKey(), slowest.getValue() );
+        } );
+    }
+
+    /**
+     * Deserialize the KnowledgePackages of a Binary KieBaseModel and add them to its KieBase, after the packages it
+     * shares with the KieBases of dependencies it includes
+     * 
+     * @param kContainer
+     * @param binKBaseModel
+     * @param dependencies
+     * @return elapsed milliseconds
+     */
+    private static long populateKieBase( KieContainer kContainer, BinKieBaseModel binKBaseModel, Map<ReleaseId, BinKieModule> dependencies ) throws Exception {
+        long start = System.nanoTime();
+        KnowledgeBaseImpl knowledgeBase = (KnowledgeBaseImpl) kContainer.getKieBase( binKBaseModel.name );
+        List<KiePackage> kPackages = new ArrayList<KiePackage>();
+        if ( !binKBaseModel.sharedPackageNames.isEmpty() ) {
+            Set<String> packageNames = new HashSet<String>( binKBaseModel.sharedPackageNames );
+            collectSharedPackages( kContainer.getClassLoader(), binKBaseModel, dependencies, packageNames, kPackages );
+            if ( !packageNames.isEmpty() ) {
+                throw new IllegalStateException( "Packages " + packageNames + " of KieBase " + binKBaseModel.name + " are missing from " + binKBaseModel.includedKieBases );
+            }
+        }
+        // the declared types of the dependencies are defined by now
+        kPackages.addAll( binKBaseModel.getKiePackages( kContainer.getClassLoader() ) );
+        @SuppressWarnings( "unchecked" )
+        Collection<KnowledgePackage> knowledgePackages = (Collection<KnowledgePackage>) (Collection<?>) kPackages;
+        try ( Timer timer = StartupProfiler.getInstance().start( Phase.ADD_PACKAGES, binKBaseModel.name ) ) {
+            knowledgeBase.addKnowledgePackages( knowledgePackages );
+        }
+        return TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+    }
+
+    /**
+     * Read the packages a KieBase shares from the KieBases of dependencies it includes, and from theirs
+     * 
+     * @param classLoader
+     * @param binKBaseModel
+     * @param dependencies
+     * @param packageNames
+     *            packages still to find, the ones found are removed
+     * @param kPackages
+     *            the packages found are added to it
+     */
+    private static void collectSharedPackages( ClassLoader classLoader, BinKieBaseModel binKBaseModel, Map<ReleaseId, BinKieModule> dependencies, Set<String> packageNames,
+            List<KiePackage> kPackages ) throws IOException, ClassNotFoundException {
+        for ( Map.Entry<String, ReleaseId> include : binKBaseModel.includedKieBases.entrySet() ) {
+            if ( packageNames.isEmpty() ) {
+                return;
+            }
+            BinKieModule depBinKModule = dependencies.get( include.getValue() );
+            BinKieBaseModel included = depBinKModule != null ? depBinKModule.binKBaseModelMap.get( include.getKey() ) : null;
+            if ( included == null ) {
+                throw new IllegalStateException( "KieBase " + include.getKey() + " of dependency " + include.getValue() + " is missing" );
+            }
+            for ( KiePackage kPackage : included.readKiePackages( classLoader ) ) {
+                if ( packageNames.remove( kPackage.getName() ) ) {
+                    kPackages.add( kPackage );
+                }
+            }
+            collectSharedPackages( classLoader, included, dependencies, packageNames, kPackages );
+        }
     }
 
     /**
@@ -0,0 +1,112 @@
+package com.redhat.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamClass;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.drools.core.common.DroolsObjectInputStream;
+
+/**
+ * DroolsObjectInputStream sharing the classes it resolves with every stream of the same class loader in the JVM<BR>
+ * <BR>
+ * Each load of an image resolves every class name through the class loader hierarchy again. The lookups, including the
+ * classes that are not found, are kept per class loader, so a tenant loaded a second time into the same KieBase or
+ * project class loader resolves nothing. The class loaders are weak keys and the classes weak references, a replaced
+ * project class loader is dropped with its entries once it is collected.<BR>
+ * ※ a class that was not found stays not found until the class loader is invalidated, which must be done whenever
+ * classes are defined in it, e.g. after ProjectClassLoader#storeClasses or adding packages with declared types
+ */
+public class CachingObjectInputStream extends DroolsObjectInputStream {
+
+    private static final Object NOT_FOUND = new Object();
+
+    private static final Map<ClassLoader, ConcurrentMap<String, Object>> CACHE = Collections
+            .synchronizedMap( new WeakHashMap<ClassLoader, ConcurrentMap<String, Object>>() );
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private final ConcurrentMap<String, Object> classes;
+
+    /**
+     * @param in
+     * @param classLoader
+     *            class loader of the objects, or null for the one of DroolsObjectInputStream, which is not cached
+     */
+    public CachingObjectInputStream( InputStream in, ClassLoader classLoader ) throws IOException {
+        super( in, classLoader );
+        this.classes = classLoader != null ? CACHE.computeIfAbsent( classLoader, loader -> new ConcurrentHashMap<String, Object>() ) : null;
+    }
+
+    /**
+     * Forget the classes resolved with the class loader, e.g. after classes were defined in it
+     *
+     * @param classLoader
+     */
+    public static void invalidate( ClassLoader classLoader ) {
+        CACHE.remove( classLoader );
+    }
+
+    public static void invalidateAll() {
+        CACHE.clear();
+    }
+
+    /**
+     * @return lookups answered from the cache, found or not
+     */
+    public static long getHits() {
+        return HITS.sum();
+    }
+
+    /**
+     * @return lookups that went to the class loader
+     */
+    public static long getMisses() {
+        return MISSES.sum();
+    }
+
+    @Override
+    protected Class<?> resolveClass( ObjectStreamClass desc ) throws IOException, ClassNotFoundException {
+        if ( classes == null ) {
+            return super.resolveClass( desc );
+        }
+        String name = desc.getName();
+        Object cached = classes.get( name );
+        if ( cached == NOT_FOUND ) {
+            HITS.increment();
+            throw new ClassNotFoundException( name );
+        }
+        if ( cached != null ) {
+            Class<?> clazz = ( (ClassReference) cached ).get();
+            if ( clazz != null ) {
+                HITS.increment();
+                return clazz;
+            }
+        }
+        MISSES.increment();
+        try {
+            Class<?> clazz = super.resolveClass( desc );
+            classes.put( name, new ClassReference( clazz ) );
+            return clazz;
+        }
+        catch ( ClassNotFoundException e ) {
+            classes.put( name, NOT_FOUND );
+            throw e;
+        }
+    }
+
+    /**
+     * A class keeps its class loader reachable, it must not be a strong value of the weak keyed cache
+     */
+    private static class ClassReference extends WeakReference<Class<?>> {
+        ClassReference( Class<?> clazz ) {
+            super( clazz );
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.redhat.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.drools.compiler.compiler.io.memory.MemoryFileSystem;
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.drools.compiler.kie.builder.impl.KieFileSystemImpl;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.Message;
+import org.kie.api.runtime.KieContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.util.BinaryImageFormat.Codec;
+
+/**
+ * Content addressed on-disk cache of compiled KieModules<BR>
+ * <BR>
+ * The key is a SHA-256 of every file of the KieFileSystem (DRL, kmodule.xml, pom.xml) and of the Drools version, the
+ * value is the BinKieModule image. Only a miss compiles, and the module it builds is not left in the KieRepository. The cache is bounded in size and evicts the least recently
+ * used images, a hit refreshes the modification time of its image.<BR>
+ * ※ several processes can share the directory: a key is compiled under a file lock, images are moved into place
+ * atomically and eviction spares images used in the last minute, which may still be loading
+ */
+public class CompiledKieModuleCache {
+    private static Logger logger = LoggerFactory.getLogger( CompiledKieModuleCache.class );
+
+    private static final String IMAGE_SUFFIX = ".bin";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String EVICTION_LOCK = "eviction.lock";
+    private static final long MIN_IDLE_MILLIS = TimeUnit.MINUTES.toMillis( 1 );
+
+    // FileLocks are held per JVM, threads of the same JVM synchronize on these first
+    private static final ConcurrentHashMap<String, Object> jvmLocks = new ConcurrentHashMap<String, Object>();
+
+    private final File directory;
+    private final long maxBytes;
+    private final Codec codec;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param directory
+     * @param maxBytes
+     *            the images above this size are evicted, least recently used first
+     */
+    public CompiledKieModuleCache( File directory, long maxBytes ) throws IOException {
+        this( directory, maxBytes, Codec.NONE );
+    }
+
+    /**
+     * @param directory
+     * @param maxBytes
+     *            the images above this size are evicted, least recently used first
+     * @param codec
+     *            codec of the images written on a miss
+     */
+    public CompiledKieModuleCache( File directory, long maxBytes, Codec codec ) throws IOException {
+        Files.createDirectories( directory.toPath() );
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.codec = codec;
+    }
+
+    /**
+     * The BinKieModule image of a KieFileSystem, compiled on a miss
+     *
+     * @param kfs
+     * @return image file, to be read with BinaryKModuleExternalizer
+     */
+    public File getImage( KieFileSystem kfs ) throws Exception {
+        String key = key( kfs );
+        File image = new File( directory, key + IMAGE_SUFFIX );
+        if ( touch( image ) ) {
+            hits.incrementAndGet();
+            logger.debug( "Cache hit for {}", key );
+            return image;
+        }
+        withLock( new File( directory, key + LOCK_SUFFIX ), () -> {
+            // another process may have compiled it in the meantime
+            if ( touch( image ) ) {
+                hits.incrementAndGet();
+                logger.debug( "Cache hit for {} after waiting for the lock", key );
+                return;
+            }
+            misses.incrementAndGet();
+            compile( kfs, key, image );
+        } );
+        withLock( new File( directory, EVICTION_LOCK ), () -> evict( image ) );
+        return image;
+    }
+
+    /**
+     * Restore a KieContainer from the cached image of a KieFileSystem
+     *
+     * @param kfs
+     * @return KieContainer
+     */
+    public KieContainer getKieContainer( KieFileSystem kfs ) throws Exception {
+        return BinaryKModuleExternalizer.restoreKieContainer( getImage( kfs ) );
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return total size of the cached images
+     */
+    public long size() {
+        return Arrays.stream( listImages() ).mapToLong( File::length ).sum();
+    }
+
+    /**
+     * Cache key of a KieFileSystem
+     *
+     * @param kfs
+     * @return hex SHA-256
+     */
+    public static String key( KieFileSystem kfs ) throws Exception {
+        MemoryFileSystem mfs = ( (KieFileSystemImpl) kfs ).getMfs();
+        MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+        for ( String fileName : new TreeSet<String>( mfs.getFileNames() ) ) {
+            update( digest, fileName.getBytes( StandardCharsets.UTF_8 ) );
+            update( digest, mfs.getBytes( fileName ) );
+        }
+        update( digest, BinaryImageFormat.droolsVersion().getBytes( StandardCharsets.UTF_8 ) );
+        return String.format( "%064x", new BigInteger( 1, digest.digest() ) );
+    }
+
+    /**
+     * Length first, so that no two file sets digest the same bytes
+     */
+    private static void update( MessageDigest digest, byte[] bytes ) {
+        digest.update( ByteBuffer.allocate( 4 ).putInt( bytes.length ).array() );
+        digest.update( bytes );
+    }
+
+    private void compile( KieFileSystem kfs, String key, File image ) throws Exception {
+        long start = System.currentTimeMillis();
+        KieServices ks = KieServices.Factory.get();
+        KieBuilder kBuilder = ks.newKieBuilder( kfs );
+        kBuilder.buildAll();
+        if ( kBuilder.getResults().hasMessages( Message.Level.ERROR ) ) {
+            throw new IllegalArgumentException( "Unable to compile the KieModule : " + kBuilder.getResults().getMessages( Message.Level.ERROR ) );
+        }
+
+        // buildAll adds the module to the KieRepository, only the image is kept
+        InternalKieModule kModule = (InternalKieModule) kBuilder.getKieModule();
+        File tmp = File.createTempFile( key, ".tmp", directory );
+        try {
+            BinaryKModuleExternalizer.kieModuleToBinary( kModule, tmp, codec, true );
+            Files.move( tmp.toPath(), image.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally {
+            ks.getRepository().removeKieModule( kModule.getReleaseId() );
+            Files.deleteIfExists( tmp.toPath() );
+        }
+        logger.info( "Cache miss for {}, compiled in {} ms", key, System.currentTimeMillis() - start );
+    }
+
+    private void evict( File keep ) throws IOException {
+        File[] images = listImages();
+        long total = Arrays.stream( images ).mapToLong( File::length ).sum();
+        if ( total <= maxBytes ) {
+            return;
+        }
+        Arrays.sort( images, Comparator.comparingLong( File::lastModified ) );
+        long now = System.currentTimeMillis();
+        for ( File image : images ) {
+            if ( total <= maxBytes ) {
+                break;
+            }
+            if ( image.equals( keep ) || now - image.lastModified() < MIN_IDLE_MILLIS ) {
+                continue;
+            }
+            long length = image.length();
+            if ( Files.deleteIfExists( image.toPath() ) ) {
+                total -= length;
+                logger.info( "Evicted {} ({} bytes)", image.getName(), length );
+            }
+        }
+    }
+
+    private File[] listImages() {
+        File[] images = directory.listFiles( ( dir, name ) -> name.endsWith( IMAGE_SUFFIX ) );
+        return images != null ? images : new File[0];
+    }
+
+    private static boolean touch( File image ) {
+        return image.setLastModified( System.currentTimeMillis() );
+    }
+
+    private interface LockedAction {
+        void run() throws Exception;
+    }
+
+    private static void withLock( File lockFile, LockedAction action ) throws Exception {
+        Object jvmLock = jvmLocks.computeIfAbsent( lockFile.getCanonicalPath(), path -> new Object() );
+        synchronized ( jvmLock ) {
+            try ( FileChannel channel = FileChannel.open( lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE ); FileLock lock = channel.lock() ) {
+                action.run();
+            }
+        }
+    }
+}
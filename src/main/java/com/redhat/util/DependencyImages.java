@@ -0,0 +1,185 @@
+package com.redhat.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.BinaryKModuleExternalizer.BinKieModule;
+
+/**
+ * Directory of the images of the KieModules other modules depend on, e.g. a shared model or rules KJAR<BR>
+ * <BR>
+ * A dependency image is named after the SHA-256 of the content of the dependency, its resources and the content of
+ * its own dependencies, so a dependency of many modules is written once, whatever the module it was captured from.
+ * The images read are kept per directory, a dependency is read once per JVM however many modules depend on it.<BR>
+ * ※ only the image is shared, each KieBase that includes a KieBase of a dependency still adds its packages
+ */
+public class DependencyImages {
+    private static Logger logger = LoggerFactory.getLogger( DependencyImages.class );
+
+    public static final String IMAGE_SUFFIX = ".bin";
+
+    private static final ConcurrentMap<File, DependencyImages> DIRECTORIES = new ConcurrentHashMap<File, DependencyImages>();
+
+    private final File directory;
+    private final ConcurrentMap<String, BinKieModule> loaded = new ConcurrentHashMap<String, BinKieModule>();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    private DependencyImages( File directory ) {
+        this.directory = directory;
+    }
+
+    /**
+     * The dependency images of a directory, one instance per directory in the JVM
+     *
+     * @param directory
+     *            created when the first image is stored
+     * @return DependencyImages
+     */
+    public static DependencyImages forDirectory( File directory ) throws IOException {
+        return DIRECTORIES.computeIfAbsent( directory.getCanonicalFile(), DependencyImages::new );
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public boolean contains( String contentId ) {
+        return getFile( contentId ).isFile();
+    }
+
+    /**
+     * Write the image of a dependency, unless the directory has it already
+     *
+     * @param contentId
+     * @param binKModule
+     * @param codec
+     *            NONE when null
+     * @return true if it was written
+     */
+    boolean store( String contentId, BinKieModule binKModule, Codec codec ) throws IOException {
+        File target = getFile( contentId );
+        if ( target.isFile() ) {
+            return false;
+        }
+        Files.createDirectories( directory.toPath() );
+        File tmp = File.createTempFile( contentId, ".tmp", directory );
+        try {
+            BinaryImageFormat.write( tmp, binKModule.releaseId.toExternalForm(), codec != null ? codec : Codec.NONE, so -> so.writeObject( binKModule ) );
+            // another writer of the same content wins, its image is the same
+            Files.createLink( target.toPath(), tmp.toPath() );
+            writes.increment();
+            logger.info( "Stored dependency {} as {}", binKModule.releaseId, target );
+            return true;
+        }
+        catch ( FileAlreadyExistsException e ) {
+            return false;
+        }
+        finally {
+            Files.deleteIfExists( tmp.toPath() );
+        }
+    }
+
+    /**
+     * Read the image of a dependency, once
+     *
+     * @param contentId
+     * @return BinKieModule, shared by every module that depends on it
+     */
+    BinKieModule load( String contentId ) throws IOException {
+        try {
+            return loaded.computeIfAbsent( contentId, id -> {
+                File image = getFile( id );
+                try {
+                    BinKieModule binKModule = BinaryKModuleExternalizer.readBinKieModule( image );
+                    reads.increment();
+                    logger.debug( "Read dependency {} from {}", binKModule.releaseId, image );
+                    return binKModule;
+                }
+                catch ( IOException e ) {
+                    throw new UncheckedIOException( e );
+                }
+                catch ( Exception e ) {
+                    throw new UncheckedIOException( new IOException( "Unable to read dependency image " + image, e ) );
+                }
+            } );
+        }
+        catch ( UncheckedIOException e ) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return dependency images read from the directory
+     */
+    public long getReads() {
+        return reads.sum();
+    }
+
+    /**
+     * @return dependency images written to the directory
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /**
+     * Forget the images read, e.g. once the modules that depend on them are disposed
+     */
+    public void clear() {
+        loaded.clear();
+    }
+
+    /**
+     * Content id of a KieModule: SHA-256 of the Drools version, its resources and the content ids of its dependencies
+     *
+     * @param kModule
+     * @return hex id
+     */
+    static String contentId( InternalKieModule kModule ) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+            digest.update( BinaryImageFormat.droolsVersion().getBytes( StandardCharsets.UTF_8 ) );
+            List<String> fileNames = new ArrayList<String>( kModule.getFileNames() );
+            Collections.sort( fileNames );
+            for ( String fileName : fileNames ) {
+                byte[] bytes = kModule.getBytes( fileName );
+                digest.update( fileName.getBytes( StandardCharsets.UTF_8 ) );
+                digest.update( (byte) 0 );
+                if ( bytes != null ) {
+                    digest.update( bytes );
+                }
+            }
+            List<String> dependencyIds = new ArrayList<String>();
+            kModule.getKieDependencies().values().forEach( dependency -> dependencyIds.add( contentId( dependency ) ) );
+            Collections.sort( dependencyIds );
+            dependencyIds.forEach( id -> digest.update( id.getBytes( StandardCharsets.UTF_8 ) ) );
+            return String.format( "%064x", new BigInteger( 1, digest.digest() ) );
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( "SHA-256 is not available", e );
+        }
+    }
+
+    private File getFile( String contentId ) {
+        return new File( directory, contentId + IMAGE_SUFFIX );
+    }
+}
@@ -0,0 +1,75 @@
+package com.redhat.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+
+import org.drools.core.common.DroolsObjectInputStream;
+
+import com.redhat.util.SerializationDictionary.StringRef;
+
+/**
+ * DroolsObjectInputStream reading a stream written by a {@link DictionaryObjectOutputStream}<BR>
+ * ※ the classes of the dictionary are looked up once per stream, their descriptors are the local ones, checked against
+ * the serialVersionUIDs of the dictionary
+ */
+public class DictionaryObjectInputStream extends DroolsObjectInputStream {
+
+    private final SerializationDictionary dictionary;
+    private final ObjectStreamClass[] descriptors;
+
+    /**
+     * @param in
+     * @param classLoader
+     *            class loader of the objects, or null for the one of DroolsObjectInputStream
+     * @param dictionary
+     *            dictionary the stream was written with
+     */
+    public DictionaryObjectInputStream( InputStream in, ClassLoader classLoader, SerializationDictionary dictionary ) throws IOException {
+        super( in, classLoader );
+        this.dictionary = dictionary;
+        this.descriptors = new ObjectStreamClass[dictionary.getClassCount()];
+        enableResolveObject( true );
+        String id = readUTF();
+        if ( !dictionary.getId().equals( id ) ) {
+            throw new IOException( "Stream written with dictionary " + id + ", not " + dictionary.getId() );
+        }
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        byte flag = readByte();
+        if ( flag == 0 ) {
+            return super.readClassDescriptor();
+        }
+        if ( flag != 1 ) {
+            throw new StreamCorruptedException( "Invalid class descriptor flag " + flag );
+        }
+        int index = readInt();
+        if ( index < 0 || index >= descriptors.length ) {
+            throw new IOException( "No class " + index + " in dictionary " + dictionary.getId() );
+        }
+        ObjectStreamClass desc = descriptors[index];
+        if ( desc == null ) {
+            Class<?> clazz = Class.forName( dictionary.className( index ), false, getClassLoader() );
+            desc = ObjectStreamClass.lookupAny( clazz );
+            long serialVersionUID = dictionary.serialVersionUID( index );
+            if ( desc.getSerialVersionUID() != serialVersionUID ) {
+                throw new InvalidClassException( clazz.getName(), "local class incompatible: dictionary serialVersionUID = " + serialVersionUID
+                        + ", local class serialVersionUID = " + desc.getSerialVersionUID() );
+            }
+            descriptors[index] = desc;
+        }
+        return desc;
+    }
+
+    @Override
+    protected Object resolveObject( Object obj ) throws IOException {
+        if ( obj instanceof StringRef ) {
+            return dictionary.string( ( (StringRef) obj ).index );
+        }
+        return super.resolveObject( obj );
+    }
+}
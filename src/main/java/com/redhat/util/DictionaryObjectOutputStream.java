@@ -0,0 +1,51 @@
+package com.redhat.util;
+
+import java.io.IOException;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+
+import org.drools.core.common.DroolsObjectOutputStream;
+
+import com.redhat.util.SerializationDictionary.StringRef;
+
+/**
+ * DroolsObjectOutputStream writing the classes and strings of a {@link SerializationDictionary} as indexes<BR>
+ * <BR>
+ * The id of the dictionary is written first, the stream must be read with a {@link DictionaryObjectInputStream} of the
+ * same dictionary. Classes and strings missing from the dictionary are written as usual, so is a class whose
+ * serialVersionUID changed since the dictionary was built.
+ */
+public class DictionaryObjectOutputStream extends DroolsObjectOutputStream {
+
+    private final SerializationDictionary dictionary;
+
+    public DictionaryObjectOutputStream( OutputStream out, SerializationDictionary dictionary ) throws IOException {
+        super( out );
+        this.dictionary = dictionary;
+        enableReplaceObject( true );
+        writeUTF( dictionary.getId() );
+    }
+
+    @Override
+    protected void writeClassDescriptor( ObjectStreamClass desc ) throws IOException {
+        int index = dictionary.indexOfClass( desc.getName() );
+        if ( index >= 0 && dictionary.serialVersionUID( index ) == desc.getSerialVersionUID() ) {
+            writeByte( 1 );
+            writeInt( index );
+        } else {
+            writeByte( 0 );
+            super.writeClassDescriptor( desc );
+        }
+    }
+
+    @Override
+    protected Object replaceObject( Object obj ) throws IOException {
+        if ( obj instanceof String && ( (String) obj ).length() >= SerializationDictionary.MIN_STRING_LENGTH ) {
+            int index = dictionary.indexOfString( (String) obj );
+            if ( index >= 0 ) {
+                return new StringRef( index );
+            }
+        }
+        return super.replaceObject( obj );
+    }
+}
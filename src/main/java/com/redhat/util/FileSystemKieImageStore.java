@@ -0,0 +1,110 @@
+package com.redhat.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * KieImageStore in a directory, one sub directory per releaseId and one file per version
+ */
+public class FileSystemKieImageStore implements KieImageStore {
+    private static Logger logger = LoggerFactory.getLogger( FileSystemKieImageStore.class );
+
+    private static final String IMAGE_SUFFIX = ".bin";
+
+    private final File directory;
+
+    public FileSystemKieImageStore( File directory ) throws IOException {
+        Files.createDirectories( directory.toPath() );
+        this.directory = directory;
+    }
+
+    @Override
+    public ImageVersion put( String releaseId, InputStream image ) throws IOException {
+        File releaseDir = getReleaseDir( releaseId );
+        Files.createDirectories( releaseDir.toPath() );
+        File tmp = File.createTempFile( "image", ".tmp", releaseDir );
+        try {
+            Files.copy( image, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            // linking fails if another writer took the same version, then try the next one
+            while ( true ) {
+                long version = getLatestVersion( releaseDir ) + 1;
+                File target = new File( releaseDir, version + IMAGE_SUFFIX );
+                try {
+                    Files.createLink( target.toPath(), tmp.toPath() );
+                }
+                catch ( FileAlreadyExistsException e ) {
+                    continue;
+                }
+                ImageVersion stored = toImageVersion( releaseId, target, version );
+                logger.info( "Stored {}", stored );
+                return stored;
+            }
+        }
+        finally {
+            Files.deleteIfExists( tmp.toPath() );
+        }
+    }
+
+    @Override
+    public ImageVersion getLatest( String releaseId ) throws IOException {
+        File releaseDir = getReleaseDir( releaseId );
+        long version = getLatestVersion( releaseDir );
+        return version > 0 ? toImageVersion( releaseId, new File( releaseDir, version + IMAGE_SUFFIX ), version ) : null;
+    }
+
+    @Override
+    public List<ImageVersion> getHistory( String releaseId ) throws IOException {
+        File releaseDir = getReleaseDir( releaseId );
+        List<ImageVersion> history = new ArrayList<ImageVersion>();
+        for ( long version : getVersions( releaseDir ) ) {
+            history.add( toImageVersion( releaseId, new File( releaseDir, version + IMAGE_SUFFIX ), version ) );
+        }
+        return history;
+    }
+
+    @Override
+    public InputStream open( String releaseId, long version ) throws IOException {
+        return new FileInputStream( new File( getReleaseDir( releaseId ), version + IMAGE_SUFFIX ) );
+    }
+
+    private File getReleaseDir( String releaseId ) {
+        return new File( directory, releaseId.replace( ':', '_' ) );
+    }
+
+    private static long getLatestVersion( File releaseDir ) {
+        List<Long> versions = getVersions( releaseDir );
+        return versions.isEmpty() ? 0 : versions.get( versions.size() - 1 );
+    }
+
+    private static List<Long> getVersions( File releaseDir ) {
+        List<Long> versions = new ArrayList<Long>();
+        File[] images = releaseDir.listFiles( ( dir, name ) -> name.endsWith( IMAGE_SUFFIX ) );
+        if ( images != null ) {
+            for ( File image : images ) {
+                try {
+                    versions.add( Long.parseLong( image.getName().substring( 0, image.getName().length() - IMAGE_SUFFIX.length() ) ) );
+                }
+                catch ( NumberFormatException e ) {
+                    logger.warn( "Ignoring {} in {}", image.getName(), releaseDir );
+                }
+            }
+        }
+        versions.sort( null );
+        return versions;
+    }
+
+    private static ImageVersion toImageVersion( String releaseId, File image, long version ) {
+        return new ImageVersion( releaseId, version, image.length(), new Date( image.lastModified() ) );
+    }
+}
@@ -0,0 +1,354 @@
+package com.redhat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * KieImageStore in a SQL database, e.g. an embedded H2 database "jdbc:h2:file:/var/lib/rules/images"<BR>
+ * <BR>
+ * KIE_IMAGE_VERSION holds one row per version of an image, KIE_IMAGE_CHUNK the image split into chunks of
+ * {@link #CHUNK_SIZE} bytes. Images are written and read one chunk at a time, so neither side holds a whole image in
+ * the heap. The latest version is looked up on the primary key of KIE_IMAGE_VERSION only.<BR>
+ * ※ a put takes its version in a short transaction of its own, with a LENGTH of -1, and streams the chunks in a second
+ * one that sets the length. Readers skip the versions still being written, and concurrent writers of a releaseId only
+ * contend on the first transaction, which is retried<BR>
+ * ※ the schema uses CREATE TABLE IF NOT EXISTS, which H2 supports but Derby does not
+ */
+public class JdbcKieImageStore implements KieImageStore {
+    private static Logger logger = LoggerFactory.getLogger( JdbcKieImageStore.class );
+
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    private static final int MAX_PUT_ATTEMPTS = 5;
+    private static final long PENDING = -1;
+
+    private static final String CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS KIE_IMAGE_VERSION ( RELEASE_ID VARCHAR(255) NOT NULL, VERSION BIGINT NOT NULL, "
+            + "LENGTH BIGINT NOT NULL, CREATED TIMESTAMP NOT NULL, PRIMARY KEY ( RELEASE_ID, VERSION ) )";
+    private static final String CREATE_CHUNK_TABLE = "CREATE TABLE IF NOT EXISTS KIE_IMAGE_CHUNK ( RELEASE_ID VARCHAR(255) NOT NULL, VERSION BIGINT NOT NULL, "
+            + "SEQ INT NOT NULL, DATA BLOB NOT NULL, PRIMARY KEY ( RELEASE_ID, VERSION, SEQ ) )";
+
+    private static final String SELECT_MAX_VERSION = "SELECT MAX( VERSION ) FROM KIE_IMAGE_VERSION WHERE RELEASE_ID = ?";
+    private static final String SELECT_LATEST = "SELECT VERSION, LENGTH, CREATED FROM KIE_IMAGE_VERSION WHERE RELEASE_ID = ? AND VERSION = "
+            + "( SELECT MAX( VERSION ) FROM KIE_IMAGE_VERSION WHERE RELEASE_ID = ? AND LENGTH >= 0 )";
+    private static final String SELECT_HISTORY = "SELECT VERSION, LENGTH, CREATED FROM KIE_IMAGE_VERSION WHERE RELEASE_ID = ? AND LENGTH >= 0 ORDER BY VERSION";
+    private static final String SELECT_EXISTS = "SELECT 1 FROM KIE_IMAGE_VERSION WHERE RELEASE_ID = ? AND VERSION = ? AND LENGTH >= 0";
+    private static final String INSERT_VERSION = "INSERT INTO KIE_IMAGE_VERSION ( RELEASE_ID, VERSION, LENGTH, CREATED ) VALUES ( ?, ?, " + PENDING + ", ? )";
+    private static final String UPDATE_LENGTH = "UPDATE KIE_IMAGE_VERSION SET LENGTH = ? WHERE RELEASE_ID = ? AND VERSION = ?";
+    private static final String DELETE_PENDING = "DELETE FROM KIE_IMAGE_VERSION WHERE RELEASE_ID = ? AND VERSION = ? AND LENGTH = " + PENDING;
+    private static final String INSERT_CHUNK = "INSERT INTO KIE_IMAGE_CHUNK ( RELEASE_ID, VERSION, SEQ, DATA ) VALUES ( ?, ?, ?, ? )";
+    private static final String SELECT_CHUNK = "SELECT DATA FROM KIE_IMAGE_CHUNK WHERE RELEASE_ID = ? AND VERSION = ? AND SEQ = ?";
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    /**
+     * Connect to the database and create the tables if needed
+     *
+     * @param url
+     * @param user
+     * @param password
+     */
+    public JdbcKieImageStore( String url, String user, String password ) throws IOException {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        try ( Connection connection = getConnection(); Statement statement = connection.createStatement() ) {
+            statement.execute( CREATE_VERSION_TABLE );
+            statement.execute( CREATE_CHUNK_TABLE );
+        }
+        catch ( SQLException e ) {
+            throw new IOException( "Unable to create the image tables in " + url, e );
+        }
+    }
+
+    @Override
+    public ImageVersion put( String releaseId, InputStream image ) throws IOException {
+        try ( Connection connection = getConnection() ) {
+            connection.setAutoCommit( false );
+            ImageVersion pending = allocate( connection, releaseId );
+            try {
+                long length = insertChunks( connection, releaseId, pending.getVersion(), image );
+                connection.commit();
+                ImageVersion stored = new ImageVersion( releaseId, pending.getVersion(), length, pending.getCreated() );
+                logger.info( "Stored {}", stored );
+                return stored;
+            }
+            catch ( SQLException | IOException | RuntimeException e ) {
+                connection.rollback();
+                discard( connection, pending );
+                throw e;
+            }
+        }
+        catch ( SQLException e ) {
+            throw new IOException( "Unable to store the image of " + releaseId, e );
+        }
+    }
+
+    @Override
+    public ImageVersion getLatest( String releaseId ) throws IOException {
+        try ( Connection connection = getConnection(); PreparedStatement select = connection.prepareStatement( SELECT_LATEST ) ) {
+            select.setString( 1, releaseId );
+            select.setString( 2, releaseId );
+            try ( ResultSet rs = select.executeQuery() ) {
+                return rs.next() ? toImageVersion( releaseId, rs ) : null;
+            }
+        }
+        catch ( SQLException e ) {
+            throw new IOException( "Unable to read the latest version of " + releaseId, e );
+        }
+    }
+
+    @Override
+    public List<ImageVersion> getHistory( String releaseId ) throws IOException {
+        List<ImageVersion> history = new ArrayList<ImageVersion>();
+        try ( Connection connection = getConnection(); PreparedStatement select = connection.prepareStatement( SELECT_HISTORY ) ) {
+            select.setString( 1, releaseId );
+            try ( ResultSet rs = select.executeQuery() ) {
+                while ( rs.next() ) {
+                    history.add( toImageVersion( releaseId, rs ) );
+                }
+            }
+        }
+        catch ( SQLException e ) {
+            throw new IOException( "Unable to read the versions of " + releaseId, e );
+        }
+        return history;
+    }
+
+    @Override
+    public InputStream open( String releaseId, long version ) throws IOException {
+        Connection connection = null;
+        try {
+            connection = getConnection();
+            try ( PreparedStatement select = connection.prepareStatement( SELECT_EXISTS ) ) {
+                select.setString( 1, releaseId );
+                select.setLong( 2, version );
+                try ( ResultSet rs = select.executeQuery() ) {
+                    if ( !rs.next() ) {
+                        throw new IOException( "No version " + version + " of " + releaseId );
+                    }
+                }
+            }
+            InputStream in = new ChunkInputStream( connection, releaseId, version );
+            // the stream closes the connection from now on
+            connection = null;
+            return in;
+        }
+        catch ( SQLException e ) {
+            throw new IOException( "Unable to open version " + version + " of " + releaseId, e );
+        }
+        finally {
+            if ( connection != null ) {
+                try {
+                    connection.close();
+                }
+                catch ( SQLException e ) {
+                    logger.debug( "Unable to close the connection of {}", releaseId, e );
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the next version of a releaseId in a transaction of its own, retried when another writer took it first
+     *
+     * @return the version, still pending
+     */
+    private static ImageVersion allocate( Connection connection, String releaseId ) throws SQLException, IOException {
+        SQLException failure = null;
+        for ( int attempt = 0; attempt < MAX_PUT_ATTEMPTS; attempt++ ) {
+            try {
+                long version;
+                try ( PreparedStatement select = connection.prepareStatement( SELECT_MAX_VERSION ) ) {
+                    select.setString( 1, releaseId );
+                    try ( ResultSet rs = select.executeQuery() ) {
+                        version = rs.next() ? rs.getLong( 1 ) + 1 : 1;
+                    }
+                }
+                Timestamp created = new Timestamp( System.currentTimeMillis() );
+                try ( PreparedStatement insert = connection.prepareStatement( INSERT_VERSION ) ) {
+                    insert.setString( 1, releaseId );
+                    insert.setLong( 2, version );
+                    insert.setTimestamp( 3, created );
+                    insert.executeUpdate();
+                }
+                connection.commit();
+                return new ImageVersion( releaseId, version, PENDING, new Date( created.getTime() ) );
+            }
+            catch ( SQLException e ) {
+                connection.rollback();
+                if ( !isRetryable( e ) ) {
+                    throw e;
+                }
+                // another writer took the version, no chunk was read yet, try the next one
+                failure = e;
+            }
+        }
+        throw new IOException( "Unable to take a version of " + releaseId + " after " + MAX_PUT_ATTEMPTS + " attempts", failure );
+    }
+
+    /**
+     * Forget a version whose chunks could not be written, a crashed writer leaves it pending and hidden
+     */
+    private static void discard( Connection connection, ImageVersion pending ) {
+        try ( PreparedStatement delete = connection.prepareStatement( DELETE_PENDING ) ) {
+            delete.setString( 1, pending.getReleaseId() );
+            delete.setLong( 2, pending.getVersion() );
+            delete.executeUpdate();
+            connection.commit();
+        }
+        catch ( SQLException e ) {
+            logger.warn( "Unable to discard the pending version {} of {}", pending.getVersion(), pending.getReleaseId(), e );
+        }
+    }
+
+    private static long insertChunks( Connection connection, String releaseId, long version, InputStream image ) throws SQLException, IOException {
+        long length = 0;
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try ( PreparedStatement insert = connection.prepareStatement( INSERT_CHUNK ) ) {
+            int seq = 0;
+            int read;
+            while ( ( read = readChunk( image, chunk ) ) > 0 ) {
+                insert.setString( 1, releaseId );
+                insert.setLong( 2, version );
+                insert.setInt( 3, seq++ );
+                insert.setBinaryStream( 4, new ByteArrayInputStream( chunk, 0, read ), read );
+                insert.executeUpdate();
+                length += read;
+            }
+        }
+        try ( PreparedStatement update = connection.prepareStatement( UPDATE_LENGTH ) ) {
+            update.setLong( 1, length );
+            update.setString( 2, releaseId );
+            update.setLong( 3, version );
+            update.executeUpdate();
+        }
+        return length;
+    }
+
+    private static int readChunk( InputStream in, byte[] chunk ) throws IOException {
+        int total = 0;
+        int read;
+        while ( total < chunk.length && ( read = in.read( chunk, total, chunk.length - total ) ) != -1 ) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static boolean isRetryable( SQLException e ) {
+        String state = e.getSQLState();
+        if ( state == null ) {
+            return false;
+        }
+        // class 23 is an integrity constraint violation, class 40 a rollback for serialization or deadlock, HYT00 a
+        // lock timeout and 90131 the concurrent update of H2
+        return state.startsWith( "23" ) || state.startsWith( "40" ) || state.equals( "HYT00" ) || state.equals( "90131" );
+    }
+
+    private static ImageVersion toImageVersion( String releaseId, ResultSet rs ) throws SQLException {
+        return new ImageVersion( releaseId, rs.getLong( 1 ), rs.getLong( 2 ), new Date( rs.getTimestamp( 3 ).getTime() ) );
+    }
+
+    private Connection getConnection() throws SQLException {
+        return DriverManager.getConnection( url, user, password );
+    }
+
+    /**
+     * Reads the chunks of an image one after the other, on the connection it was opened with
+     */
+    static class ChunkInputStream extends InputStream {
+        private final Connection connection;
+        private final PreparedStatement select;
+        private final String releaseId;
+        private final long version;
+        private int seq;
+        private byte[] chunk = new byte[0];
+        private int position;
+        private boolean exhausted;
+
+        ChunkInputStream( Connection connection, String releaseId, long version ) throws SQLException {
+            this.connection = connection;
+            this.select = connection.prepareStatement( SELECT_CHUNK );
+            this.releaseId = releaseId;
+            this.version = version;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if ( !fill() ) {
+                return -1;
+            }
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException {
+            if ( len == 0 ) {
+                return 0;
+            }
+            if ( !fill() ) {
+                return -1;
+            }
+            int n = Math.min( len, chunk.length - position );
+            System.arraycopy( chunk, position, b, off, n );
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return chunk.length - position;
+        }
+
+        private boolean fill() throws IOException {
+            while ( position == chunk.length ) {
+                if ( exhausted ) {
+                    return false;
+                }
+                try {
+                    select.setString( 1, releaseId );
+                    select.setLong( 2, version );
+                    select.setInt( 3, seq++ );
+                    try ( ResultSet rs = select.executeQuery() ) {
+                        if ( rs.next() ) {
+                            chunk = rs.getBytes( 1 );
+                            position = 0;
+                        } else {
+                            exhausted = true;
+                        }
+                    }
+                }
+                catch ( SQLException e ) {
+                    throw new IOException( "Unable to read chunk " + ( seq - 1 ) + " of version " + version + " of " + releaseId, e );
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                select.close();
+                connection.close();
+            }
+            catch ( SQLException e ) {
+                throw new IOException( e );
+            }
+        }
+    }
+}
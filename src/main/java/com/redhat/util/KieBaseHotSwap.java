@@ -0,0 +1,234 @@
+package com.redhat.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.core.definitions.InternalKnowledgePackage;
+import org.drools.core.impl.KnowledgeBaseImpl;
+import org.kie.api.definition.KiePackage;
+import org.kie.api.definition.rule.Rule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental reload of rule packages into a KieBase that already has live sessions<BR>
+ * <BR>
+ * The rules of a reloaded package are removed one by one and the new package is merged with addPackages, instead of
+ * removeKiePackage followed by addPackage which fails once a deserialized KieBase has created a session. Declared types
+ * and globals of the existing package stay in place, so facts in the live sessions keep their classes. Every change goes
+ * through the KieBase, which updates the networks of the live sessions.<BR>
+ * ※ the KieBase is locked for the whole swap, so a session never sees the removed rules without the added ones
+ */
+public class KieBaseHotSwap {
+    private static Logger logger = LoggerFactory.getLogger( KieBaseHotSwap.class );
+
+    /**
+     * Outcome of a swap
+     */
+    public static class SwapReport {
+        int packages;
+        int rulesRemoved;
+        int rulesAdded;
+        int liveSessions;
+        long totalNanos;
+        long longestPauseNanos;
+
+        public int getPackages() {
+            return packages;
+        }
+
+        public int getRulesRemoved() {
+            return rulesRemoved;
+        }
+
+        public int getRulesAdded() {
+            return rulesAdded;
+        }
+
+        public int getLiveSessions() {
+            return liveSessions;
+        }
+
+        /**
+         * @return time taken by the whole swap
+         */
+        public long getTotalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis( totalNanos );
+        }
+
+        /**
+         * @return time the KieBase was locked, sessions wait for the whole swap
+         */
+        public long getLongestPauseMillis() {
+            return TimeUnit.NANOSECONDS.toMillis( longestPauseNanos );
+        }
+
+        @Override
+        public String toString() {
+            return "SwapReport [packages=" + packages + ", rulesRemoved=" + rulesRemoved + ", rulesAdded=" + rulesAdded + ", liveSessions=" + liveSessions
+                    + ", totalMillis=" + getTotalMillis() + ", longestPauseMillis=" + getLongestPauseMillis() + "]";
+        }
+    }
+
+    /**
+     * Swap the packages of a KiePackages image into the KieBase
+     *
+     * @param kBase
+     * @param kPackagesFile
+     *            a Collection of KiePackages, as written by DroolsObjectOutputStream with or without a frame
+     * @return SwapReport
+     */
+    @SuppressWarnings( "unchecked" )
+    public static SwapReport swap( KnowledgeBaseImpl kBase, File kPackagesFile ) throws Exception {
+        Collection<KiePackage> kPackages;
+        try ( ObjectInputStream in = new CachingObjectInputStream( BinaryImageFormat.openPayload( new FileInputStream( kPackagesFile ) ), kBase.getRootClassLoader() ) ) {
+            kPackages = (Collection<KiePackage>) in.readObject();
+        }
+        return swap( kBase, kPackages );
+    }
+
+    /**
+     * Swap packages into the KieBase, replacing the rules of the packages it already has
+     *
+     * @param kBase
+     * @param kPackages
+     * @return SwapReport
+     */
+    public static SwapReport swap( KnowledgeBaseImpl kBase, Collection<KiePackage> kPackages ) {
+        SwapReport report = new SwapReport();
+        long start = System.nanoTime();
+        kBase.lock();
+        long locked = System.nanoTime();
+        try {
+            report.liveSessions = kBase.getKieSessions().size();
+            for ( KiePackage kPackage : kPackages ) {
+                KiePackage existing = kBase.getKiePackage( kPackage.getName() );
+                if ( existing != null ) {
+                    List<String> ruleNames = new ArrayList<String>();
+                    existing.getRules().forEach( rule -> ruleNames.add( rule.getName() ) );
+                    removeRules( kBase, kPackage.getName(), ruleNames, report );
+                }
+                addPackage( kBase, (InternalKnowledgePackage) kPackage );
+                report.rulesAdded += kPackage.getRules().size();
+                report.packages++;
+            }
+        }
+        finally {
+            kBase.unlock();
+            report.longestPauseNanos = System.nanoTime() - locked;
+        }
+        report.totalNanos = System.nanoTime() - start;
+        logger.info( "Swapped packages into KieBase {}: {}", kBase.getId(), report );
+        return report;
+    }
+
+    /**
+     * Apply the deltas of a delta image to the KieBase
+     *
+     * @param kBase
+     * @param deltaFile
+     *            deltas written by KiePackageDiff
+     * @return SwapReport
+     */
+    public static SwapReport apply( KnowledgeBaseImpl kBase, File deltaFile ) throws Exception {
+        return apply( kBase, KiePackageDiff.read( deltaFile, kBase.getRootClassLoader() ) );
+    }
+
+    /**
+     * Apply rule level deltas to the KieBase, only the added, changed and removed rules are touched
+     *
+     * @param kBase
+     * @param deltas
+     * @return SwapReport
+     */
+    public static SwapReport apply( KnowledgeBaseImpl kBase, Collection<KiePackageDelta> deltas ) {
+        SwapReport report = new SwapReport();
+        long start = System.nanoTime();
+        kBase.lock();
+        long locked = System.nanoTime();
+        try {
+            report.liveSessions = kBase.getKieSessions().size();
+            for ( KiePackageDelta delta : deltas ) {
+                List<String> outdatedRules = new ArrayList<String>( delta.getRemovedRules() );
+                outdatedRules.addAll( delta.getChangedRules() );
+                removeRules( kBase, delta.getPackageName(), outdatedRules, report );
+
+                InternalKnowledgePackage existing = kBase.getPackage( delta.getPackageName() );
+                if ( existing != null ) {
+                    List<String> outdatedFunctions = new ArrayList<String>( delta.getRemovedFunctions() );
+                    outdatedFunctions.addAll( delta.getChangedFunctions() );
+                    for ( String functionName : outdatedFunctions ) {
+                        if ( existing.getFunctions().containsKey( functionName ) ) {
+                            kBase.removeFunction( delta.getPackageName(), functionName );
+                        }
+                    }
+                    for ( String identifier : delta.getRemovedGlobals() ) {
+                        existing.removeGlobal( identifier );
+                        // the globals of the KieBase are shared by its packages
+                        if ( kBase.getPackagesMap().values().stream().noneMatch( pkg -> pkg.getGlobals().containsKey( identifier ) ) ) {
+                            kBase.removeGlobal( identifier );
+                        }
+                    }
+                }
+                if ( delta.getKiePackage() != null ) {
+                    addPackage( kBase, delta.getKiePackage() );
+                    report.rulesAdded += delta.getAddedRules().size() + delta.getChangedRules().size();
+                }
+                report.packages++;
+            }
+        }
+        finally {
+            kBase.unlock();
+            report.longestPauseNanos = System.nanoTime() - locked;
+        }
+        report.totalNanos = System.nanoTime() - start;
+        logger.info( "Applied package deltas to KieBase {}: {}", kBase.getId(), report );
+        return report;
+    }
+
+    /**
+     * Remove rules from the KieBase, rules it does not have are ignored<BR>
+     * ※ called with the KieBase locked
+     *
+     * @param kBase
+     * @param packageName
+     * @param ruleNames
+     * @param report
+     */
+    static void removeRules( KnowledgeBaseImpl kBase, String packageName, Collection<String> ruleNames, SwapReport report ) {
+        Set<String> existing = new HashSet<String>();
+        KiePackage kPackage = kBase.getKiePackage( packageName );
+        if ( kPackage != null ) {
+            for ( Rule rule : kPackage.getRules() ) {
+                existing.add( rule.getName() );
+            }
+        }
+        for ( String ruleName : ruleNames ) {
+            if ( existing.contains( ruleName ) ) {
+                kBase.removeRule( packageName, ruleName );
+                report.rulesRemoved++;
+            }
+        }
+    }
+
+    /**
+     * Merge a package into the KieBase<BR>
+     * ※ called with the KieBase locked
+     *
+     * @param kBase
+     * @param kPackage
+     */
+    static void addPackage( KnowledgeBaseImpl kBase, InternalKnowledgePackage kPackage ) {
+        kBase.addPackages( Collections.singletonList( kPackage ) );
+        // the package may have declared types the root class loader did not find before
+        CachingObjectInputStream.invalidate( kBase.getRootClassLoader() );
+    }
+}
@@ -0,0 +1,127 @@
+package com.redhat.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Versioned storage of binary images<BR>
+ * <BR>
+ * Every put stores a new version of the image of a releaseId, the previous versions are kept as history. Images are
+ * streamed in and out, so a node can pull a new version without holding it in the heap.
+ */
+public interface KieImageStore {
+
+    /**
+     * A stored version of an image
+     */
+    class ImageVersion {
+        private final String releaseId;
+        private final long version;
+        private final long length;
+        private final Date created;
+
+        public ImageVersion( String releaseId, long version, long length, Date created ) {
+            this.releaseId = releaseId;
+            this.version = version;
+            this.length = length;
+            this.created = created;
+        }
+
+        public String getReleaseId() {
+            return releaseId;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public Date getCreated() {
+            return created;
+        }
+
+        @Override
+        public String toString() {
+            return "ImageVersion [releaseId=" + releaseId + ", version=" + version + ", length=" + length + ", created=" + created + "]";
+        }
+    }
+
+    /**
+     * Store a new version of an image
+     *
+     * @param releaseId
+     * @param image
+     *            read until the end, not closed
+     * @return the stored version
+     */
+    ImageVersion put( String releaseId, InputStream image ) throws IOException;
+
+    /**
+     * Latest version of the image of a releaseId, without reading the image
+     *
+     * @param releaseId
+     * @return ImageVersion, or null if there is none
+     */
+    ImageVersion getLatest( String releaseId ) throws IOException;
+
+    /**
+     * All versions of the image of a releaseId, oldest first
+     *
+     * @param releaseId
+     * @return versions
+     */
+    List<ImageVersion> getHistory( String releaseId ) throws IOException;
+
+    /**
+     * Open a version of an image
+     *
+     * @param releaseId
+     * @param version
+     * @return InputStream, to be closed by the caller
+     */
+    InputStream open( String releaseId, long version ) throws IOException;
+
+    /**
+     * Store a new version of a framed image, the releaseId is read from its header
+     *
+     * @param image
+     * @return the stored version
+     */
+    default ImageVersion put( File image ) throws IOException {
+        BinaryImageFormat.ImageHeader header = BinaryImageFormat.readHeader( image );
+        if ( header == null || header.getReleaseId().isEmpty() ) {
+            throw new IllegalArgumentException( image + " has no releaseId in its header" );
+        }
+        try ( InputStream in = new FileInputStream( image ) ) {
+            return put( header.getReleaseId(), in );
+        }
+    }
+
+    /**
+     * Copy a version of an image to a local file, e.g. to map it with MappedImage
+     *
+     * @param version
+     * @param target
+     */
+    default void download( ImageVersion version, File target ) throws IOException {
+        File tmp = File.createTempFile( target.getName(), ".tmp", target.getAbsoluteFile().getParentFile() );
+        try {
+            try ( InputStream in = open( version.getReleaseId(), version.getVersion() ) ) {
+                Files.copy( in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+            Files.move( tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally {
+            Files.deleteIfExists( tmp.toPath() );
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.redhat.util;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.drools.core.definitions.InternalKnowledgePackage;
+
+/**
+ * Rule level difference between two versions of a KiePackage<BR>
+ * <BR>
+ * The package only contains the added and changed rules, with the globals, functions and imports of the new version.
+ * Applying the delta removes the removed and changed rules and merges the package, the other rules are not touched.
+ */
+public class KiePackageDelta implements Externalizable {
+
+    String packageName;
+    List<String> addedRules = new ArrayList<String>();
+    List<String> changedRules = new ArrayList<String>();
+    List<String> removedRules = new ArrayList<String>();
+    Map<String, String> addedGlobals = new HashMap<String, String>();
+    List<String> removedGlobals = new ArrayList<String>();
+    List<String> changedFunctions = new ArrayList<String>();
+    List<String> removedFunctions = new ArrayList<String>();
+    InternalKnowledgePackage kPackage;
+
+    public KiePackageDelta() {
+    }
+
+    KiePackageDelta( String packageName ) {
+        this.packageName = packageName;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public List<String> getAddedRules() {
+        return addedRules;
+    }
+
+    public List<String> getChangedRules() {
+        return changedRules;
+    }
+
+    public List<String> getRemovedRules() {
+        return removedRules;
+    }
+
+    public Map<String, String> getAddedGlobals() {
+        return addedGlobals;
+    }
+
+    public List<String> getRemovedGlobals() {
+        return removedGlobals;
+    }
+
+    public List<String> getChangedFunctions() {
+        return changedFunctions;
+    }
+
+    public List<String> getRemovedFunctions() {
+        return removedFunctions;
+    }
+
+    /**
+     * @return the added and changed rules, null if the package was removed
+     */
+    public InternalKnowledgePackage getKiePackage() {
+        return kPackage;
+    }
+
+    /**
+     * @return true if both versions of the package are the same
+     */
+    public boolean isEmpty() {
+        return addedRules.isEmpty() && changedRules.isEmpty() && removedRules.isEmpty() && addedGlobals.isEmpty() && removedGlobals.isEmpty()
+                && changedFunctions.isEmpty() && removedFunctions.isEmpty();
+    }
+
+    @Override
+    public void writeExternal( ObjectOutput out ) throws IOException {
+        out.writeUTF( packageName );
+        out.writeObject( addedRules );
+        out.writeObject( changedRules );
+        out.writeObject( removedRules );
+        out.writeObject( addedGlobals );
+        out.writeObject( removedGlobals );
+        out.writeObject( changedFunctions );
+        out.writeObject( removedFunctions );
+        out.writeObject( kPackage );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    @Override
+    public void readExternal( ObjectInput in ) throws IOException, ClassNotFoundException {
+        packageName = in.readUTF();
+        addedRules = (List<String>) in.readObject();
+        changedRules = (List<String>) in.readObject();
+        removedRules = (List<String>) in.readObject();
+        addedGlobals = (Map<String, String>) in.readObject();
+        removedGlobals = (List<String>) in.readObject();
+        changedFunctions = (List<String>) in.readObject();
+        removedFunctions = (List<String>) in.readObject();
+        kPackage = (InternalKnowledgePackage) in.readObject();
+    }
+
+    @Override
+    public String toString() {
+        return "KiePackageDelta [packageName=" + packageName + ", addedRules=" + addedRules + ", changedRules=" + changedRules + ", removedRules=" + removedRules
+                + ", addedGlobals=" + addedGlobals.keySet() + ", removedGlobals=" + removedGlobals + ", changedFunctions=" + changedFunctions + ", removedFunctions="
+                + removedFunctions + "]";
+    }
+}
@@ -0,0 +1,349 @@
+package com.redhat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.drools.core.common.DroolsObjectOutputStream;
+import org.drools.core.definitions.InternalKnowledgePackage;
+import org.drools.core.definitions.rule.impl.RuleImpl;
+import org.drools.core.factmodel.FieldDefinition;
+import org.drools.core.rule.JavaDialectRuntimeData;
+import org.drools.core.rule.TypeDeclaration;
+import org.drools.core.spi.Wireable;
+import org.drools.core.util.StringUtils;
+import org.kie.api.definition.KiePackage;
+import org.kie.api.definition.rule.Rule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.util.BinaryImageFormat.Codec;
+
+/**
+ * Compares two versions of KiePackages rule by rule<BR>
+ * <BR>
+ * A rule is fingerprinted by its attributes, its serialized LHS and the bytecode generated for it (consequence, evals,
+ * ...), so renumbering rules or editing one rule only changes the fingerprints of the rules concerned. Functions are
+ * fingerprinted by their bytecode.<BR>
+ * ※ declared types are not diffed, a package whose declared types changed has to be reloaded as a whole
+ */
+public class KiePackageDiff {
+    private static Logger logger = LoggerFactory.getLogger( KiePackageDiff.class );
+
+    private static final String CONSEQUENCE_INVOKER = "DefaultConsequenceInvoker";
+
+    /**
+     * Compare two KiePackages images
+     *
+     * @param oldImage
+     * @param newImage
+     * @param classLoader
+     *            class loader resolving the model classes of both images
+     * @return deltas of the packages that changed
+     */
+    public static List<KiePackageDelta> diff( File oldImage, File newImage, ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+        return diff( readKiePackages( oldImage, classLoader ), readKiePackages( newImage, classLoader ), classLoader );
+    }
+
+    /**
+     * Compare two versions of KiePackages<BR>
+     * ※ the new packages are left as they are, each delta has a copy that only keeps the added and changed rules
+     *
+     * @param oldPackages
+     * @param newPackages
+     * @param classLoader
+     *            class loader resolving the model classes of the new packages
+     * @return deltas of the packages that changed
+     */
+    public static List<KiePackageDelta> diff( Collection<KiePackage> oldPackages, Collection<KiePackage> newPackages, ClassLoader classLoader )
+            throws IOException, ClassNotFoundException {
+        Map<String, KiePackage> oldByName = new LinkedHashMap<String, KiePackage>();
+        oldPackages.forEach( kPackage -> oldByName.put( kPackage.getName(), kPackage ) );
+        Map<String, KiePackage> newByName = new LinkedHashMap<String, KiePackage>();
+        newPackages.forEach( kPackage -> newByName.put( kPackage.getName(), kPackage ) );
+
+        List<KiePackageDelta> deltas = new ArrayList<KiePackageDelta>();
+        for ( KiePackage newPackage : newPackages ) {
+            addIfChanged( deltas, diff( (InternalKnowledgePackage) oldByName.get( newPackage.getName() ), (InternalKnowledgePackage) newPackage, classLoader ) );
+        }
+        for ( KiePackage oldPackage : oldPackages ) {
+            if ( !newByName.containsKey( oldPackage.getName() ) ) {
+                addIfChanged( deltas, diff( (InternalKnowledgePackage) oldPackage, null, classLoader ) );
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Compare two versions of a KiePackage
+     *
+     * @param oldPackage
+     *            null if the package is new
+     * @param newPackage
+     *            null if the package was removed, not modified
+     * @param classLoader
+     *            class loader resolving the model classes of the new package
+     * @return KiePackageDelta
+     */
+    public static KiePackageDelta diff( InternalKnowledgePackage oldPackage, InternalKnowledgePackage newPackage, ClassLoader classLoader )
+            throws IOException, ClassNotFoundException {
+        KiePackageDelta delta = new KiePackageDelta( newPackage != null ? newPackage.getName() : oldPackage.getName() );
+        if ( oldPackage != null && newPackage != null && !getTypeDeclarations( oldPackage ).equals( getTypeDeclarations( newPackage ) ) ) {
+            throw new IllegalArgumentException( "Declared types of package " + delta.packageName + " changed, the package has to be reloaded as a whole" );
+        }
+
+        Map<String, String> oldRules = getRuleFingerprints( oldPackage );
+        Map<String, String> newRules = getRuleFingerprints( newPackage );
+        newRules.forEach( ( ruleName, fingerprint ) -> {
+            if ( !oldRules.containsKey( ruleName ) ) {
+                delta.addedRules.add( ruleName );
+            } else if ( !oldRules.get( ruleName ).equals( fingerprint ) ) {
+                delta.changedRules.add( ruleName );
+            }
+        } );
+        oldRules.keySet().stream().filter( ruleName -> !newRules.containsKey( ruleName ) ).forEach( delta.removedRules::add );
+
+        Map<String, String> oldGlobals = oldPackage != null ? oldPackage.getGlobals() : new TreeMap<String, String>();
+        Map<String, String> newGlobals = newPackage != null ? newPackage.getGlobals() : new TreeMap<String, String>();
+        newGlobals.forEach( ( identifier, type ) -> {
+            if ( !type.equals( oldGlobals.get( identifier ) ) ) {
+                delta.addedGlobals.put( identifier, type );
+            }
+        } );
+        oldGlobals.keySet().stream().filter( identifier -> !newGlobals.containsKey( identifier ) ).forEach( delta.removedGlobals::add );
+
+        Map<String, String> oldFunctions = getFunctionFingerprints( oldPackage );
+        Map<String, String> newFunctions = getFunctionFingerprints( newPackage );
+        newFunctions.forEach( ( functionName, fingerprint ) -> {
+            if ( !fingerprint.equals( oldFunctions.get( functionName ) ) ) {
+                delta.changedFunctions.add( functionName );
+            }
+        } );
+        oldFunctions.keySet().stream().filter( functionName -> !newFunctions.containsKey( functionName ) ).forEach( delta.removedFunctions::add );
+
+        if ( newPackage != null && !delta.isEmpty() ) {
+            // the rules that did not change are pruned from a copy, the caller keeps the whole package
+            InternalKnowledgePackage kPackage = copy( newPackage, classLoader );
+            for ( String ruleName : newRules.keySet() ) {
+                if ( !delta.addedRules.contains( ruleName ) && !delta.changedRules.contains( ruleName ) ) {
+                    kPackage.removeRule( kPackage.getRule( ruleName ) );
+                }
+            }
+            delta.kPackage = kPackage;
+        }
+        return delta;
+    }
+
+    /**
+     * Write deltas as a framed image
+     *
+     * @param file
+     * @param deltas
+     * @param codec
+     */
+    public static void write( File file, List<KiePackageDelta> deltas, Codec codec ) throws IOException {
+        BinaryImageFormat.write( file, null, codec, so -> so.writeObject( new ArrayList<KiePackageDelta>( deltas ) ) );
+    }
+
+    /**
+     * Read the deltas of an image
+     *
+     * @param file
+     * @param classLoader
+     *            class loader of the KieBase the deltas will be applied to
+     * @return deltas
+     */
+    @SuppressWarnings( "unchecked" )
+    public static List<KiePackageDelta> read( File file, ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+        try ( ObjectInputStream in = new CachingObjectInputStream( BinaryImageFormat.openPayload( new FileInputStream( file ) ), classLoader ) ) {
+            return (List<KiePackageDelta>) in.readObject();
+        }
+    }
+
+    private static void addIfChanged( List<KiePackageDelta> deltas, KiePackageDelta delta ) {
+        if ( delta.isEmpty() ) {
+            return;
+        }
+        logger.debug( "{}", delta );
+        deltas.add( delta );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static Collection<KiePackage> readKiePackages( File file, ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+        try ( ObjectInputStream in = new CachingObjectInputStream( BinaryImageFormat.openPayload( new FileInputStream( file ) ), classLoader ) ) {
+            return (Collection<KiePackage>) in.readObject();
+        }
+    }
+
+    private static InternalKnowledgePackage copy( InternalKnowledgePackage kPackage, ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( ObjectOutputStream so = new DroolsObjectOutputStream( bytes ) ) {
+            so.writeObject( kPackage );
+        }
+        try ( ObjectInputStream in = new CachingObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ), classLoader ) ) {
+            return (InternalKnowledgePackage) in.readObject();
+        }
+    }
+
+    /**
+     * Digest of the content of a package: its rules, functions, declared types and globals<BR>
+     * ※ two builds of the same resources have the same fingerprint, a package with the same names but another rule
+     * body, attribute or field has another one
+     *
+     * @param pkg
+     * @return hex SHA-256
+     */
+    static String fingerprint( InternalKnowledgePackage pkg ) {
+        MessageDigest digest = newDigest();
+        update( digest, "rules", getRuleFingerprints( pkg ) );
+        update( digest, "functions", getFunctionFingerprints( pkg ) );
+        Map<String, String> types = new TreeMap<String, String>();
+        pkg.getTypeDeclarations().values().forEach( type -> types.put( type.getTypeClassName(), type.getNature().name() ) );
+        update( digest, "types", types );
+        update( digest, "fields", getTypeDeclarations( pkg ) );
+        update( digest, "globals", new TreeMap<String, String>( pkg.getGlobals() ) );
+        return toHex( digest.digest() );
+    }
+
+    private static void update( MessageDigest digest, String section, Map<String, String> entries ) {
+        digest.update( section.getBytes( StandardCharsets.UTF_8 ) );
+        digest.update( (byte) 0 );
+        entries.forEach( ( key, value ) -> {
+            digest.update( key.getBytes( StandardCharsets.UTF_8 ) );
+            digest.update( (byte) 0 );
+            digest.update( String.valueOf( value ).getBytes( StandardCharsets.UTF_8 ) );
+            digest.update( (byte) 0 );
+        } );
+    }
+
+    private static Map<String, String> getRuleFingerprints( InternalKnowledgePackage pkg ) {
+        Map<String, String> fingerprints = new TreeMap<String, String>();
+        if ( pkg == null ) {
+            return fingerprints;
+        }
+        Map<String, byte[]> store = getStore( pkg );
+        Map<String, String> ruleClassNames = getRuleClassNames( pkg );
+        for ( Rule rule : pkg.getRules() ) {
+            fingerprints.put( rule.getName(), fingerprint( (RuleImpl) rule, ruleClassNames.get( rule.getName() ), store ) );
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Class name generated for each rule, found from the invoker of its consequence
+     */
+    private static Map<String, String> getRuleClassNames( InternalKnowledgePackage pkg ) {
+        Map<String, String> ruleClassNames = new TreeMap<String, String>();
+        JavaDialectRuntimeData dialectData = (JavaDialectRuntimeData) pkg.getDialectRuntimeRegistry().getDialectData( "java" );
+        if ( dialectData == null ) {
+            return ruleClassNames;
+        }
+        for ( Map.Entry<String, Wireable> invoker : dialectData.getInvokers().entrySet() ) {
+            if ( invoker.getValue() instanceof RuleImpl && invoker.getKey().endsWith( CONSEQUENCE_INVOKER ) ) {
+                String className = invoker.getKey().substring( 0, invoker.getKey().length() - CONSEQUENCE_INVOKER.length() );
+                ruleClassNames.put( ( (RuleImpl) invoker.getValue() ).getName(), className );
+            }
+        }
+        return ruleClassNames;
+    }
+
+    private static String fingerprint( RuleImpl rule, String ruleClassName, Map<String, byte[]> store ) {
+        MessageDigest digest = newDigest();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( ObjectOutputStream so = new DroolsObjectOutputStream( bytes ) ) {
+            so.writeUTF( rule.getName() );
+            so.writeObject( rule.getSalience() );
+            so.writeObject( rule.getEnabled() );
+            so.writeObject( rule.getAgendaGroup() );
+            so.writeObject( rule.getActivationGroup() );
+            so.writeObject( rule.getRuleFlowGroup() );
+            so.writeBoolean( rule.isNoLoop() );
+            so.writeBoolean( rule.isLockOnActive() );
+            so.writeBoolean( rule.getAutoFocus() );
+            so.writeObject( rule.getDateEffective() );
+            so.writeObject( rule.getDateExpires() );
+            so.writeObject( rule.getTimer() );
+            so.writeObject( new TreeMap<String, Object>( rule.getMetaData() ) );
+            so.writeObject( rule.getLhs() );
+        }
+        catch ( IOException e ) {
+            throw new IllegalStateException( "Unable to fingerprint rule " + rule.getName(), e );
+        }
+        digest.update( bytes.toByteArray() );
+
+        if ( ruleClassName != null ) {
+            // the rule class and its invokers share the rule class name as prefix
+            String prefix = ruleClassName.replace( '.', '/' );
+            new TreeMap<String, byte[]>( store ).forEach( ( resourceName, bytecode ) -> {
+                if ( resourceName.startsWith( prefix ) ) {
+                    digest.update( resourceName.getBytes( StandardCharsets.UTF_8 ) );
+                    digest.update( bytecode );
+                }
+            } );
+        }
+        return toHex( digest.digest() );
+    }
+
+    private static Map<String, String> getFunctionFingerprints( InternalKnowledgePackage pkg ) {
+        Map<String, String> fingerprints = new TreeMap<String, String>();
+        if ( pkg == null ) {
+            return fingerprints;
+        }
+        Map<String, byte[]> store = getStore( pkg );
+        for ( String functionName : pkg.getFunctions().keySet() ) {
+            byte[] bytecode = store.get( pkg.getName().replace( '.', '/' ) + "/" + StringUtils.ucFirst( functionName ) + ".class" );
+            MessageDigest digest = newDigest();
+            if ( bytecode != null ) {
+                digest.update( bytecode );
+            }
+            fingerprints.put( functionName, toHex( digest.digest() ) );
+        }
+        return fingerprints;
+    }
+
+    private static Map<String, String> getTypeDeclarations( InternalKnowledgePackage pkg ) {
+        Map<String, String> types = new TreeMap<String, String>();
+        for ( TypeDeclaration typeDeclaration : pkg.getTypeDeclarations().values() ) {
+            if ( typeDeclaration.getNature() == TypeDeclaration.Nature.DEFINITION ) {
+                StringBuilder fields = new StringBuilder();
+                for ( FieldDefinition field : typeDeclaration.getTypeClassDef().getFieldsDefinitions() ) {
+                    fields.append( field.getName() ).append( ':' ).append( field.getTypeName() ).append( ';' );
+                }
+                types.put( typeDeclaration.getTypeClassName(), fields.toString() );
+            }
+        }
+        return types;
+    }
+
+    private static Map<String, byte[]> getStore( InternalKnowledgePackage pkg ) {
+        JavaDialectRuntimeData dialectData = (JavaDialectRuntimeData) pkg.getDialectRuntimeRegistry().getDialectData( "java" );
+        return dialectData != null ? dialectData.getStore() : new TreeMap<String, byte[]>();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static String toHex( byte[] digest ) {
+        return String.format( "%064x", new BigInteger( 1, digest ) );
+    }
+}
@@ -0,0 +1,241 @@
+package com.redhat.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.drools.core.impl.StatefulKnowledgeSessionImpl;
+import org.kie.api.KieBase;
+import org.kie.api.runtime.KieSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of KieSessions of one KieBase, e.g. deserialized from an image<BR>
+ * <BR>
+ * A session returned to the pool is reset, its facts, agenda and timers are cleared, and used again instead of
+ * creating a new one. A thread gets back the session it returned last when it is still idle, which keeps the session
+ * in the caches of the core running the thread.<BR>
+ * ※ stateless sessions of this Drools version create a new working memory on every execute, stateless use goes
+ * through {@link #execute(Function)} on a pooled stateful session instead
+ */
+public class KieSessionPool implements AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger( KieSessionPool.class );
+
+    private final KieBase kBase;
+    private final Consumer<KieSession> initializer;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final Queue<PoolEntry> idle = new ConcurrentLinkedQueue<PoolEntry>();
+    private final CopyOnWriteArrayList<PoolEntry> sessions = new CopyOnWriteArrayList<PoolEntry>();
+    private final ThreadLocal<PoolEntry> affinity = new ThreadLocal<PoolEntry>();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong affinityHits = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * @param kBase
+     * @param maxSize
+     *            maximum number of sessions, borrowing waits for a session to be returned above it
+     */
+    public KieSessionPool( KieBase kBase, int maxSize ) {
+        this( kBase, maxSize, session -> {
+        } );
+    }
+
+    /**
+     * @param kBase
+     * @param maxSize
+     *            maximum number of sessions, borrowing waits for a session to be returned above it
+     * @param initializer
+     *            called on every new session and after every reset, e.g. to set the globals
+     */
+    public KieSessionPool( KieBase kBase, int maxSize, Consumer<KieSession> initializer ) {
+        if ( maxSize <= 0 ) {
+            throw new IllegalArgumentException( "The pool size must be positive, not " + maxSize );
+        }
+        this.kBase = kBase;
+        this.initializer = initializer;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore( maxSize );
+    }
+
+    /**
+     * Borrow a session, waiting for one to be returned if the pool is exhausted
+     *
+     * @return session to close when done, to return it to the pool
+     */
+    public PooledKieSession borrow() throws InterruptedException {
+        permits.acquire();
+        return new PooledKieSession( take() );
+    }
+
+    /**
+     * Borrow a session, waiting at most the timeout for one to be returned if the pool is exhausted
+     *
+     * @param timeout
+     * @param unit
+     * @return session to close when done, or null if none was returned in time
+     */
+    public PooledKieSession borrow( long timeout, TimeUnit unit ) throws InterruptedException {
+        return permits.tryAcquire( timeout, unit ) ? new PooledKieSession( take() ) : null;
+    }
+
+    /**
+     * Run a unit of work on a pooled session, e.g. insert the facts of a request and fire the rules, the session is
+     * returned to the pool afterwards
+     *
+     * @param work
+     * @return result of the work
+     */
+    public <T> T execute( Function<KieSession, T> work ) throws InterruptedException {
+        try ( PooledKieSession session = borrow() ) {
+            return work.apply( session.getSession() );
+        }
+    }
+
+    public int getSize() {
+        return sessions.size();
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public long getBorrowed() {
+        return borrowed.get();
+    }
+
+    /**
+     * @return borrows served by the session the thread returned last
+     */
+    public long getAffinityHits() {
+        return affinityHits.get();
+    }
+
+    /**
+     * Dispose the sessions, the borrowed ones are disposed when they are returned
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for ( PoolEntry session : sessions ) {
+            if ( session.claim() ) {
+                session.session.dispose();
+            }
+        }
+        logger.info( "Closed pool of {} sessions, {} borrows, {} served by thread affinity", sessions.size(), borrowed.get(), affinityHits.get() );
+    }
+
+    private PoolEntry take() {
+        if ( closed ) {
+            permits.release();
+            throw new IllegalStateException( "The session pool is closed" );
+        }
+        borrowed.incrementAndGet();
+        PoolEntry session = affinity.get();
+        if ( session != null && session.claim() ) {
+            affinityHits.incrementAndGet();
+            return session;
+        }
+        // entries claimed through affinity since they were queued are skipped
+        while ( ( session = idle.poll() ) != null ) {
+            session.queued.set( false );
+            if ( session.claim() ) {
+                return session;
+            }
+        }
+        try {
+            session = new PoolEntry( kBase.newKieSession() );
+            initializer.accept( session.session );
+        }
+        catch ( RuntimeException e ) {
+            permits.release();
+            throw e;
+        }
+        sessions.add( session );
+        logger.debug( "Created pooled session {} of {}", sessions.size(), maxSize );
+        return session;
+    }
+
+    private void release( PoolEntry session ) {
+        try {
+            if ( closed ) {
+                session.session.dispose();
+                return;
+            }
+            try {
+                ( (StatefulKnowledgeSessionImpl) session.session ).reset();
+                initializer.accept( session.session );
+            }
+            catch ( RuntimeException e ) {
+                logger.warn( "Unable to reset a pooled session, it is disposed", e );
+                sessions.remove( session );
+                session.session.dispose();
+                return;
+            }
+            affinity.set( session );
+            session.available.set( true );
+            if ( session.queued.compareAndSet( false, true ) ) {
+                idle.offer( session );
+            }
+        }
+        finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Session borrowed from the pool, closing it returns it to the pool<BR>
+     * ※ every borrow gets its own instance, closing it again or closing an earlier borrow of the same session does
+     * nothing
+     */
+    public class PooledKieSession implements AutoCloseable {
+        private final PoolEntry entry;
+        private final AtomicBoolean returned = new AtomicBoolean( false );
+
+        private PooledKieSession( PoolEntry entry ) {
+            this.entry = entry;
+        }
+
+        public KieSession getSession() {
+            if ( returned.get() ) {
+                throw new IllegalStateException( "The session was returned to the pool" );
+            }
+            return entry.session;
+        }
+
+        /**
+         * Return the session to the pool, it must not be used afterwards
+         */
+        @Override
+        public void close() {
+            if ( returned.compareAndSet( false, true ) ) {
+                release( entry );
+            }
+        }
+    }
+
+    /**
+     * Session of the pool, available while it is idle
+     */
+    private static class PoolEntry {
+        private final KieSession session;
+        private final AtomicBoolean available = new AtomicBoolean( false );
+        private final AtomicBoolean queued = new AtomicBoolean( false );
+
+        private PoolEntry( KieSession session ) {
+            this.session = session;
+        }
+
+        private boolean claim() {
+            return available.compareAndSet( true, false );
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.redhat.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.drools.core.impl.InternalKnowledgeBase;
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.marshalling.Marshaller;
+import org.kie.api.marshalling.ObjectMarshallingStrategy;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.KieSessionConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.model.GlobalFunctions;
+
+/**
+ * Snapshot and restore of the state of a KieSession<BR>
+ * <BR>
+ * magic, layout version, globals section length, globals, session<BR>
+ * <BR>
+ * The session (facts, agenda, timers) is written by the binary session marshaller, the com.redhat.model facts with the
+ * ModelObjectMarshallingStrategy and other facts, e.g. declared types, with Java serialization. The marshaller does not
+ * keep globals, so the GlobalFunctions and the Serializable globals are written first, in their own section.
+ */
+public class KieSessionSnapshots {
+    private static Logger logger = LoggerFactory.getLogger( KieSessionSnapshots.class );
+
+    public static final int MAGIC = 0x4B534E50; // KSNP
+    /**
+     * Layout of the snapshot, the globals section with the evaluations per rule of the GlobalFunctions
+     */
+    public static final int LAYOUT_VERSION = 1;
+
+    private static final byte GLOBAL_FUNCTIONS = 1;
+    private static final byte SERIALIZABLE = 2;
+
+    /**
+     * Write the state of a session
+     *
+     * @param session
+     * @param out
+     */
+    public static void snapshot( KieSession session, OutputStream out ) throws IOException {
+        long start = System.currentTimeMillis();
+        DataOutputStream dout = new DataOutputStream( out );
+        dout.writeInt( MAGIC );
+        dout.writeShort( LAYOUT_VERSION );
+        byte[] globals = writeGlobals( session );
+        dout.writeInt( globals.length );
+        dout.write( globals );
+        newMarshaller( session.getKieBase() ).marshall( dout, session );
+        dout.flush();
+        logger.debug( "Snapshot of {} facts taken in {} ms", session.getFactCount(), System.currentTimeMillis() - start );
+    }
+
+    /**
+     * Write the state of a session to a file
+     *
+     * @param session
+     * @param file
+     */
+    public static void snapshot( KieSession session, File file ) throws IOException {
+        try ( OutputStream out = new BufferedOutputStream( new FileOutputStream( file ), BinaryImageFormat.BUFFER_SIZE ) ) {
+            snapshot( session, out );
+        }
+    }
+
+    /**
+     * Restore a session from a snapshot
+     *
+     * @param kBase
+     *            KieBase with the same rules as the one of the snapshot, e.g. deserialized from the same image
+     * @param in
+     * @return KieSession
+     * @throws IOException
+     *             if it is not a snapshot, or one of another layout
+     */
+    public static KieSession restore( KieBase kBase, InputStream in ) throws IOException, ClassNotFoundException {
+        long start = System.currentTimeMillis();
+        DataInputStream din = new DataInputStream( in );
+        if ( din.readInt() != MAGIC ) {
+            throw new IOException( "Not a session snapshot, or one written before the snapshots were versioned" );
+        }
+        int version = din.readShort();
+        if ( version != LAYOUT_VERSION ) {
+            throw new IOException( "Unsupported session snapshot layout version " + version + ", expected " + LAYOUT_VERSION );
+        }
+        byte[] globals = new byte[din.readInt()];
+        din.readFully( globals );
+
+        KieServices ks = KieServices.Factory.get();
+        KieSessionConfiguration conf = ks.newKieSessionConfiguration();
+        KieSession session = newMarshaller( kBase ).unmarshall( din, conf, ks.newEnvironment() );
+        readGlobals( globals, ( (InternalKnowledgeBase) kBase ).getRootClassLoader() ).forEach( session::setGlobal );
+        logger.debug( "Session of {} facts restored in {} ms", session.getFactCount(), System.currentTimeMillis() - start );
+        return session;
+    }
+
+    /**
+     * Restore a session from a snapshot file
+     *
+     * @param kBase
+     * @param file
+     * @return KieSession
+     */
+    public static KieSession restore( KieBase kBase, File file ) throws IOException, ClassNotFoundException {
+        try ( InputStream in = new BufferedInputStream( new FileInputStream( file ), BinaryImageFormat.BUFFER_SIZE ) ) {
+            return restore( kBase, in );
+        }
+    }
+
+    /**
+     * @param kBase
+     * @return marshaller using the model strategy first, Java serialization for the other objects
+     */
+    public static Marshaller newMarshaller( KieBase kBase ) {
+        KieServices ks = KieServices.Factory.get();
+        ObjectMarshallingStrategy[] strategies = new ObjectMarshallingStrategy[] { new ModelObjectMarshallingStrategy(), ks.getMarshallers().newSerializeMarshallingStrategy() };
+        return ks.getMarshallers().newMarshaller( kBase, strategies );
+    }
+
+    private static byte[] writeGlobals( KieSession session ) throws IOException {
+        Map<String, Object> globals = new LinkedHashMap<String, Object>();
+        for ( String identifier : session.getGlobals().getGlobalKeys() ) {
+            Object global = session.getGlobal( identifier );
+            if ( global instanceof GlobalFunctions || global instanceof Serializable ) {
+                globals.put( identifier, global );
+            } else if ( global != null ) {
+                logger.warn( "Global {} of type {} is not Serializable, it is not part of the snapshot", identifier, global.getClass().getName() );
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( ObjectOutputStream out = new ObjectOutputStream( bytes ) ) {
+            out.writeInt( globals.size() );
+            for ( Map.Entry<String, Object> global : globals.entrySet() ) {
+                out.writeUTF( global.getKey() );
+                if ( global.getValue() instanceof GlobalFunctions ) {
+                    out.writeByte( GLOBAL_FUNCTIONS );
+                    GlobalFunctions functions = (GlobalFunctions) global.getValue();
+                    out.writeLong( functions.getEvals() );
+                    Map<String, Long> evalsByRule = functions.getEvalsByRule();
+                    out.writeInt( evalsByRule.size() );
+                    for ( Map.Entry<String, Long> evals : evalsByRule.entrySet() ) {
+                        out.writeUTF( evals.getKey() );
+                        out.writeLong( evals.getValue() );
+                    }
+                } else {
+                    out.writeByte( SERIALIZABLE );
+                    out.writeObject( global.getValue() );
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, Object> readGlobals( byte[] bytes, ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+        Map<String, Object> globals = new LinkedHashMap<String, Object>();
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) {
+            @Override
+            protected Class<?> resolveClass( ObjectStreamClass desc ) throws IOException, ClassNotFoundException {
+                try {
+                    return Class.forName( desc.getName(), false, classLoader );
+                }
+                catch ( ClassNotFoundException e ) {
+                    return super.resolveClass( desc );
+                }
+            }
+        } ) {
+            int count = in.readInt();
+            for ( int i = 0; i < count; i++ ) {
+                String identifier = in.readUTF();
+                byte type = in.readByte();
+                globals.put( identifier, type == GLOBAL_FUNCTIONS ? readGlobalFunctions( in ) : in.readObject() );
+            }
+        }
+        return globals;
+    }
+
+    private static GlobalFunctions readGlobalFunctions( ObjectInputStream in ) throws IOException {
+        long evals = in.readLong();
+        Map<String, Long> evalsByRule = new LinkedHashMap<String, Long>();
+        int count = in.readInt();
+        for ( int i = 0; i < count; i++ ) {
+            evalsByRule.put( in.readUTF(), in.readLong() );
+        }
+        return new GlobalFunctions( evals, evalsByRule );
+    }
+}
@@ -0,0 +1,162 @@
+package com.redhat.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Read-only memory mapped image file<BR>
+ * <BR>
+ * An image is mapped once per JVM and every load reads from its own view of the same mapping, so dozens of containers
+ * started from one image share the pages. The mapping is read-only, so the pages are also shared with other processes
+ * through the page cache. A file that changed on disk is mapped again on the next open.
+ */
+public class MappedImage {
+
+    private static final ConcurrentHashMap<String, MappedImage> images = new ConcurrentHashMap<String, MappedImage>();
+
+    private final File file;
+    private final long lastModified;
+    private final MappedByteBuffer buffer;
+
+    private MappedImage( File file ) throws IOException {
+        this.file = file;
+        this.lastModified = file.lastModified();
+        this.buffer = map( file );
+    }
+
+    /**
+     * Map a file read-only, without sharing the mapping
+     *
+     * @param file
+     * @return MappedByteBuffer
+     */
+    static MappedByteBuffer map( File file ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+            if ( channel.size() > Integer.MAX_VALUE ) {
+                throw new IOException( file + " is too large to be mapped (" + channel.size() + " bytes)" );
+            }
+            return channel.map( MapMode.READ_ONLY, 0, channel.size() );
+        }
+    }
+
+    /**
+     * Get the shared mapping of an image file
+     *
+     * @param file
+     * @return MappedImage
+     */
+    public static MappedImage open( File file ) throws IOException {
+        String key = file.getCanonicalPath();
+        MappedImage image = images.get( key );
+        if ( image == null || image.isStale() ) {
+            synchronized ( images ) {
+                image = images.get( key );
+                if ( image == null || image.isStale() ) {
+                    image = new MappedImage( file );
+                    images.put( key, image );
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Forget the shared mapping of an image file, it is unmapped once no load uses it anymore
+     *
+     * @param file
+     */
+    public static void release( File file ) throws IOException {
+        images.remove( file.getCanonicalPath() );
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int size() {
+        return buffer.capacity();
+    }
+
+    /**
+     * A new stream over the whole image, streams are independent of each other
+     *
+     * @return InputStream
+     */
+    public InputStream newInputStream() {
+        return new ByteBufferInputStream( buffer.duplicate() );
+    }
+
+    /**
+     * @return a view of the whole mapping, independent of the other views
+     */
+    ByteBuffer getBuffer() {
+        return buffer.duplicate();
+    }
+
+    private boolean isStale() {
+        return file.lastModified() != lastModified || file.length() != buffer.capacity();
+    }
+
+    /**
+     * InputStream reading straight from a ByteBuffer
+     */
+    static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream( ByteBuffer buffer ) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len ) {
+            if ( len == 0 ) {
+                return 0;
+            }
+            if ( !buffer.hasRemaining() ) {
+                return -1;
+            }
+            int n = Math.min( len, buffer.remaining() );
+            buffer.get( b, off, n );
+            return n;
+        }
+
+        @Override
+        public long skip( long n ) {
+            int skipped = (int) Math.max( 0, Math.min( n, buffer.remaining() ) );
+            buffer.position( buffer.position() + skipped );
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark( int readlimit ) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
+}
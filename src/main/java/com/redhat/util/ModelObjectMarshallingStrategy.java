@@ -0,0 +1,298 @@
+package com.redhat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.kie.api.marshalling.ObjectMarshallingStrategy;
+
+import com.redhat.model.AggregateFactD;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.CompositeFactC;
+import com.redhat.model.ModelEncoding;
+
+/**
+ * Marshalling strategy for the com.redhat.model facts<BR>
+ * <BR>
+ * The fields are written by hand, numbers as varints like the Externalizable form of the facts. Objects and strings
+ * are numbered in the order they are first written, within one session snapshot, so a BasicFactA that is a fact of
+ * its own and part of a CompositeFactC is the same object again once restored, and a repeated string is written once.<BR>
+ * ※ the session marshaller unmarshals facts in the order it marshalled them, which the numbering relies on
+ */
+public class ModelObjectMarshallingStrategy implements ObjectMarshallingStrategy {
+
+    private static final byte NULL = 0;
+    private static final byte REFERENCE = 1;
+    private static final byte BASIC_FACT_A = 2;
+    private static final byte BASIC_FACT_B = 3;
+    private static final byte COMPOSITE_FACT_C = 4;
+    private static final byte AGGREGATE_FACT_D = 5;
+    private static final byte EXTERNAL = 6;
+
+    private static final int NULL_STRING = 0;
+    private static final int NEW_STRING = 1;
+    // a string written before is its number + STRING_REFERENCE
+    private static final int STRING_REFERENCE = 2;
+
+    /**
+     * Objects written or read so far in a snapshot
+     */
+    static class ModelContext implements Context {
+        final Map<Object, Integer> written = new IdentityHashMap<Object, Integer>();
+        final List<Object> read = new ArrayList<Object>();
+        final Map<String, Integer> writtenStrings = new HashMap<String, Integer>();
+        final List<String> readStrings = new ArrayList<String>();
+
+        /**
+         * Id of a nested object that is kept outside of this context, e.g. a fact of the session, or -1
+         */
+        long externalId( Object object ) {
+            return -1;
+        }
+
+        /**
+         * Object of an id returned by {@link #externalId(Object)}
+         */
+        Object externalObject( long id ) {
+            return null;
+        }
+
+        @Override
+        public void read( ObjectInputStream ois ) {
+            // nothing to restore, the context only lives for one snapshot
+        }
+
+        @Override
+        public void write( ObjectOutputStream oos ) {
+            // nothing to save, the context only lives for one snapshot
+        }
+    }
+
+    @Override
+    public boolean accept( Object object ) {
+        return object instanceof BasicFactA || object instanceof BasicFactB || object instanceof CompositeFactC || object instanceof AggregateFactD;
+    }
+
+    @Override
+    public Context createContext() {
+        return new ModelContext();
+    }
+
+    @Override
+    public byte[] marshal( Context context, ObjectOutputStream os, Object object ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+        DataOutputStream out = new DataOutputStream( bytes );
+        write( (ModelContext) context, out, object );
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object unmarshal( Context context, ObjectInputStream is, byte[] object, ClassLoader classloader ) throws IOException, ClassNotFoundException {
+        return read( (ModelContext) context, new DataInputStream( new ByteArrayInputStream( object ) ) );
+    }
+
+    @Override
+    public void write( ObjectOutputStream os, Object object ) throws IOException {
+        byte[] bytes = marshal( createContext(), os, object );
+        os.writeInt( bytes.length );
+        os.write( bytes );
+    }
+
+    @Override
+    public Object read( ObjectInputStream os ) throws IOException, ClassNotFoundException {
+        byte[] bytes = new byte[os.readInt()];
+        os.readFully( bytes );
+        return unmarshal( createContext(), os, bytes, null );
+    }
+
+    /**
+     * Write a model object and the objects it refers to
+     */
+    static void write( ModelContext context, DataOutputStream out, Object object ) throws IOException {
+        writeModel( context, out, object, false );
+    }
+
+    /**
+     * Read a model object written by {@link #write(ModelContext, DataOutputStream, Object)}
+     */
+    static Object read( ModelContext context, DataInputStream in ) throws IOException {
+        return readModel( context, in );
+    }
+
+    /**
+     * Copy the state of a model object into another one of the same type, so the objects referring to the target see
+     * the new state
+     *
+     * @return false if the objects are not model objects of the same type
+     */
+    static boolean copyState( Object source, Object target ) {
+        if ( source == null || target == null || source.getClass() != target.getClass() ) {
+            return false;
+        }
+        if ( source instanceof BasicFactA ) {
+            ( (BasicFactA) target ).setNum( ( (BasicFactA) source ).getNum() );
+            ( (BasicFactA) target ).setStr( ( (BasicFactA) source ).getStr() );
+        } else if ( source instanceof BasicFactB ) {
+            ( (BasicFactB) target ).setId( ( (BasicFactB) source ).getId() );
+            ( (BasicFactB) target ).setStr( ( (BasicFactB) source ).getStr() );
+            ( (BasicFactB) target ).setDbl( ( (BasicFactB) source ).getDbl() );
+        } else if ( source instanceof CompositeFactC ) {
+            ( (CompositeFactC) target ).setId( ( (CompositeFactC) source ).getId() );
+            ( (CompositeFactC) target ).setFactA( ( (CompositeFactC) source ).getFactA() );
+            ( (CompositeFactC) target ).setFactB( ( (CompositeFactC) source ).getFactB() );
+        } else if ( source instanceof AggregateFactD ) {
+            ( (AggregateFactD) target ).getFacts().clear();
+            ( (AggregateFactD) source ).getFacts().forEach( ( (AggregateFactD) target )::addFact );
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static void writeModel( ModelContext context, DataOutputStream out, Object object, boolean nested ) throws IOException {
+        if ( object == null ) {
+            out.writeByte( NULL );
+            return;
+        }
+        long externalId = nested ? context.externalId( object ) : -1;
+        if ( externalId >= 0 ) {
+            out.writeByte( EXTERNAL );
+            ModelEncoding.writeVarLong( out, externalId );
+            return;
+        }
+        Integer id = context.written.get( object );
+        if ( id != null ) {
+            out.writeByte( REFERENCE );
+            ModelEncoding.writeVarInt( out, id );
+            return;
+        }
+        context.written.put( object, context.written.size() );
+        if ( object instanceof BasicFactA ) {
+            BasicFactA factA = (BasicFactA) object;
+            out.writeByte( BASIC_FACT_A );
+            ModelEncoding.writeVarInt( out, factA.getNum() );
+            writeString( context, out, factA.getStr() );
+        } else if ( object instanceof BasicFactB ) {
+            BasicFactB factB = (BasicFactB) object;
+            out.writeByte( BASIC_FACT_B );
+            ModelEncoding.writeVarInt( out, factB.getId() );
+            writeString( context, out, factB.getStr() );
+            out.writeDouble( factB.getDbl() );
+        } else if ( object instanceof CompositeFactC ) {
+            CompositeFactC factC = (CompositeFactC) object;
+            out.writeByte( COMPOSITE_FACT_C );
+            ModelEncoding.writeVarInt( out, factC.getId() );
+            writeModel( context, out, factC.getFactA(), true );
+            writeModel( context, out, factC.getFactB(), true );
+        } else if ( object instanceof AggregateFactD ) {
+            AggregateFactD factD = (AggregateFactD) object;
+            out.writeByte( AGGREGATE_FACT_D );
+            ModelEncoding.writeVarInt( out, factD.getFacts().size() );
+            for ( CompositeFactC factC : factD.getFacts() ) {
+                writeModel( context, out, factC, true );
+            }
+        } else {
+            throw new IllegalArgumentException( "Unsupported model object " + object.getClass().getName() );
+        }
+    }
+
+    private static Object readModel( ModelContext context, DataInputStream in ) throws IOException {
+        byte type = in.readByte();
+        switch ( type ) {
+            case NULL:
+                return null;
+            case REFERENCE:
+                return context.read.get( ModelEncoding.readVarInt( in ) );
+            case EXTERNAL: {
+                long id = ModelEncoding.readVarLong( in );
+                Object external = context.externalObject( id );
+                if ( external == null ) {
+                    throw new IOException( "Unknown external object " + id );
+                }
+                return external;
+            }
+            case BASIC_FACT_A: {
+                int index = register( context );
+                BasicFactA factA = new BasicFactA( ModelEncoding.readVarInt( in ), readString( context, in ) );
+                context.read.set( index, factA );
+                return factA;
+            }
+            case BASIC_FACT_B: {
+                int index = register( context );
+                BasicFactB factB = new BasicFactB( ModelEncoding.readVarInt( in ), readString( context, in ), in.readDouble() );
+                context.read.set( index, factB );
+                return factB;
+            }
+            case COMPOSITE_FACT_C: {
+                CompositeFactC factC = new CompositeFactC( ModelEncoding.readVarInt( in ), null, null );
+                context.read.add( factC );
+                factC.setFactA( (BasicFactA) readModel( context, in ) );
+                factC.setFactB( (BasicFactB) readModel( context, in ) );
+                return factC;
+            }
+            case AGGREGATE_FACT_D: {
+                AggregateFactD factD = new AggregateFactD();
+                context.read.add( factD );
+                int size = ModelEncoding.readVarInt( in );
+                for ( int i = 0; i < size; i++ ) {
+                    factD.addFact( (CompositeFactC) readModel( context, in ) );
+                }
+                return factD;
+            }
+            default:
+                throw new IOException( "Unknown model object type " + type );
+        }
+    }
+
+    /**
+     * Reserve the number of an object before its fields are read, in the order it was written
+     */
+    private static int register( ModelContext context ) {
+        context.read.add( null );
+        return context.read.size() - 1;
+    }
+
+    private static void writeString( ModelContext context, DataOutputStream out, String value ) throws IOException {
+        if ( value == null ) {
+            ModelEncoding.writeVarInt( out, NULL_STRING );
+            return;
+        }
+        Integer id = context.writtenStrings.get( value );
+        if ( id != null ) {
+            ModelEncoding.writeVarInt( out, id + STRING_REFERENCE );
+            return;
+        }
+        context.writtenStrings.put( value, context.writtenStrings.size() );
+        ModelEncoding.writeVarInt( out, NEW_STRING );
+        out.writeUTF( value );
+    }
+
+    private static String readString( ModelContext context, DataInputStream in ) throws IOException {
+        int code = ModelEncoding.readVarInt( in );
+        switch ( code ) {
+            case NULL_STRING:
+                return null;
+            case NEW_STRING: {
+                String value = in.readUTF();
+                context.readStrings.add( value );
+                return value;
+            }
+            default:
+                if ( code < STRING_REFERENCE || code - STRING_REFERENCE >= context.readStrings.size() ) {
+                    throw new IOException( "Unknown string reference " + code );
+                }
+                return context.readStrings.get( code - STRING_REFERENCE );
+        }
+    }
+}
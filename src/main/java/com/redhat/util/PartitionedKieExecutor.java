@@ -0,0 +1,158 @@
+package com.redhat.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.ObjectFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.util.KieSessionPool.PooledKieSession;
+
+/**
+ * Evaluates independent groups of facts in parallel, each partition of the facts in its own session of a
+ * KieSessionPool, on its own thread<BR>
+ * <BR>
+ * The facts are sharded by the hash of their key, e.g. the id of the CompositeFactC they belong to, the facts with the
+ * same key are always in the same session. The results of the partitions are merged once they all completed.<BR>
+ * ※ rules only see the facts of their partition, rules joining facts of different keys, or inserting a fact per
+ * session like "Debug Rule 1", behave differently than in a single session
+ */
+public class PartitionedKieExecutor implements AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger( PartitionedKieExecutor.class );
+
+    private final KieSessionPool pool;
+    private final int partitions;
+    private final Function<Object, ?> keyExtractor;
+    private final ExecutorService threads;
+
+    /**
+     * @param pool
+     *            sessions of the partitions, at least as many as partitions for all of them to run at the same time
+     * @param partitions
+     *            number of partitions, e.g. the number of cores
+     * @param keyExtractor
+     *            key of a fact, the facts with the same key are evaluated together
+     */
+    public PartitionedKieExecutor( KieSessionPool pool, int partitions, Function<Object, ?> keyExtractor ) {
+        if ( partitions <= 0 ) {
+            throw new IllegalArgumentException( "The number of partitions must be positive, not " + partitions );
+        }
+        this.pool = pool;
+        this.partitions = partitions;
+        this.keyExtractor = keyExtractor;
+        AtomicInteger count = new AtomicInteger();
+        this.threads = Executors.newFixedThreadPool( partitions, runnable -> {
+            Thread thread = new Thread( runnable, "kie-partition-" + count.getAndIncrement() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    /**
+     * Insert the facts of each partition in a session and fire the rules
+     *
+     * @param facts
+     * @return number of rules fired in all the partitions
+     */
+    public int fireAllRules( Collection<?> facts ) throws InterruptedException, ExecutionException {
+        Integer fired = execute( facts, KieSession::fireAllRules, Integer::sum );
+        return fired != null ? fired : 0;
+    }
+
+    /**
+     * Insert the facts of each partition in a session, fire the rules and collect the objects left in working memory
+     *
+     * @param facts
+     * @param filter
+     *            objects to collect
+     * @return objects of all the partitions
+     */
+    public List<Object> fireAllRules( Collection<?> facts, ObjectFilter filter ) throws InterruptedException, ExecutionException {
+        List<Object> objects = execute( facts, session -> {
+            session.fireAllRules();
+            return new ArrayList<Object>( session.getObjects( filter ) );
+        }, ( left, right ) -> {
+            left.addAll( right );
+            return left;
+        } );
+        return objects != null ? objects : new ArrayList<Object>();
+    }
+
+    /**
+     * Insert the facts of each partition in a session and run the work on it
+     *
+     * @param facts
+     * @param work
+     *            work on the session of a partition, once its facts are inserted
+     * @param merge
+     *            merges the results of two partitions
+     * @return merged results of the partitions, null if there are no facts
+     */
+    public <T> T execute( Collection<?> facts, Function<KieSession, T> work, BinaryOperator<T> merge ) throws InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+        List<List<Object>> shards = shard( facts );
+
+        List<Future<T>> results = new ArrayList<Future<T>>( partitions );
+        for ( List<Object> shard : shards ) {
+            if ( !shard.isEmpty() ) {
+                results.add( threads.submit( () -> {
+                    try ( PooledKieSession session = pool.borrow() ) {
+                        for ( Object fact : shard ) {
+                            session.getSession().insert( fact );
+                        }
+                        return work.apply( session.getSession() );
+                    }
+                } ) );
+            }
+        }
+
+        T merged = null;
+        try {
+            for ( Future<T> result : results ) {
+                merged = merged == null ? result.get() : merge.apply( merged, result.get() );
+            }
+        }
+        catch ( InterruptedException | ExecutionException e ) {
+            for ( Future<T> result : results ) {
+                result.cancel( true );
+            }
+            throw e;
+        }
+        logger.debug( "{} facts evaluated in {} partitions in {} ms", facts.size(), results.size(), TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+        return merged;
+    }
+
+    /**
+     * Stop the threads of the partitions, the sessions belong to the pool
+     */
+    @Override
+    public void close() throws InterruptedException {
+        threads.shutdown();
+        threads.awaitTermination( 1, TimeUnit.MINUTES );
+    }
+
+    List<List<Object>> shard( Collection<?> facts ) {
+        List<List<Object>> shards = new ArrayList<List<Object>>( partitions );
+        for ( int i = 0; i < partitions; i++ ) {
+            shards.add( new ArrayList<Object>( facts.size() / partitions + 1 ) );
+        }
+        for ( Object fact : facts ) {
+            Object key = keyExtractor.apply( fact );
+            // spread the hash, ids are often sequential
+            int hash = key == null ? 0 : key.hashCode() * 0x9E3779B9;
+            shards.get( ( hash >>> 1 ) % partitions ).add( fact );
+        }
+        return shards;
+    }
+}
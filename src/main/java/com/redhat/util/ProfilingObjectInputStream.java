@@ -0,0 +1,108 @@
+package com.redhat.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamClass;
+
+import com.redhat.util.StartupProfiler.Phase;
+import com.redhat.util.StartupProfiler.Sample;
+import com.redhat.util.StartupProfiler.Timer;
+
+/**
+ * CachingObjectInputStream counting the bytes and objects it reads into the timer of its phase. The time spent in
+ * resolveClass is recorded as a RESOLVE_CLASSES sample when the stream is closed.<BR>
+ * ※ with a null timer, i.e. a disabled profiler, it is a plain CachingObjectInputStream
+ */
+public class ProfilingObjectInputStream extends CachingObjectInputStream {
+
+    private final Timer timer;
+    private final String detail;
+    private long resolveNanos;
+    private long resolved;
+    private boolean recorded;
+
+    /**
+     * @param in
+     * @param classLoader
+     *            class loader of the objects, or null for the one of DroolsObjectInputStream, which is not cached
+     * @param timer
+     *            timer of the phase reading the stream, or null
+     * @param detail
+     *            detail of the RESOLVE_CLASSES sample, e.g. the name of the KieBase
+     */
+    public ProfilingObjectInputStream( InputStream in, ClassLoader classLoader, Timer timer, String detail ) throws IOException {
+        super( timer != null ? new CountingInputStream( in, timer ) : in, classLoader );
+        this.timer = timer;
+        this.detail = detail;
+        if ( timer != null ) {
+            enableResolveObject( true );
+        }
+    }
+
+    @Override
+    protected Class<?> resolveClass( ObjectStreamClass desc ) throws IOException, ClassNotFoundException {
+        if ( timer == null ) {
+            return super.resolveClass( desc );
+        }
+        long start = System.nanoTime();
+        try {
+            return super.resolveClass( desc );
+        }
+        finally {
+            resolveNanos += System.nanoTime() - start;
+            resolved++;
+        }
+    }
+
+    @Override
+    protected Object resolveObject( Object obj ) throws IOException {
+        if ( timer != null ) {
+            timer.addObjects( 1 );
+        }
+        return super.resolveObject( obj );
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if ( timer != null && !recorded ) {
+            recorded = true;
+            StartupProfiler.getInstance().record( new Sample( Phase.RESOLVE_CLASSES, detail, resolveNanos, 0, resolved, -1 ) );
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final Timer timer;
+
+        CountingInputStream( InputStream in, Timer timer ) {
+            super( in );
+            this.timer = timer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if ( b >= 0 ) {
+                timer.addBytes( 1 );
+            }
+            return b;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException {
+            int count = super.read( b, off, len );
+            if ( count > 0 ) {
+                timer.addBytes( count );
+            }
+            return count;
+        }
+
+        @Override
+        public long skip( long n ) throws IOException {
+            long count = super.skip( n );
+            timer.addBytes( count );
+            return count;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.redhat.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.drools.core.definitions.rule.impl.RuleImpl;
+import org.drools.core.rule.EvalCondition;
+import org.drools.core.rule.GroupElement;
+import org.drools.core.rule.RuleConditionElement;
+import org.kie.api.definition.rule.Rule;
+import org.kie.api.event.rule.DefaultAgendaEventListener;
+import org.kie.api.event.rule.MatchCreatedEvent;
+import org.kie.api.runtime.KieSession;
+
+import com.redhat.model.GlobalFunctions;
+
+/**
+ * Counts the evaluations of the GlobalFunctions for each rule, so the rules don't have to pass their own name<BR>
+ * <BR>
+ * A match of a rule with an eval among its conditions is counted as an evaluation for the rule. Whether a rule has an
+ * eval is looked up once, in its conditions.<BR>
+ * ※ only the evaluations that let the rule match are counted for it, {@link GlobalFunctions#getEvals()} counts them
+ * all<BR>
+ * ※ listeners are not part of a session snapshot, attach the counter again to a restored session
+ */
+public class RuleEvalCounter extends DefaultAgendaEventListener {
+
+    private final GlobalFunctions functions;
+    private final ConcurrentMap<Rule, Boolean> evalRules = new ConcurrentHashMap<Rule, Boolean>();
+
+    public RuleEvalCounter( GlobalFunctions functions ) {
+        this.functions = functions;
+    }
+
+    /**
+     * Count the evaluations of the session rules into the functions
+     *
+     * @param session
+     * @param functions
+     *            the global functions of the session
+     * @return RuleEvalCounter added to the session
+     */
+    public static RuleEvalCounter attach( KieSession session, GlobalFunctions functions ) {
+        RuleEvalCounter counter = new RuleEvalCounter( functions );
+        session.addEventListener( counter );
+        return counter;
+    }
+
+    @Override
+    public void matchCreated( MatchCreatedEvent event ) {
+        Rule rule = event.getMatch().getRule();
+        Boolean eval = evalRules.get( rule );
+        if ( eval == null ) {
+            eval = evalRules.computeIfAbsent( rule, r -> hasEval( ( (RuleImpl) r ).getLhs() ) );
+        }
+        if ( eval ) {
+            functions.countEval( rule.getName() );
+        }
+    }
+
+    static boolean hasEval( GroupElement element ) {
+        for ( RuleConditionElement child : element.getChildren() ) {
+            if ( child instanceof EvalCondition || ( child instanceof GroupElement && hasEval( (GroupElement) child ) ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,345 @@
+package com.redhat.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.core.common.DroolsObjectOutputStream;
+import org.drools.core.definitions.InternalKnowledgePackage;
+import org.drools.core.impl.KnowledgeBaseImpl;
+import org.drools.core.rule.TypeDeclaration;
+import org.kie.api.builder.model.KieBaseModel;
+import org.kie.api.definition.KiePackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Segmented KiePackage image<BR>
+ * <BR>
+ * magic, format version, table of contents (name, dependencies, offset, length of each package), segments<BR>
+ * <BR>
+ * Each KiePackage is serialized as a separate segment, so a loader can read only the packages a KieBase needs. A
+ * package depends on the packages whose declared types it imports, those are loaded first.
+ */
+public class SegmentedPackageImage {
+    private static Logger logger = LoggerFactory.getLogger( SegmentedPackageImage.class );
+
+    public static final int MAGIC = 0x4B534547; // KSEG
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * Table of contents entry
+     */
+    public static class Segment {
+        String packageName;
+        List<String> dependencies;
+        boolean declaresTypes;
+        long offset;
+        long length;
+
+        public String getPackageName() {
+            return packageName;
+        }
+
+        public List<String> getDependencies() {
+            return dependencies;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Write a segmented image of the packages
+     *
+     * @param file
+     * @param kPackages
+     */
+    public static void write( File file, Collection<KiePackage> kPackages ) throws IOException {
+        List<Segment> segments = new ArrayList<Segment>();
+        Map<String, String> declaringPackages = new LinkedHashMap<String, String>(); // type class name -> package
+        for ( KiePackage kPackage : kPackages ) {
+            for ( TypeDeclaration typeDeclaration : ( (InternalKnowledgePackage) kPackage ).getTypeDeclarations().values() ) {
+                if ( typeDeclaration.getNature() == TypeDeclaration.Nature.DEFINITION ) {
+                    declaringPackages.put( typeDeclaration.getTypeClassName(), kPackage.getName() );
+                }
+            }
+        }
+        for ( KiePackage kPackage : kPackages ) {
+            Segment segment = new Segment();
+            segment.packageName = kPackage.getName();
+            segment.declaresTypes = declaringPackages.containsValue( kPackage.getName() );
+            segment.dependencies = getDependencies( (InternalKnowledgePackage) kPackage, declaringPackages );
+            segments.add( segment );
+        }
+
+        // a reader of the previous image never sees a partial one
+        File dir = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile( file.getName(), ".tmp", dir );
+        try {
+            writeSegments( tmp, kPackages, segments );
+            Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally {
+            Files.deleteIfExists( tmp.toPath() );
+        }
+    }
+
+    private static void writeSegments( File file, Collection<KiePackage> kPackages, List<Segment> segments ) throws IOException {
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) ) {
+            raf.setLength( 0 );
+            writeTableOfContents( raf, segments ); // placeholder for offsets and lengths
+            Map<String, KiePackage> byName = new LinkedHashMap<String, KiePackage>();
+            kPackages.forEach( kPackage -> byName.put( kPackage.getName(), kPackage ) );
+            for ( Segment segment : segments ) {
+                segment.offset = raf.getFilePointer();
+                ObjectOutputStream so = new DroolsObjectOutputStream( new BufferedOutputStream( Channels.newOutputStream( raf.getChannel() ) ) {
+                    @Override
+                    public void close() throws IOException {
+                        flush(); // keep the file open for the next segment
+                    }
+                } );
+                so.writeObject( byName.get( segment.packageName ) );
+                so.close();
+                segment.length = raf.getChannel().position() - segment.offset;
+                raf.seek( segment.offset + segment.length );
+            }
+            raf.seek( 0 );
+            writeTableOfContents( raf, segments );
+        }
+    }
+
+    /**
+     * Open a segmented image, only the table of contents is read
+     *
+     * @param file
+     * @return Reader
+     */
+    public static Reader open( File file ) throws IOException {
+        return new Reader( file );
+    }
+
+    /**
+     * Reads the segments of an image on demand
+     */
+    public static class Reader implements Closeable {
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final Map<String, Segment> segments = new LinkedHashMap<String, Segment>();
+
+        Reader( File file ) throws IOException {
+            raf = new RandomAccessFile( file, "r" );
+            channel = raf.getChannel();
+            if ( raf.readInt() != MAGIC ) {
+                raf.close();
+                throw new IOException( file + " is not a segmented package image" );
+            }
+            int version = raf.readShort();
+            if ( version > FORMAT_VERSION ) {
+                raf.close();
+                throw new IOException( "Unsupported segmented image format version " + version );
+            }
+            int count = raf.readInt();
+            for ( int i = 0; i < count; i++ ) {
+                Segment segment = new Segment();
+                segment.packageName = raf.readUTF();
+                segment.declaresTypes = raf.readBoolean();
+                int dependencyCount = raf.readInt();
+                segment.dependencies = new ArrayList<String>( dependencyCount );
+                for ( int j = 0; j < dependencyCount; j++ ) {
+                    segment.dependencies.add( raf.readUTF() );
+                }
+                segment.offset = raf.readLong();
+                segment.length = raf.readLong();
+                segments.put( segment.packageName, segment );
+            }
+        }
+
+        public Collection<Segment> getSegments() {
+            return Collections.unmodifiableCollection( segments.values() );
+        }
+
+        /**
+         * Names of the packages matching the package patterns of a KieBaseModel, e.g. "com.redhat.rules.*"
+         *
+         * @param kBaseModel
+         * @return package names
+         */
+        public Set<String> getPackageNames( KieBaseModel kBaseModel ) {
+            Set<String> names = new LinkedHashSet<String>();
+            for ( String packageName : segments.keySet() ) {
+                if ( kBaseModel.getPackages().isEmpty() ) {
+                    names.add( packageName );
+                }
+                for ( String pattern : kBaseModel.getPackages() ) {
+                    if ( pattern.equals( "*" ) || pattern.equals( packageName ) || ( pattern.endsWith( ".*" ) && packageName.startsWith( pattern.substring( 0, pattern.length() - 1 ) ) ) ) {
+                        names.add( packageName );
+                    }
+                }
+            }
+            return names;
+        }
+
+        /**
+         * The packages and their dependencies, dependencies first
+         *
+         * @param packageNames
+         * @return ordered package names
+         */
+        public List<String> resolve( Collection<String> packageNames ) {
+            List<String> ordered = new ArrayList<String>();
+            // packages declaring types first, they do not depend on the rules packages
+            List<String> roots = new ArrayList<String>( packageNames );
+            roots.sort( ( a, b ) -> Boolean.compare( !isDeclaring( a ), !isDeclaring( b ) ) );
+            for ( String packageName : roots ) {
+                visit( packageName, ordered, new HashSet<String>() );
+            }
+            return ordered;
+        }
+
+        private boolean isDeclaring( String packageName ) {
+            Segment segment = segments.get( packageName );
+            return segment != null && segment.declaresTypes;
+        }
+
+        private void visit( String packageName, List<String> ordered, Set<String> path ) {
+            if ( ordered.contains( packageName ) ) {
+                return;
+            }
+            Segment segment = segments.get( packageName );
+            if ( segment == null ) {
+                throw new IllegalArgumentException( "Package " + packageName + " is not in the image" );
+            }
+            if ( !path.add( packageName ) ) {
+                throw new IllegalStateException( "Cyclic package dependency on " + packageName );
+            }
+            for ( String dependency : segment.dependencies ) {
+                visit( dependency, ordered, path );
+            }
+            path.remove( packageName );
+            ordered.add( packageName );
+        }
+
+        /**
+         * Deserialize one package
+         *
+         * @param packageName
+         * @param classLoader
+         * @return KiePackage
+         */
+        public KiePackage read( String packageName, ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+            Segment segment = segments.get( packageName );
+            if ( segment == null ) {
+                throw new IllegalArgumentException( "Package " + packageName + " is not in the image" );
+            }
+            ByteBuffer buffer = ByteBuffer.allocate( (int) segment.length );
+            while ( buffer.hasRemaining() ) {
+                if ( channel.read( buffer, segment.offset + buffer.position() ) < 0 ) {
+                    throw new IOException( "Truncated segment for package " + packageName );
+                }
+            }
+            try ( ObjectInputStream si = new CachingObjectInputStream( new ByteArrayInputStream( buffer.array() ), classLoader ) ) {
+                return (KiePackage) si.readObject();
+            }
+        }
+
+        /**
+         * Load the packages and their dependencies into a KieBase, packages the KieBase already has are skipped<BR>
+         * ※ each package is read with the class loader of the KieBase after its dependencies were added, so declared
+         * types resolve
+         *
+         * @param kBase
+         * @param packageNames
+         * @return names of the packages added
+         */
+        public List<String> loadInto( KnowledgeBaseImpl kBase, Collection<String> packageNames ) throws IOException, ClassNotFoundException {
+            List<String> added = new ArrayList<String>();
+            for ( String packageName : resolve( packageNames ) ) {
+                if ( kBase.getPackage( packageName ) != null ) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                KiePackage kPackage = read( packageName, kBase.getRootClassLoader() );
+                kBase.addPackages( Collections.singletonList( (InternalKnowledgePackage) kPackage ) );
+                CachingObjectInputStream.invalidate( kBase.getRootClassLoader() );
+                added.add( packageName );
+                logger.debug( "Package {} loaded in {} ms", packageName, TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) );
+            }
+            return added;
+        }
+
+        /**
+         * Load the packages a KieBaseModel includes into a KieBase
+         *
+         * @param kBase
+         * @param kBaseModel
+         * @return names of the packages added
+         */
+        public List<String> loadInto( KnowledgeBaseImpl kBase, KieBaseModel kBaseModel ) throws IOException, ClassNotFoundException {
+            return loadInto( kBase, getPackageNames( kBaseModel ) );
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+
+    private static List<String> getDependencies( InternalKnowledgePackage pkg, Map<String, String> declaringPackages ) {
+        Set<String> dependencies = new LinkedHashSet<String>();
+        for ( String imported : pkg.getImports().keySet() ) {
+            if ( imported.endsWith( ".*" ) ) {
+                String prefix = imported.substring( 0, imported.length() - 1 );
+                declaringPackages.forEach( ( typeClassName, packageName ) -> {
+                    if ( typeClassName.startsWith( prefix ) && typeClassName.indexOf( '.', prefix.length() ) < 0 ) {
+                        dependencies.add( packageName );
+                    }
+                } );
+            } else if ( declaringPackages.containsKey( imported ) ) {
+                dependencies.add( declaringPackages.get( imported ) );
+            }
+        }
+        dependencies.remove( pkg.getName() );
+        return new ArrayList<String>( dependencies );
+    }
+
+    private static void writeTableOfContents( RandomAccessFile raf, List<Segment> segments ) throws IOException {
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Channels.newOutputStream( raf.getChannel() ) ) );
+        out.writeInt( MAGIC );
+        out.writeShort( FORMAT_VERSION );
+        out.writeInt( segments.size() );
+        for ( Segment segment : segments ) {
+            out.writeUTF( segment.packageName );
+            out.writeBoolean( segment.declaresTypes );
+            out.writeInt( segment.dependencies.size() );
+            for ( String dependency : segment.dependencies ) {
+                out.writeUTF( dependency );
+            }
+            out.writeLong( segment.offset );
+            out.writeLong( segment.length );
+        }
+        out.flush();
+    }
+}
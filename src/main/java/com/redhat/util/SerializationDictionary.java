@@ -0,0 +1,305 @@
+package com.redhat.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.drools.core.common.DroolsObjectOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class descriptors and strings shared by many serialized images, e.g. the KiePackages of every tenant<BR>
+ * <BR>
+ * Java serialization writes the full descriptor of every class, and every string, once per stream. A stream written
+ * with a {@link DictionaryObjectOutputStream} refers to the entries of the dictionary by index instead. The dictionary
+ * is built once from a sample of images, for one Drools version and one model jar, and must be available when the
+ * images are read. Its id, a SHA-256 of the entries, is written at the start of each stream and checked when reading.
+ * <BR>
+ * ※ a class of the dictionary is read with the descriptor of the class found by the reader, the serialVersionUID of
+ * each class is kept in the dictionary and checked against it, like Java serialization does with a full descriptor
+ */
+public class SerializationDictionary {
+    private static Logger logger = LoggerFactory.getLogger( SerializationDictionary.class );
+
+    /**
+     * Strings shorter than this are cheaper to write than a reference to the dictionary
+     */
+    static final int MIN_STRING_LENGTH = 8;
+
+    /**
+     * Layout of a dictionary file, written first
+     */
+    static final int FORMAT_VERSION = 2;
+
+    private final String droolsVersion;
+    private final List<String> classNames;
+    private final List<Long> serialVersionUIDs;
+    private final List<String> strings;
+    private final Map<String, Integer> classIndex = new HashMap<String, Integer>();
+    private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+    private final String id;
+
+    /**
+     * Reference to a string of the dictionary, written in place of the string
+     */
+    static final class StringRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int index;
+
+        StringRef( int index ) {
+            this.index = index;
+        }
+    }
+
+    SerializationDictionary( String droolsVersion, List<String> classNames, List<Long> serialVersionUIDs, List<String> strings ) {
+        if ( classNames.size() != serialVersionUIDs.size() ) {
+            throw new IllegalArgumentException( classNames.size() + " classes but " + serialVersionUIDs.size() + " serialVersionUIDs" );
+        }
+        this.droolsVersion = droolsVersion;
+        this.classNames = Collections.unmodifiableList( new ArrayList<String>( classNames ) );
+        this.serialVersionUIDs = Collections.unmodifiableList( new ArrayList<Long>( serialVersionUIDs ) );
+        this.strings = Collections.unmodifiableList( new ArrayList<String>( strings ) );
+        for ( int i = 0; i < classNames.size(); i++ ) {
+            classIndex.put( classNames.get( i ), i );
+        }
+        for ( int i = 0; i < strings.size(); i++ ) {
+            stringIndex.put( strings.get( i ), i );
+        }
+        this.id = digest();
+    }
+
+    /**
+     * Build a dictionary of the class descriptors and strings written by at least minOccurrences of the samples
+     *
+     * @param samples
+     *            objects written to the images, e.g. the KiePackages of a few tenants
+     * @param minOccurrences
+     *            number of samples an entry must appear in
+     * @return SerializationDictionary
+     */
+    public static SerializationDictionary build( Collection<?> samples, int minOccurrences ) throws IOException {
+        Map<String, Integer> classCounts = new HashMap<String, Integer>();
+        Map<String, Long> classUIDs = new HashMap<String, Long>();
+        Map<String, Integer> stringCounts = new HashMap<String, Integer>();
+        for ( Object sample : samples ) {
+            try ( RecordingObjectOutputStream out = new RecordingObjectOutputStream() ) {
+                out.writeObject( sample );
+                out.classUIDs.keySet().forEach( name -> classCounts.merge( name, 1, Integer::sum ) );
+                classUIDs.putAll( out.classUIDs );
+                out.strings.forEach( string -> stringCounts.merge( string, 1, Integer::sum ) );
+            }
+        }
+        // sorted, the same samples always give the same dictionary id
+        List<String> classNames = new ArrayList<String>();
+        classCounts.forEach( ( name, count ) -> {
+            if ( count >= minOccurrences ) {
+                classNames.add( name );
+            }
+        } );
+        Collections.sort( classNames );
+        // the reference class is written in every stream that uses the strings
+        classNames.add( 0, StringRef.class.getName() );
+        classUIDs.put( StringRef.class.getName(), ObjectStreamClass.lookup( StringRef.class ).getSerialVersionUID() );
+        List<Long> serialVersionUIDs = new ArrayList<Long>( classNames.size() );
+        classNames.forEach( name -> serialVersionUIDs.add( classUIDs.get( name ) ) );
+        List<String> strings = new ArrayList<String>();
+        stringCounts.forEach( ( string, count ) -> {
+            if ( count >= minOccurrences ) {
+                strings.add( string );
+            }
+        } );
+        Collections.sort( strings );
+        SerializationDictionary dictionary = new SerializationDictionary( BinaryImageFormat.droolsVersion(), classNames, serialVersionUIDs, strings );
+        logger.info( "Dictionary {} of {} classes and {} strings built from {} samples", dictionary.id, classNames.size(), strings.size(), samples.size() );
+        return dictionary;
+    }
+
+    public static SerializationDictionary read( File file ) throws IOException {
+        try ( InputStream in = new BufferedInputStream( new FileInputStream( file ) ) ) {
+            return read( in );
+        }
+    }
+
+    public static SerializationDictionary read( InputStream in ) throws IOException {
+        DataInputStream din = new DataInputStream( in );
+        int version = din.readInt();
+        if ( version != FORMAT_VERSION ) {
+            throw new IOException( "Dictionary of another layout, it must be built again" );
+        }
+        String droolsVersion = din.readUTF();
+        int classCount = din.readInt();
+        List<String> classNames = new ArrayList<String>( classCount );
+        List<Long> serialVersionUIDs = new ArrayList<Long>( classCount );
+        for ( int i = 0; i < classCount; i++ ) {
+            classNames.add( din.readUTF() );
+            serialVersionUIDs.add( din.readLong() );
+        }
+        List<String> strings = readStrings( din );
+        return new SerializationDictionary( droolsVersion, classNames, serialVersionUIDs, strings );
+    }
+
+    public void write( File file ) throws IOException {
+        try ( OutputStream out = new BufferedOutputStream( new FileOutputStream( file ) ) ) {
+            write( out );
+        }
+    }
+
+    public void write( OutputStream out ) throws IOException {
+        DataOutputStream dout = new DataOutputStream( out );
+        dout.writeInt( FORMAT_VERSION );
+        dout.writeUTF( droolsVersion );
+        dout.writeInt( classNames.size() );
+        for ( int i = 0; i < classNames.size(); i++ ) {
+            dout.writeUTF( classNames.get( i ) );
+            dout.writeLong( serialVersionUIDs.get( i ) );
+        }
+        writeStrings( dout, strings );
+        dout.flush();
+    }
+
+    /**
+     * @return SHA-256 of the Drools version and the entries, serialVersionUIDs included
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getDroolsVersion() {
+        return droolsVersion;
+    }
+
+    public int getClassCount() {
+        return classNames.size();
+    }
+
+    public int getStringCount() {
+        return strings.size();
+    }
+
+    /**
+     * @return index of the class, -1 if it is not in the dictionary
+     */
+    int indexOfClass( String className ) {
+        Integer index = classIndex.get( className );
+        return index != null ? index : -1;
+    }
+
+    String className( int index ) throws IOException {
+        if ( index < 0 || index >= classNames.size() ) {
+            throw new IOException( "No class " + index + " in dictionary " + id );
+        }
+        return classNames.get( index );
+    }
+
+    /**
+     * @return serialVersionUID of the class when the dictionary was built
+     */
+    long serialVersionUID( int index ) throws IOException {
+        if ( index < 0 || index >= serialVersionUIDs.size() ) {
+            throw new IOException( "No class " + index + " in dictionary " + id );
+        }
+        return serialVersionUIDs.get( index );
+    }
+
+    /**
+     * @return index of the string, -1 if it is not in the dictionary
+     */
+    int indexOfString( String string ) {
+        Integer index = stringIndex.get( string );
+        return index != null ? index : -1;
+    }
+
+    String string( int index ) throws IOException {
+        if ( index < 0 || index >= strings.size() ) {
+            throw new IOException( "No string " + index + " in dictionary " + id );
+        }
+        return strings.get( index );
+    }
+
+    private String digest() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-256" );
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            write( bytes );
+            return String.format( "%064x", new BigInteger( 1, digest.digest( bytes.toByteArray() ) ) );
+        }
+        catch ( NoSuchAlgorithmException | IOException e ) {
+            throw new IllegalStateException( "Unable to digest the dictionary", e );
+        }
+    }
+
+    private static List<String> readStrings( DataInputStream in ) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<String>( count );
+        for ( int i = 0; i < count; i++ ) {
+            values.add( in.readUTF() );
+        }
+        return values;
+    }
+
+    private static void writeStrings( DataOutputStream out, List<String> values ) throws IOException {
+        out.writeInt( values.size() );
+        for ( String value : values ) {
+            out.writeUTF( value );
+        }
+    }
+
+    /**
+     * Writes nowhere, records the classes and strings of the stream
+     */
+    private static class RecordingObjectOutputStream extends DroolsObjectOutputStream {
+        final Map<String, Long> classUIDs = new HashMap<String, Long>();
+        final Set<String> strings = new HashSet<String>();
+
+        RecordingObjectOutputStream() throws IOException {
+            super( new OutputStream() {
+                @Override
+                public void write( int b ) {
+                }
+
+                @Override
+                public void write( byte[] b, int off, int len ) {
+                }
+            } );
+            enableReplaceObject( true );
+        }
+
+        @Override
+        protected void writeClassDescriptor( ObjectStreamClass desc ) throws IOException {
+            classUIDs.put( desc.getName(), desc.getSerialVersionUID() );
+            super.writeClassDescriptor( desc );
+        }
+
+        @Override
+        protected Object replaceObject( Object obj ) throws IOException {
+            // strings longer than writeUTF allows are written as long strings, they are left out
+            if ( obj instanceof String && ( (String) obj ).length() >= MIN_STRING_LENGTH && ( (String) obj ).length() < 0xFFFF / 3 ) {
+                strings.add( (String) obj );
+            }
+            return obj;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package com.redhat.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.drools.core.common.DroolsObjectInputStream;
+import org.drools.core.common.DroolsObjectOutputStream;
+import org.drools.core.common.InternalFactHandle;
+import org.drools.core.impl.InternalKnowledgeBase;
+import org.kie.api.KieBase;
+import org.kie.api.event.rule.ObjectDeletedEvent;
+import org.kie.api.event.rule.ObjectInsertedEvent;
+import org.kie.api.event.rule.ObjectUpdatedEvent;
+import org.kie.api.event.rule.RuleRuntimeEventListener;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.rule.FactHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead journal of the working memory of a KieSession<BR>
+ * <BR>
+ * Every insert, update and delete, by the application or by the rules, is appended to a memory mapped log next to the
+ * last full snapshot of the session. A checkpoint only forces the log to disk, so its cost depends on the changes since
+ * the previous one. Once the log grows past the compaction threshold, {@link #checkpointIfNeeded()} compacts it into a
+ * new snapshot. Restoring loads the last snapshot and replays the log.<BR>
+ * <BR>
+ * ※ snapshots can't be taken while rules fire, call {@link #checkpointIfNeeded()} between fireAllRules calls<BR>
+ * ※ a snapshot keeps the agenda, the log only keeps working memory: a rule whose match outlives its firing since the last
+ * snapshot fires again after a restore
+ */
+public class SessionJournal implements RuleRuntimeEventListener, Closeable {
+    private static Logger logger = LoggerFactory.getLogger( SessionJournal.class );
+
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 64L * 1024 * 1024;
+
+    private static final byte INSERT = 1;
+    private static final byte UPDATE = 2;
+    private static final byte DELETE = 3;
+
+    private static final byte MODEL = 1;
+    private static final byte SERIALIZED = 2;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".log";
+
+    private final KieSession session;
+    private final File directory;
+    private final long compactionThreshold;
+    private long sequence;
+    private MappedAppendLog log;
+
+    private SessionJournal( KieSession session, File directory, long compactionThreshold, long sequence ) {
+        this.session = session;
+        this.directory = directory;
+        this.compactionThreshold = compactionThreshold;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Start journaling a session, a first snapshot is taken
+     *
+     * @param session
+     * @param directory
+     *            the snapshots and logs of the session
+     * @return SessionJournal
+     */
+    public static SessionJournal attach( KieSession session, File directory ) throws IOException {
+        return attach( session, directory, DEFAULT_COMPACTION_THRESHOLD );
+    }
+
+    /**
+     * Start journaling a session, a first snapshot is taken
+     *
+     * @param session
+     * @param directory
+     *            the snapshots and logs of the session
+     * @param compactionThreshold
+     *            log size above which {@link #checkpointIfNeeded()} takes a new snapshot
+     * @return SessionJournal
+     */
+    public static SessionJournal attach( KieSession session, File directory, long compactionThreshold ) throws IOException {
+        Files.createDirectories( directory.toPath() );
+        SessionJournal journal = new SessionJournal( session, directory, compactionThreshold, getLastSequence( directory ) );
+        journal.compact();
+        session.addEventListener( journal );
+        return journal;
+    }
+
+    /**
+     * Restore the session of the last snapshot and replay its log, then keep journaling the restored session
+     *
+     * @param kBase
+     *            KieBase with the same rules as the journaled session
+     * @param directory
+     * @return SessionJournal of the restored session
+     */
+    public static SessionJournal restore( KieBase kBase, File directory ) throws IOException, ClassNotFoundException {
+        return restore( kBase, directory, DEFAULT_COMPACTION_THRESHOLD );
+    }
+
+    /**
+     * Restore the session of the last snapshot and replay its log, then keep journaling the restored session
+     *
+     * @param kBase
+     *            KieBase with the same rules as the journaled session
+     * @param directory
+     * @param compactionThreshold
+     * @return SessionJournal of the restored session
+     */
+    public static SessionJournal restore( KieBase kBase, File directory, long compactionThreshold ) throws IOException, ClassNotFoundException {
+        long start = System.currentTimeMillis();
+        long sequence = getLastSequence( directory );
+        if ( sequence < 0 ) {
+            throw new IOException( "No snapshot in " + directory );
+        }
+        KieSession session = KieSessionSnapshots.restore( kBase, getSnapshotFile( directory, sequence ) );
+
+        // the marshaller keeps the handle ids, facts inserted by the replay get new ones
+        Map<Long, FactHandle> handles = new HashMap<Long, FactHandle>();
+        for ( FactHandle handle : session.getFactHandles() ) {
+            handles.put( (long) ( (InternalFactHandle) handle ).getId(), handle );
+        }
+        int replayed = replay( session, getJournalFile( directory, sequence ), handles, ( (InternalKnowledgeBase) kBase ).getRootClassLoader() );
+        logger.info( "Restored session from snapshot {} and {} journal records in {} ms", sequence, replayed, System.currentTimeMillis() - start );
+
+        return attach( session, directory, compactionThreshold );
+    }
+
+    public KieSession getSession() {
+        return session;
+    }
+
+    /**
+     * @return size of the log since the last snapshot
+     */
+    public long getJournalSize() {
+        return log.size();
+    }
+
+    /**
+     * Force the log to disk
+     */
+    public void checkpoint() {
+        log.force();
+    }
+
+    /**
+     * Force the log to disk, or compact it into a new snapshot once it is larger than the compaction threshold
+     */
+    public void checkpointIfNeeded() throws IOException {
+        if ( log.size() > compactionThreshold ) {
+            compact();
+        } else {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Take a new snapshot and start a new log, the previous ones are deleted
+     */
+    public synchronized void compact() throws IOException {
+        long start = System.currentTimeMillis();
+        long next = sequence + 1;
+        File snapshot = getSnapshotFile( directory, next );
+        File tmp = File.createTempFile( SNAPSHOT_PREFIX, ".tmp", directory );
+        try {
+            KieSessionSnapshots.snapshot( session, tmp );
+            Files.move( tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally {
+            Files.deleteIfExists( tmp.toPath() );
+        }
+        MappedAppendLog previous = log;
+        log = new MappedAppendLog( getJournalFile( directory, next ) );
+        if ( previous != null ) {
+            previous.close();
+        }
+        Files.deleteIfExists( getJournalFile( directory, sequence ).toPath() );
+        Files.deleteIfExists( getSnapshotFile( directory, sequence ).toPath() );
+        sequence = next;
+        logger.info( "Session compacted into snapshot {} in {} ms", next, System.currentTimeMillis() - start );
+    }
+
+    @Override
+    public void objectInserted( ObjectInsertedEvent event ) {
+        append( INSERT, event.getFactHandle(), event.getObject() );
+    }
+
+    @Override
+    public void objectUpdated( ObjectUpdatedEvent event ) {
+        append( UPDATE, event.getFactHandle(), event.getObject() );
+    }
+
+    @Override
+    public void objectDeleted( ObjectDeletedEvent event ) {
+        append( DELETE, event.getFactHandle(), null );
+    }
+
+    /**
+     * Stop journaling, the log is forced to disk
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        session.removeEventListener( this );
+        log.close();
+    }
+
+    private synchronized void append( byte operation, FactHandle handle, Object object ) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeByte( operation );
+            out.writeLong( ( (InternalFactHandle) handle ).getId() );
+            if ( operation != DELETE ) {
+                writeObject( out, object );
+            }
+            out.flush();
+            log.append( bytes.toByteArray() );
+        }
+        catch ( IOException e ) {
+            throw new IllegalStateException( "Unable to journal " + object, e );
+        }
+    }
+
+    private void writeObject( DataOutputStream out, Object object ) throws IOException {
+        if ( new ModelObjectMarshallingStrategy().accept( object ) ) {
+            out.writeByte( MODEL );
+            // facts referred to by the object are written as references to their handles
+            ModelObjectMarshallingStrategy.write( new ModelObjectMarshallingStrategy.ModelContext() {
+                @Override
+                long externalId( Object nested ) {
+                    FactHandle handle = session.getFactHandle( nested );
+                    return handle != null ? ( (InternalFactHandle) handle ).getId() : -1;
+                }
+            }, out, object );
+        } else {
+            out.writeByte( SERIALIZED );
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try ( ObjectOutputStream so = new DroolsObjectOutputStream( bytes ) ) {
+                so.writeObject( object );
+            }
+            out.writeInt( bytes.size() );
+            bytes.writeTo( out );
+        }
+    }
+
+    private static Object readObject( DataInputStream in, Map<Long, FactHandle> handles, ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+        byte type = in.readByte();
+        if ( type == MODEL ) {
+            return ModelObjectMarshallingStrategy.read( new ModelObjectMarshallingStrategy.ModelContext() {
+                @Override
+                Object externalObject( long id ) {
+                    FactHandle handle = handles.get( id );
+                    return handle != null ? ( (InternalFactHandle) handle ).getObject() : null;
+                }
+            }, in );
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+        try ( ObjectInputStream si = new DroolsObjectInputStream( new ByteArrayInputStream( bytes ), classLoader ) ) {
+            return si.readObject();
+        }
+    }
+
+    private static int replay( KieSession session, File journalFile, Map<Long, FactHandle> handles, ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+        if ( !journalFile.exists() ) {
+            return 0;
+        }
+        int replayed = 0;
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( journalFile ), BinaryImageFormat.BUFFER_SIZE ) ) ) {
+            byte[] record;
+            while ( ( record = MappedAppendLog.readRecord( in ) ) != null ) {
+                DataInputStream rin = new DataInputStream( new ByteArrayInputStream( record ) );
+                byte operation = rin.readByte();
+                long id = rin.readLong();
+                FactHandle handle = handles.get( id );
+                if ( handle == null && operation != INSERT ) {
+                    throw new IOException( "Journal record for unknown fact handle " + id );
+                }
+                switch ( operation ) {
+                    case INSERT:
+                        handles.put( id, session.insert( readObject( rin, handles, classLoader ) ) );
+                        break;
+                    case UPDATE: {
+                        Object object = readObject( rin, handles, classLoader );
+                        Object current = ( (InternalFactHandle) handle ).getObject();
+                        // keep the current object, other objects may refer to it
+                        if ( ModelObjectMarshallingStrategy.copyState( object, current ) ) {
+                            session.update( handle, current );
+                        } else {
+                            session.update( handle, object );
+                        }
+                        break;
+                    }
+                    case DELETE:
+                        session.delete( handle );
+                        handles.remove( id );
+                        break;
+                    default:
+                        throw new IOException( "Unknown journal operation " + operation );
+                }
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    private static long getLastSequence( File directory ) {
+        long last = -1;
+        File[] snapshots = directory.listFiles( ( dir, name ) -> name.startsWith( SNAPSHOT_PREFIX ) && name.endsWith( SNAPSHOT_SUFFIX ) );
+        if ( snapshots != null ) {
+            for ( File snapshot : snapshots ) {
+                String name = snapshot.getName();
+                last = Math.max( last, Long.parseLong( name.substring( SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length() ) ) );
+            }
+        }
+        return last;
+    }
+
+    private static File getSnapshotFile( File directory, long sequence ) {
+        return new File( directory, SNAPSHOT_PREFIX + sequence + SNAPSHOT_SUFFIX );
+    }
+
+    private static File getJournalFile( File directory, long sequence ) {
+        return new File( directory, JOURNAL_PREFIX + sequence + JOURNAL_SUFFIX );
+    }
+
+    /**
+     * Append-only log in memory mapped regions of the file<BR>
+     * <BR>
+     * record length, CRC32 of the record, record<BR>
+     * <BR>
+     * The mapped regions are zero filled, a zero length marks the end of the log. A record whose checksum does not match
+     * was torn by a crash and ends the log as well.
+     */
+    static class MappedAppendLog implements Closeable {
+        static final int REGION_SIZE = 16 * 1024 * 1024;
+        private static final int RECORD_HEADER = 8;
+
+        private final FileChannel channel;
+        private MappedByteBuffer region;
+        private long size;
+
+        MappedAppendLog( File file ) throws IOException {
+            channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE );
+            map( 0, REGION_SIZE );
+        }
+
+        void append( byte[] record ) throws IOException {
+            // the end marker of the next record has to fit as well
+            int needed = RECORD_HEADER + record.length + 4;
+            if ( region.remaining() < needed ) {
+                region.force();
+                map( size, Math.max( REGION_SIZE, needed ) );
+            }
+            CRC32 crc = new CRC32();
+            crc.update( record, 0, record.length );
+            region.putInt( record.length );
+            region.putInt( (int) crc.getValue() );
+            region.put( record );
+            size += RECORD_HEADER + record.length;
+        }
+
+        long size() {
+            return size;
+        }
+
+        void force() {
+            region.force();
+        }
+
+        @Override
+        public void close() throws IOException {
+            region.force();
+            channel.close();
+        }
+
+        private void map( long position, int length ) throws IOException {
+            region = channel.map( MapMode.READ_WRITE, position, length );
+        }
+
+        /**
+         * Next record of a log
+         *
+         * @return the record, or null at the end of the log
+         */
+        static byte[] readRecord( DataInputStream in ) throws IOException {
+            try {
+                int length = in.readInt();
+                if ( length <= 0 ) {
+                    return null;
+                }
+                int checksum = in.readInt();
+                byte[] record = new byte[length];
+                in.readFully( record );
+                CRC32 crc = new CRC32();
+                crc.update( record, 0, length );
+                if ( (int) crc.getValue() != checksum ) {
+                    logger.warn( "Torn journal record, the journal ends there" );
+                    return null;
+                }
+                return record;
+            }
+            catch ( EOFException e ) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.redhat.util;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.kie.api.KieBase;
+import org.kie.api.builder.model.KieSessionModel.KieSessionType;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.util.BinaryKModuleExternalizer.BinKieContainer;
+
+/**
+ * Time, bytes, objects and allocations of each phase of loading a binary image<BR>
+ * <BR>
+ * BinaryKModuleExternalizer records its phases here when the profiler is enabled, with -Dkie.startup.profile=true,
+ * which also registers the MXBean, through JMX or {@link #setEnabled(boolean)}. Disabled, a phase costs a volatile
+ * read. The samples are summed per phase in the report, listeners get every sample, e.g. one per KieBase when they are
+ * populated in parallel.<BR>
+ * ※ allocations are measured per thread, with com.sun.management.ThreadMXBean when the JVM provides it, and class
+ * resolution is part of the time of the phase reading the objects
+ */
+public class StartupProfiler implements StartupProfilerMXBean {
+    private static Logger logger = LoggerFactory.getLogger( StartupProfiler.class );
+
+    public static final String OBJECT_NAME = "com.redhat.util:type=StartupProfiler";
+
+    private static final StartupProfiler INSTANCE = new StartupProfiler();
+
+    static {
+        if ( INSTANCE.enabled ) {
+            registerMBean();
+        }
+    }
+
+    /**
+     * Phases of a load, in the order they run
+     */
+    public enum Phase {
+        /** reading and deserializing the image, the KieBase of a KieBase image */
+        READ_IMAGE,
+        /** DroolsObjectInputStream#resolveClass, while the image or the packages are read */
+        RESOLVE_CLASSES,
+        /** KieBuilder#buildAll and KieServices#newKieContainer of getKieContainer */
+        BUILD_CONTAINER,
+        /** deserializing the KnowledgePackages of a KieBase */
+        READ_PACKAGES,
+        /** KnowledgeBaseImpl#addKnowledgePackages, building the network */
+        ADD_PACKAGES,
+        /** the first KieSession of a KieBase, created through a restored KieContainer */
+        FIRST_SESSION
+    }
+
+    /**
+     * Notified of every phase completed while the profiler is enabled
+     */
+    public interface Listener {
+        void phaseCompleted( Sample sample );
+    }
+
+    /**
+     * One run of a phase
+     */
+    public static class Sample {
+        private final Phase phase;
+        private final String detail;
+        private final long nanos;
+        private final long bytes;
+        private final long objects;
+        private final long allocatedBytes;
+
+        Sample( Phase phase, String detail, long nanos, long bytes, long objects, long allocatedBytes ) {
+            this.phase = phase;
+            this.detail = detail;
+            this.nanos = nanos;
+            this.bytes = bytes;
+            this.objects = objects;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        /**
+         * @return e.g. the name of the KieBase, or null
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getObjects() {
+            return objects;
+        }
+
+        /**
+         * @return bytes allocated by the thread, -1 if the JVM does not measure it
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return phase + ( detail != null ? " " + detail : "" ) + " " + TimeUnit.NANOSECONDS.toMillis( nanos ) + " ms";
+        }
+    }
+
+    /**
+     * Running phase, closing it records its sample
+     */
+    public class Timer implements AutoCloseable {
+        private final Phase phase;
+        private final String detail;
+        private final long start;
+        private final long startAllocated;
+        private long bytes;
+        private long objects;
+
+        private Timer( Phase phase, String detail ) {
+            this.phase = phase;
+            this.detail = detail;
+            this.startAllocated = allocatedBytes();
+            this.start = System.nanoTime();
+        }
+
+        public void addBytes( long count ) {
+            bytes += count;
+        }
+
+        public void addObjects( long count ) {
+            objects += count;
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - start;
+            long allocated = startAllocated < 0 ? -1 : allocatedBytes() - startAllocated;
+            record( new Sample( phase, detail, nanos, bytes, objects, allocated ) );
+        }
+    }
+
+    private static class Totals {
+        final LongAdder nanos = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder objects = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+        final LongAdder count = new LongAdder();
+    }
+
+    private final Map<Phase, Totals> totals = new EnumMap<Phase, Totals>( Phase.class );
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private volatile boolean enabled = Boolean.getBoolean( "kie.startup.profile" );
+
+    StartupProfiler() {
+        for ( Phase phase : Phase.values() ) {
+            totals.put( phase, new Totals() );
+        }
+    }
+
+    public static StartupProfiler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start a phase
+     *
+     * @param phase
+     * @param detail
+     *            e.g. the name of the KieBase, or null
+     * @return timer to close when the phase completed, null when the profiler is disabled
+     */
+    public Timer start( Phase phase, String detail ) {
+        return enabled ? new Timer( phase, detail ) : null;
+    }
+
+    /**
+     * Record a phase measured elsewhere, e.g. the class resolutions of a stream
+     */
+    public void record( Sample sample ) {
+        Totals phaseTotals = totals.get( sample.phase );
+        phaseTotals.nanos.add( sample.nanos );
+        phaseTotals.bytes.add( sample.bytes );
+        phaseTotals.objects.add( sample.objects );
+        if ( sample.allocatedBytes > 0 ) {
+            phaseTotals.allocatedBytes.add( sample.allocatedBytes );
+        }
+        phaseTotals.count.increment();
+        for ( Listener listener : listeners ) {
+            try {
+                listener.phaseCompleted( sample );
+            }
+            catch ( RuntimeException e ) {
+                logger.warn( "Startup listener failed on {}", sample, e );
+            }
+        }
+    }
+
+    public void addListener( Listener listener ) {
+        listeners.add( listener );
+    }
+
+    public void removeListener( Listener listener ) {
+        listeners.remove( listener );
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled( boolean enabled ) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMillis() {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        totals.forEach( ( phase, phaseTotals ) -> values.put( phase.name(), TimeUnit.NANOSECONDS.toMillis( phaseTotals.nanos.sum() ) ) );
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseBytes() {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        totals.forEach( ( phase, phaseTotals ) -> values.put( phase.name(), phaseTotals.bytes.sum() ) );
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseObjects() {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        totals.forEach( ( phase, phaseTotals ) -> values.put( phase.name(), phaseTotals.objects.sum() ) );
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseAllocatedBytes() {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        totals.forEach( ( phase, phaseTotals ) -> values.put( phase.name(), phaseTotals.allocatedBytes.sum() ) );
+        return values;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append( String.format( "%-16s %6s %10s %14s %12s %16s%n", "phase", "runs", "ms", "bytes read", "objects", "bytes allocated" ) );
+        totals.forEach( ( phase, phaseTotals ) -> {
+            report.append( String.format( "%-16s %6d %10d %14d %12d %16d%n", phase, phaseTotals.count.sum(), TimeUnit.NANOSECONDS.toMillis( phaseTotals.nanos.sum() ),
+                    phaseTotals.bytes.sum(), phaseTotals.objects.sum(), phaseTotals.allocatedBytes.sum() ) );
+        } );
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        for ( Totals phaseTotals : totals.values() ) {
+            phaseTotals.nanos.reset();
+            phaseTotals.bytes.reset();
+            phaseTotals.objects.reset();
+            phaseTotals.allocatedBytes.reset();
+            phaseTotals.count.reset();
+        }
+    }
+
+    /**
+     * Register the profiler in the platform MBeanServer, once
+     */
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName( OBJECT_NAME );
+            synchronized ( INSTANCE ) {
+                if ( !server.isRegistered( name ) ) {
+                    server.registerMBean( INSTANCE, name );
+                }
+            }
+        }
+        catch ( JMException e ) {
+            logger.warn( "Unable to register {}", OBJECT_NAME, e );
+        }
+    }
+
+    /**
+     * Print the startup report of an image<BR>
+     * StartupProfiler image.bin [--restore]<BR>
+     * --restore restores the KieContainer without running the KieBuilder
+     *
+     * @param args
+     */
+    public static void main( String[] args ) throws Exception {
+        if ( args.length == 0 ) {
+            System.err.println( "Usage: StartupProfiler <image file> [--restore]" );
+            System.exit( 1 );
+        }
+        File image = new File( args[0] );
+        boolean restore = args.length > 1 && "--restore".equals( args[1] );
+
+        StartupProfiler profiler = getInstance();
+        profiler.setEnabled( true );
+        registerMBean();
+        profiler.addListener( sample -> System.out.println( "  " + sample ) );
+
+        long start = System.nanoTime();
+        KieContainer kContainer = restore ? BinaryKModuleExternalizer.restoreKieContainer( image ) : BinaryKModuleExternalizer.getKieContainer( image );
+        for ( String kBaseName : kContainer.getKieBaseNames() ) {
+            String kSessionName = getStatefulSessionName( kContainer, kBaseName );
+            if ( kContainer instanceof BinKieContainer && kSessionName != null ) {
+                // recorded by the container
+                kContainer.newKieSession( kSessionName ).dispose();
+                continue;
+            }
+            KieBase kBase = kContainer.getKieBase( kBaseName );
+            KieSession session;
+            try ( Timer timer = profiler.start( Phase.FIRST_SESSION, kBaseName ) ) {
+                session = kBase.newKieSession();
+            }
+            session.dispose();
+        }
+        long total = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        System.out.println();
+        System.out.println( "Startup of " + image + " (" + image.length() + " bytes" + ( restore ? ", restored" : "" ) + ") in " + total + " ms" );
+        System.out.print( profiler.getReport() );
+    }
+
+    private static String getStatefulSessionName( KieContainer kContainer, String kBaseName ) {
+        for ( String kSessionName : kContainer.getKieSessionNamesInKieBase( kBaseName ) ) {
+            if ( kContainer.getKieSessionModel( kSessionName ).getType() == KieSessionType.STATEFUL ) {
+                return kSessionName;
+            }
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if ( threads instanceof com.sun.management.ThreadMXBean ) {
+            return ( (com.sun.management.ThreadMXBean) threads ).getThreadAllocatedBytes( Thread.currentThread().getId() );
+        }
+        return -1;
+    }
+}
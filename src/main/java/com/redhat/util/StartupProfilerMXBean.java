@@ -0,0 +1,40 @@
+package com.redhat.util;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link StartupProfiler}, registered as com.redhat.util:type=StartupProfiler
+ */
+public interface StartupProfilerMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled( boolean enabled );
+
+    /**
+     * @return milliseconds spent in each phase, by phase name
+     */
+    Map<String, Long> getPhaseMillis();
+
+    /**
+     * @return bytes read in each phase, by phase name
+     */
+    Map<String, Long> getPhaseBytes();
+
+    /**
+     * @return objects deserialized, or classes resolved, in each phase, by phase name
+     */
+    Map<String, Long> getPhaseObjects();
+
+    /**
+     * @return bytes allocated by the threads of each phase, by phase name
+     */
+    Map<String, Long> getPhaseAllocatedBytes();
+
+    /**
+     * @return the per-phase report
+     */
+    String getReport();
+
+    void reset();
+}
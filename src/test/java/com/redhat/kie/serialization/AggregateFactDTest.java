@@ -0,0 +1,116 @@
+package com.redhat.kie.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import com.redhat.model.AggregateFactD;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.CompositeFactC;
+
+/**
+ *
+ * The identity index of an AggregateFactD keeps contains, hashCode and equals consistent as facts are added and
+ * removed, an instance held many times included
+ *
+ */
+public class AggregateFactDTest {
+
+    @Test
+    public void addAndRemoveKeepIndexConsistent() {
+        CompositeFactC first = new CompositeFactC( 1, null, null );
+        CompositeFactC second = new CompositeFactC( 2, null, null );
+        CompositeFactC third = new CompositeFactC( 3, null, null );
+        AggregateFactD aggregate = aggregate( first, second, third );
+        assertEquals( 3, aggregate.getFacts().size() );
+        assertTrue( aggregate.getFacts().contains( second ) );
+        assertFalse( aggregate.getFacts().contains( new CompositeFactC( 2, null, null ) ) );
+
+        assertTrue( aggregate.getFacts().remove( second ) );
+        assertFalse( aggregate.getFacts().remove( second ) );
+        assertFalse( aggregate.getFacts().contains( second ) );
+        assertEqualAggregates( aggregate( first, third ), aggregate );
+
+        for ( Iterator<CompositeFactC> it = aggregate.getFacts().iterator(); it.hasNext(); ) {
+            if ( it.next() == first ) {
+                it.remove();
+            }
+        }
+        assertFalse( aggregate.getFacts().contains( first ) );
+        assertTrue( aggregate.getFacts().contains( third ) );
+        assertEqualAggregates( aggregate( third ), aggregate );
+
+        aggregate.getFacts().clear();
+        assertEqualAggregates( new AggregateFactD(), aggregate );
+    }
+
+    @Test
+    public void duplicateInstancesAreCounted() {
+        CompositeFactC fact = new CompositeFactC( 1, null, null );
+        // above the Integer cache, counts must be compared by value
+        int times = 1000;
+        AggregateFactD aggregate = new AggregateFactD();
+        AggregateFactD same = new AggregateFactD();
+        for ( int i = 0; i < times; i++ ) {
+            aggregate.addFact( fact );
+            same.addFact( fact );
+        }
+        assertEqualAggregates( same, aggregate );
+
+        aggregate.getFacts().remove( fact );
+        assertEquals( times - 1, aggregate.getFacts().size() );
+        assertTrue( aggregate.getFacts().contains( fact ) );
+        assertNotEquals( same, aggregate );
+        same.getFacts().remove( fact );
+        assertEqualAggregates( same, aggregate );
+
+        for ( Iterator<CompositeFactC> it = aggregate.getFacts().iterator(); it.hasNext(); ) {
+            it.next();
+            it.remove();
+        }
+        assertFalse( aggregate.getFacts().contains( fact ) );
+        assertEqualAggregates( new AggregateFactD(), aggregate );
+    }
+
+    @Test
+    public void equalsComparesInstances() {
+        CompositeFactC fact = new CompositeFactC( 1, new BasicFactA( 1, "a" ), null );
+        CompositeFactC other = new CompositeFactC( 2, null, null );
+        AggregateFactD aggregate = aggregate( fact, other );
+
+        // the same instances in another order
+        assertEqualAggregates( aggregate( other, fact ), aggregate );
+        // equal facts, but other instances
+        assertNotEquals( aggregate( new CompositeFactC( 1, new BasicFactA( 1, "a" ), null ), other ), aggregate );
+        // the same instances, not as many times
+        assertNotEquals( aggregate( fact, fact, other ), aggregate( fact, other, other ) );
+
+        // a modify of a fact changes neither the hash code nor the equality
+        int hash = aggregate.hashCode();
+        fact.setFactA( null );
+        assertEquals( hash, aggregate.hashCode() );
+        assertEqualAggregates( aggregate( fact, other ), aggregate );
+    }
+
+    private static AggregateFactD aggregate( CompositeFactC... facts ) {
+        AggregateFactD aggregate = new AggregateFactD();
+        for ( CompositeFactC fact : facts ) {
+            aggregate.addFact( fact );
+        }
+        return aggregate;
+    }
+
+    /**
+     * Equal, with the same hash code, in both directions
+     */
+    private static void assertEqualAggregates( AggregateFactD expected, AggregateFactD actual ) {
+        assertEquals( expected, actual );
+        assertEquals( actual, expected );
+        assertEquals( expected.hashCode(), actual.hashCode() );
+    }
+}
@@ -0,0 +1,98 @@
+package com.redhat.kie.serialization;
+
+import static com.redhat.kie.serialization.util.Utils.createKieModule;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.builder.model.KieModuleModel;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BatchImageCompiler;
+import com.redhat.util.BatchImageCompiler.BatchReport;
+import com.redhat.util.BatchImageCompiler.ModuleResult;
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.BinaryKModuleExternalizer;
+
+/**
+ *
+ * A directory with a KJAR, a DRL set and a broken jar is compiled on two workers
+ *
+ */
+@SuppressWarnings( "serial" )
+public class BatchImageCompilerTest {
+
+    private static final String BATCH_DIR = Utils.TARGET_DIR + File.separator + "batch";
+    private static final String INPUT_DIR = BATCH_DIR + File.separator + "input";
+    private static final String OUTPUT_DIR = BATCH_DIR + File.separator + "output";
+
+    @Before
+    public void setup() throws Exception {
+        if ( Files.exists( Paths.get( BATCH_DIR ) ) ) {
+            try ( Stream<Path> files = Files.walk( Paths.get( BATCH_DIR ) ) ) {
+                files.sorted( Comparator.reverseOrder() ).forEach( file -> file.toFile().delete() );
+            }
+        }
+        Files.createDirectories( Paths.get( INPUT_DIR, "drl-set" ) );
+
+        List<Map<String, String>> resources = new ArrayList<Map<String, String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
+        createKieModule( resources ).getMemoryFileSystem().writeAsJar( new File( INPUT_DIR ), "kjar" );
+
+        for ( String drl : new String[] { "DeclaredFact.drl", "RulesOnly.drl" } ) {
+            Files.copy( Paths.get( Utils.SRC_MAIN_RESOURCES, Utils.RULES_FOLDER, drl ), Paths.get( INPUT_DIR, "drl-set", drl ) );
+        }
+        Files.write( Paths.get( INPUT_DIR, "broken.jar" ), "not a jar".getBytes( "UTF-8" ) );
+    }
+
+    @Test
+    public void compileDirectoryInParallel() throws Exception {
+        BatchReport report = new BatchImageCompiler( 2, Codec.DEFLATE ).compile( new File( INPUT_DIR ), new File( OUTPUT_DIR ) );
+
+        assertEquals( 3, report.getModules() );
+        assertEquals( 1, report.getFailures() );
+        assertTrue( report.getModulesPerMinute() > 0 );
+
+        for ( ModuleResult result : report.getResults() ) {
+            if ( result.getSource().getName().equals( "broken.jar" ) ) {
+                assertTrue( result.isFailed() );
+                continue;
+            }
+            assertFalse( result.toString(), result.isFailed() );
+            assertEquals( 1, result.getReport().getKieBases() );
+
+            KieContainer container = BinaryKModuleExternalizer.restoreKieContainer( result.getImage() );
+            KieSession session = container.newKieSession( "ksession" );
+            assertEquals( 2, session.fireAllRules() );
+            session.dispose();
+        }
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectIncludeOfDependencyKieBase() throws Exception {
+        File drlSet = new File( INPUT_DIR, "drl-tenant" );
+        Files.createDirectories( Paths.get( drlSet.getPath(), "META-INF" ) );
+        Files.copy( Paths.get( Utils.SRC_MAIN_RESOURCES, Utils.RULES_FOLDER, "RulesOnly.drl" ), Paths.get( drlSet.getPath(), "RulesOnly.drl" ) );
+        KieModuleModel kModuleModel = Utils.KIE_SERVICES.newKieModuleModel();
+        kModuleModel.newKieBaseModel( "kbase" ).setDefault( true ).addInclude( "sharedKBase" );
+        Files.write( Paths.get( drlSet.getPath(), "META-INF", "kmodule.xml" ), kModuleModel.toXML().getBytes( "UTF-8" ) );
+
+        // "sharedKBase" could only come from a dependency, which is not resolved
+        BatchImageCompiler.readDrlSet( drlSet );
+    }
+}
@@ -0,0 +1,76 @@
+package com.redhat.kie.serialization;
+
+import static com.redhat.kie.serialization.util.Utils.createKieModule;
+import static com.redhat.kie.serialization.util.Utils.deserializeKieBase;
+import static com.redhat.kie.serialization.util.Utils.serializeKieBase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.kie.api.KieBase;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.CompositeFactC;
+import com.redhat.model.GlobalFunctions;
+import com.redhat.util.BatchingKieExecutor;
+import com.redhat.util.KieSessionPool;
+
+/**
+ *
+ * Requests are inserted and fired in batches, each request gets its own facts back
+ *
+ */
+@SuppressWarnings( "serial" )
+public class BatchingKieExecutorTest {
+
+    private static final String KBASE_BIN_FILE = Utils.TARGET_DIR + File.separator + "batch-kbase.bin";
+
+    @Test
+    public void requestsAreFiredInBatches() throws Exception {
+        List<Map<String, String>> resources = new ArrayList<Map<String, String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesOnly.drl" ); } } );
+        serializeKieBase( KBASE_BIN_FILE, createKieModule( resources ) );
+        KieBase kBase = deserializeKieBase( KBASE_BIN_FILE );
+
+        try ( KieSessionPool pool = new KieSessionPool( kBase, 1, session -> session.setGlobal( "functions", new GlobalFunctions() ) ) ) {
+            BatchingKieExecutor executor = new BatchingKieExecutor( pool, 1, 30, 100, TimeUnit.MILLISECONDS );
+
+            List<CompositeFactC> composites = new ArrayList<CompositeFactC>();
+            List<CompletableFuture<List<Object>>> futures = new ArrayList<CompletableFuture<List<Object>>>();
+            for ( int i = 0; i < 20; i++ ) {
+                BasicFactA factA = new BasicFactA( i, "batch" );
+                BasicFactB factB = new BasicFactB( i, "batch", i );
+                CompositeFactC factC = new CompositeFactC( i, factA, factB );
+                composites.add( factC );
+                futures.add( executor.submit( factA, factB, factC ) );
+            }
+
+            for ( int i = 0; i < futures.size(); i++ ) {
+                List<Object> facts = futures.get( i ).get( 10, TimeUnit.SECONDS );
+                assertEquals( 3, facts.size() );
+                // Debug Rule 4 and 5 fired for the composite fact of the request
+                assertSame( composites.get( i ), facts.get( 2 ) );
+                assertNull( composites.get( i ).getFactA() );
+                assertNull( composites.get( i ).getFactB() );
+            }
+
+            executor.close();
+            // 10 requests of 3 facts per batch at most
+            assertTrue( executor.getBatches() >= 2 );
+            assertTrue( executor.getBatches() < futures.size() );
+        }
+    }
+}
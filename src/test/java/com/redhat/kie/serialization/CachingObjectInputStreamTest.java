@@ -0,0 +1,71 @@
+package com.redhat.kie.serialization;
+
+import static com.redhat.kie.serialization.util.Utils.createKieModule;
+import static com.redhat.kie.serialization.util.Utils.deserializeKiePackages;
+import static com.redhat.kie.serialization.util.Utils.serializeKiePackages;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.KieBase;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.CachingObjectInputStream;
+
+/**
+ *
+ * A tenant loaded again with the same class loader resolves its classes from the cache
+ *
+ */
+@SuppressWarnings( "serial" )
+public class CachingObjectInputStreamTest {
+
+    private static final String KPACKAGE_BIN_FILE = Utils.TARGET_DIR + File.separator + "kpackages-cached.bin";
+
+    private ClassLoader classLoader;
+
+    @Before
+    public void setup() throws Exception {
+        Files.deleteIfExists( Paths.get( KPACKAGE_BIN_FILE ) );
+
+        List<Map<String, String>> resources = new ArrayList<Map<String, String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesOnly.drl" ); } } );
+        MemoryKieModule kmodule = createKieModule( resources );
+        serializeKiePackages( KPACKAGE_BIN_FILE, kmodule );
+        KieBase kbase = Utils.KIE_SERVICES.newKieContainer( kmodule.getReleaseId() ).getKieBase();
+        classLoader = kbase.getRootClassLoader();
+        CachingObjectInputStream.invalidateAll();
+    }
+
+    @Test
+    public void secondLoadResolvesFromTheCache() throws Exception {
+        assertEquals( 2, deserializeKiePackages( KPACKAGE_BIN_FILE, classLoader ).size() );
+        long misses = CachingObjectInputStream.getMisses();
+        long hits = CachingObjectInputStream.getHits();
+
+        assertEquals( 2, deserializeKiePackages( KPACKAGE_BIN_FILE, classLoader ).size() );
+        assertEquals( misses, CachingObjectInputStream.getMisses() );
+        assertTrue( CachingObjectInputStream.getHits() > hits );
+    }
+
+    @Test
+    public void invalidatedClassLoaderResolvesAgain() throws Exception {
+        deserializeKiePackages( KPACKAGE_BIN_FILE, classLoader );
+        long misses = CachingObjectInputStream.getMisses();
+
+        CachingObjectInputStream.invalidate( classLoader );
+        deserializeKiePackages( KPACKAGE_BIN_FILE, classLoader );
+        assertTrue( CachingObjectInputStream.getMisses() > misses );
+    }
+}
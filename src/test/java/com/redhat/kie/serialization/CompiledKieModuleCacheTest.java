@@ -0,0 +1,99 @@
+package com.redhat.kie.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.CompiledKieModuleCache;
+
+/**
+ *
+ * The same rules are only compiled once, later builds restore the cached BinKieModule image
+ *
+ */
+@SuppressWarnings( "serial" )
+public class CompiledKieModuleCacheTest {
+
+    private static final File CACHE_DIR = new File( Utils.TARGET_DIR + File.separator + "kmodule-cache" );
+
+    private List<Map<String, String>> originalResources;
+    private List<Map<String, String>> modifiedResources;
+
+    @Before
+    public void setup() throws Exception {
+        if ( CACHE_DIR.exists() ) {
+            try ( Stream<Path> paths = Files.walk( CACHE_DIR.toPath() ) ) {
+                paths.sorted( Comparator.reverseOrder() ).forEach( path -> path.toFile().delete() );
+            }
+        }
+
+        originalResources = new ArrayList<Map<String, String>>();
+        originalResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
+
+        modifiedResources = new ArrayList<Map<String, String>>();
+        modifiedResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        modifiedResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "ModifiedRulesOnly.drl" ); } } );
+    }
+
+    @Test
+    public void compileOnlyOnMiss() throws Exception {
+        CompiledKieModuleCache cache = new CompiledKieModuleCache( CACHE_DIR, Long.MAX_VALUE );
+
+        File image = cache.getImage( Utils.newKieFileSystem( originalResources ) );
+        assertEquals( 1, cache.getMisses() );
+
+        // same sources, new KieFileSystem
+        assertEquals( image, cache.getImage( Utils.newKieFileSystem( originalResources ) ) );
+        assertEquals( 1, cache.getMisses() );
+        assertEquals( 1, cache.getHits() );
+
+        assertNotEquals( image, cache.getImage( Utils.newKieFileSystem( modifiedResources ) ) );
+        assertEquals( 2, cache.getMisses() );
+
+        KieContainer container = cache.getKieContainer( Utils.newKieFileSystem( originalResources ) );
+        KieSession session = container.newKieSession();
+        assertEquals( 2, session.fireAllRules() );
+    }
+
+    @Test
+    public void keyTellsFileSetsWithTheSameBytesApart() throws Exception {
+        // "a" + "1" + "a1b" + "2" and "a" + "1a1" + "b" + "2" are the same bytes back to back
+        KieFileSystem kfs = Utils.KIE_SERVICES.newKieFileSystem().write( "a", "1" ).write( "a1b", "2" );
+        KieFileSystem shifted = Utils.KIE_SERVICES.newKieFileSystem().write( "a", "1a1" ).write( "b", "2" );
+        assertNotEquals( CompiledKieModuleCache.key( kfs ), CompiledKieModuleCache.key( shifted ) );
+    }
+
+    @Test
+    public void evictLeastRecentlyUsedImage() throws Exception {
+        CompiledKieModuleCache cache = new CompiledKieModuleCache( CACHE_DIR, Long.MAX_VALUE );
+        File original = cache.getImage( Utils.newKieFileSystem( originalResources ) );
+        // images used in the last minute may still be loading and are not evicted
+        assertTrue( original.setLastModified( System.currentTimeMillis() - TimeUnit.MINUTES.toMillis( 5 ) ) );
+
+        CompiledKieModuleCache boundedCache = new CompiledKieModuleCache( CACHE_DIR, original.length() );
+        File modified = boundedCache.getImage( Utils.newKieFileSystem( modifiedResources ) );
+
+        assertFalse( original.exists() );
+        assertTrue( modified.exists() );
+        assertEquals( modified.length(), boundedCache.size() );
+    }
+}
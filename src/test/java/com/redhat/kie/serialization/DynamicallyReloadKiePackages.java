@@ -12,11 +12,13 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
 import org.drools.core.definitions.InternalKnowledgePackage;
 import org.drools.core.impl.KnowledgeBaseImpl;
 import org.junit.Before;
@@ -27,17 +29,26 @@ import org.kie.api.runtime.KieContainer;
 import org.kie.api.runtime.KieSession;
 
 import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.KieBaseHotSwap;
+import com.redhat.util.KieBaseHotSwap.SwapReport;
+import com.redhat.util.KiePackageDelta;
+import com.redhat.util.KiePackageDiff;
 
 @SuppressWarnings( "serial" )
 public class DynamicallyReloadKiePackages {
 
     private static final String KBASE_BIN_FILE = Utils.TARGET_DIR + File.separator + "kbase.bin";
     private static final String KPACKAGE_BIN_FILE = Utils.TARGET_DIR + File.separator + "kpackage-modified.bin";
+    private static final String KPACKAGE_ORIGINAL_BIN_FILE = Utils.TARGET_DIR + File.separator + "kpackage-original.bin";
+    private static final String KPACKAGE_DELTA_BIN_FILE = Utils.TARGET_DIR + File.separator + "kpackage-delta.bin";
 
     @Before
     public void setup() throws Exception {
         Files.deleteIfExists( Paths.get( KBASE_BIN_FILE ) );
         Files.deleteIfExists( Paths.get( KPACKAGE_BIN_FILE ) );
+        Files.deleteIfExists( Paths.get( KPACKAGE_ORIGINAL_BIN_FILE ) );
+        Files.deleteIfExists( Paths.get( KPACKAGE_DELTA_BIN_FILE ) );
     }
 
     /**
@@ -160,6 +171,96 @@ public class DynamicallyReloadKiePackages {
 
     }
 
+    /*
+     * 
+     * KieBaseHotSwap replaces the rules of the packages one by one, so it works with a KieBase that already has sessions
+     * and the live sessions see the modified rules
+     *
+     */
+    @Test
+    public void hotSwapKiePackagesInAPreviouslyUsedKieBase() throws Exception {
+        // load the original rules
+        List<Map<String,String>> originalResources = new ArrayList<Map<String,String>>();
+        originalResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        originalResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesOnly.drl" ); } } );
+
+        // serialize the kie base and read it back in
+        serializeKieBase( KBASE_BIN_FILE, createKieModule( originalResources ) );
+        KnowledgeBaseImpl serializedKieBase = (KnowledgeBaseImpl) deserializeKieBase( KBASE_BIN_FILE );
+
+        KieSession liveSession = serializedKieBase.newKieSession();
+        assertEquals( 2, liveSession.fireAllRules() );
+
+        // load the modified rules
+        List<Map<String,String>> modifiedResources = new ArrayList<Map<String,String>>();
+        modifiedResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        modifiedResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "ModifiedRulesOnly.drl" ); } } );
+
+        // write the kie packages out and read them back in, the declared types stay as they are
+        serializeKiePackages( KPACKAGE_BIN_FILE, createKieModule( modifiedResources ) );
+        Collection<KiePackage> modifiedPackages = new ArrayList<KiePackage>();
+        for ( KiePackage pkg : deserializeKiePackages( KPACKAGE_BIN_FILE, serializedKieBase.getRootClassLoader() ) ) {
+            if ( !pkg.getName().contains( "generated" ) ) {
+                modifiedPackages.add( pkg );
+            }
+        }
+
+        SwapReport report = KieBaseHotSwap.swap( serializedKieBase, modifiedPackages );
+        assertEquals( 1, report.getLiveSessions() );
+        assertTrue( report.getLongestPauseMillis() <= report.getTotalMillis() );
+
+        // the live session only fires the added rule, a new session fires all of them
+        assertEquals( 1, liveSession.fireAllRules() );
+        assertEquals( 3, serializedKieBase.newKieSession().fireAllRules() );
+    }
+
+    /*
+     * 
+     * Only the rules that differ between the two versions of the package are part of the delta, the other rules of the
+     * KieBase are not touched when it is applied
+     *
+     */
+    @Test
+    public void applyKiePackageDeltaToAPreviouslyUsedKieBase() throws Exception {
+        // load the original rules
+        List<Map<String,String>> originalResources = new ArrayList<Map<String,String>>();
+        originalResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        originalResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesOnly.drl" ); } } );
+
+        // serialize the kie base and read it back in
+        MemoryKieModule originalModule = createKieModule( originalResources );
+        serializeKieBase( KBASE_BIN_FILE, originalModule );
+        serializeKiePackages( KPACKAGE_ORIGINAL_BIN_FILE, originalModule );
+        KnowledgeBaseImpl serializedKieBase = (KnowledgeBaseImpl) deserializeKieBase( KBASE_BIN_FILE );
+
+        KieSession liveSession = serializedKieBase.newKieSession();
+        assertEquals( 2, liveSession.fireAllRules() );
+
+        // load the modified rules
+        List<Map<String,String>> modifiedResources = new ArrayList<Map<String,String>>();
+        modifiedResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        modifiedResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "ModifiedRulesOnly.drl" ); } } );
+        serializeKiePackages( KPACKAGE_BIN_FILE, createKieModule( modifiedResources ) );
+
+        // rule 3 is new, the old rules 3 to 5 were renumbered to 4 to 6
+        List<KiePackageDelta> deltas = KiePackageDiff.diff( new File( KPACKAGE_ORIGINAL_BIN_FILE ), new File( KPACKAGE_BIN_FILE ), serializedKieBase.getRootClassLoader() );
+        assertEquals( 1, deltas.size() );
+        KiePackageDelta delta = deltas.get( 0 );
+        assertEquals( "com.redhat.rules", delta.getPackageName() );
+        assertEquals( Arrays.asList( "Debug Rule 6" ), delta.getAddedRules() );
+        assertEquals( Arrays.asList( "Debug Rule 3", "Debug Rule 4", "Debug Rule 5" ), delta.getChangedRules() );
+        assertTrue( delta.getRemovedRules().isEmpty() );
+        assertEquals( 4, delta.getKiePackage().getRules().size() );
+
+        KiePackageDiff.write( new File( KPACKAGE_DELTA_BIN_FILE ), deltas, Codec.NONE );
+        SwapReport report = KieBaseHotSwap.apply( serializedKieBase, new File( KPACKAGE_DELTA_BIN_FILE ) );
+        assertEquals( 3, report.getRulesRemoved() );
+        assertEquals( 4, report.getRulesAdded() );
+
+        assertEquals( 1, liveSession.fireAllRules() );
+        assertEquals( 3, serializedKieBase.newKieSession().fireAllRules() );
+    }
+
     private void reloadKiePackages( KieBase kbase, Collection<KiePackage> modifiedPackages ) {
         KnowledgeBaseImpl impl = (KnowledgeBaseImpl) kbase;
         for ( KiePackage pkg : modifiedPackages ) {
@@ -0,0 +1,86 @@
+package com.redhat.kie.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.redhat.model.GlobalFunctions;
+
+/**
+ *
+ * The evaluations counted by a GlobalFunctions shared by sessions on several threads add up, in total and per rule
+ *
+ */
+public class GlobalFunctionsTest {
+
+    private static final int THREADS = 8;
+    private static final int CALLS = 20000;
+    private static final String[] RULES = { "Rule A", "Rule B", "Rule C" };
+
+    @Test
+    public void countsOfConcurrentCallersAddUp() throws Exception {
+        GlobalFunctions functions = new GlobalFunctions();
+        CountDownLatch start = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+        try {
+            List<Future<?>> callers = new ArrayList<Future<?>>();
+            for ( int t = 0; t < THREADS; t++ ) {
+                int thread = t;
+                callers.add( executor.submit( () -> {
+                    start.await();
+                    for ( int i = 0; i < CALLS; i++ ) {
+                        functions.evaluate( i );
+                        // every thread starts on another rule, so new counters are created concurrently
+                        functions.countEval( RULES[( thread + i ) % RULES.length] );
+                    }
+                    return null;
+                } ) );
+            }
+            start.countDown();
+            for ( Future<?> caller : callers ) {
+                caller.get( 1, TimeUnit.MINUTES );
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals( (long) THREADS * CALLS, functions.getEvals() );
+        long byRule = 0;
+        for ( String rule : RULES ) {
+            assertTrue( functions.getEvals( rule ) > 0 );
+            byRule += functions.getEvals( rule );
+        }
+        assertEquals( functions.getEvals(), byRule );
+        assertEquals( 0, functions.getEvals( "Unknown Rule" ) );
+    }
+
+    @Test
+    public void restoredCountsKeepCounting() {
+        Map<String, Long> evalsByRule = new HashMap<String, Long>();
+        evalsByRule.put( "Rule B", 5L );
+        evalsByRule.put( "Rule A", 3L );
+        GlobalFunctions functions = new GlobalFunctions( 8, evalsByRule );
+        assertEquals( evalsByRule, functions.getEvalsByRule() );
+
+        assertTrue( functions.evaluate( "fact" ) );
+        assertFalse( functions.evaluate( null ) );
+        functions.countEval( "Rule A" );
+        assertEquals( 10, functions.getEvals() );
+        assertEquals( 4, functions.getEvals( "Rule A" ) );
+        // sorted by rule name
+        assertEquals( "Rule A", functions.getEvalsByRule().keySet().iterator().next() );
+    }
+}
@@ -0,0 +1,135 @@
+package com.redhat.kie.serialization;
+
+import static com.redhat.kie.serialization.util.Utils.createKieModule;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BinaryKModuleExternalizer;
+import com.redhat.util.FileSystemKieImageStore;
+import com.redhat.util.JdbcKieImageStore;
+import com.redhat.util.KieImageStore;
+import com.redhat.util.KieImageStore.ImageVersion;
+
+/**
+ *
+ * Requirement 1 : Rules must be built and serialized in a binary format that can be saved to a DB
+ *
+ * Images are stored as versions of their releaseId, a node pulls the latest version to a local file and restores it
+ *
+ */
+@SuppressWarnings( "serial" )
+public class KieImageStoreTest {
+
+    private static final String KMODULE_BIN_FILE = Utils.TARGET_DIR + File.separator + "kmodule-store.bin";
+    private static final String PULLED_BIN_FILE = Utils.TARGET_DIR + File.separator + "kmodule-pulled.bin";
+    private static final String STORE_DIR = Utils.TARGET_DIR + File.separator + "image-store";
+    private static final String H2_URL = "jdbc:h2:file:" + Utils.TARGET_DIR + File.separator + "image-store-db";
+
+    private String releaseId;
+
+    @Before
+    public void setup() throws Exception {
+        Files.deleteIfExists( Paths.get( KMODULE_BIN_FILE ) );
+        Files.deleteIfExists( Paths.get( PULLED_BIN_FILE ) );
+        Files.deleteIfExists( Paths.get( Utils.TARGET_DIR, "image-store-db.mv.db" ) );
+        if ( Files.exists( Paths.get( STORE_DIR ) ) ) {
+            try ( Stream<Path> paths = Files.walk( Paths.get( STORE_DIR ) ) ) {
+                paths.sorted( Comparator.reverseOrder() ).forEach( path -> path.toFile().delete() );
+            }
+        }
+
+        List<Map<String, String>> resources = new ArrayList<Map<String, String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
+        MemoryKieModule kModule = createKieModule( resources );
+        BinaryKModuleExternalizer.kieModuleToBinary( kModule, new File( KMODULE_BIN_FILE ) );
+        releaseId = kModule.getReleaseId().toExternalForm();
+    }
+
+    @Test
+    public void storeImagesInFileSystem() throws Exception {
+        storeAndPullLatest( new FileSystemKieImageStore( new File( STORE_DIR ) ) );
+    }
+
+    @Test
+    public void storeImagesInH2() throws Exception {
+        storeAndPullLatest( new JdbcKieImageStore( H2_URL, "sa", "" ) );
+    }
+
+    @Test
+    public void concurrentPutsInH2() throws Exception {
+        KieImageStore store = new JdbcKieImageStore( H2_URL, "sa", "" );
+        File image = new File( KMODULE_BIN_FILE );
+        int writers = 2;
+        CountDownLatch start = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( writers );
+        try {
+            List<Future<ImageVersion>> puts = new ArrayList<Future<ImageVersion>>();
+            for ( int i = 0; i < writers; i++ ) {
+                puts.add( executor.submit( () -> {
+                    start.await();
+                    return store.put( image );
+                } ) );
+            }
+            start.countDown();
+
+            Set<Long> versions = new HashSet<Long>();
+            for ( Future<ImageVersion> put : puts ) {
+                ImageVersion stored = put.get();
+                assertEquals( image.length(), stored.getLength() );
+                versions.add( stored.getVersion() );
+            }
+            assertTrue( versions.contains( 1L ) && versions.contains( 2L ) );
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertEquals( 2, store.getHistory( releaseId ).size() );
+        assertEquals( 2, store.getLatest( releaseId ).getVersion() );
+    }
+
+    private void storeAndPullLatest( KieImageStore store ) throws Exception {
+        assertNull( store.getLatest( releaseId ) );
+
+        File image = new File( KMODULE_BIN_FILE );
+        assertEquals( 1, store.put( image ).getVersion() );
+        assertEquals( 2, store.put( image ).getVersion() );
+
+        ImageVersion latest = store.getLatest( releaseId );
+        assertEquals( 2, latest.getVersion() );
+        assertEquals( image.length(), latest.getLength() );
+        assertEquals( 2, store.getHistory( releaseId ).size() );
+
+        File pulled = new File( PULLED_BIN_FILE );
+        store.download( latest, pulled );
+        assertEquals( image.length(), pulled.length() );
+
+        KieContainer container = BinaryKModuleExternalizer.restoreKieContainer( pulled );
+        KieSession session = container.newKieSession();
+        assertEquals( 2, session.fireAllRules() );
+    }
+}
@@ -0,0 +1,102 @@
+package com.redhat.kie.serialization;
+
+import static com.redhat.kie.serialization.util.Utils.createKieModule;
+import static com.redhat.kie.serialization.util.Utils.deserializeKieBase;
+import static com.redhat.kie.serialization.util.Utils.serializeKieBase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.KieBase;
+import org.kie.api.runtime.KieSession;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.CompositeFactC;
+import com.redhat.model.GlobalFunctions;
+import com.redhat.util.KieSessionPool;
+import com.redhat.util.KieSessionPool.PooledKieSession;
+
+/**
+ *
+ * Sessions of a deserialized KieBase are reset and used again instead of being created per request
+ *
+ */
+@SuppressWarnings( "serial" )
+public class KieSessionPoolTest {
+
+    private static final String KBASE_BIN_FILE = Utils.TARGET_DIR + File.separator + "pool-kbase.bin";
+
+    private KieBase kBase;
+
+    @Before
+    public void setup() throws Exception {
+        List<Map<String, String>> resources = new ArrayList<Map<String, String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesOnly.drl" ); } } );
+        serializeKieBase( KBASE_BIN_FILE, createKieModule( resources ) );
+        kBase = deserializeKieBase( KBASE_BIN_FILE );
+    }
+
+    @Test
+    public void resetSessionsAreReused() throws Exception {
+        try ( KieSessionPool pool = new KieSessionPool( kBase, 2, session -> session.setGlobal( "functions", new GlobalFunctions() ) ) ) {
+            int first = pool.execute( KieSessionPoolTest::fire );
+            int second = pool.execute( KieSessionPoolTest::fire );
+
+            // the facts of the first request were cleared, the same rules fire again
+            assertEquals( first, second );
+            assertEquals( 1, pool.getSize() );
+            assertEquals( 1, pool.getAffinityHits() );
+
+            try ( PooledKieSession session = pool.borrow() ) {
+                assertEquals( 0, session.getSession().getFactCount() );
+                assertNotNull( session.getSession().getGlobal( "functions" ) );
+            }
+        }
+    }
+
+    @Test
+    public void poolIsBounded() throws Exception {
+        try ( KieSessionPool pool = new KieSessionPool( kBase, 2 ) ) {
+            PooledKieSession first = pool.borrow();
+            PooledKieSession second = pool.borrow();
+            assertNotSame( first.getSession(), second.getSession() );
+            assertNull( pool.borrow( 10, TimeUnit.MILLISECONDS ) );
+
+            KieSession secondSession = second.getSession();
+            second.close();
+            // closing again returns nothing more to the pool
+            second.close();
+            try ( PooledKieSession third = pool.borrow( 10, TimeUnit.MILLISECONDS ) ) {
+                assertSame( secondSession, third.getSession() );
+                assertNull( pool.borrow( 10, TimeUnit.MILLISECONDS ) );
+                second.close();
+                assertNull( pool.borrow( 10, TimeUnit.MILLISECONDS ) );
+            }
+            first.close();
+            assertEquals( 2, pool.getSize() );
+        }
+    }
+
+    private static int fire( KieSession session ) {
+        BasicFactA factA = new BasicFactA( 1, "pool" );
+        BasicFactB factB = new BasicFactB( 1, "pool", 1.0 );
+        session.insert( factA );
+        session.insert( factB );
+        session.insert( new CompositeFactC( 1, factA, factB ) );
+        return session.fireAllRules();
+    }
+}
@@ -0,0 +1,117 @@
+package com.redhat.kie.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.redhat.model.AggregateFactD;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.CompositeFactC;
+import com.redhat.model.ModelEncoding;
+
+/**
+ *
+ * The Externalizable form of the com.redhat.model facts survives a round trip through Java serialization, shared facts
+ * included
+ *
+ */
+public class ModelEncodingTest {
+
+    private static final int[] INTS = { 0, 1, -1, 63, -64, 64, -65, 8191, -8192, 1 << 20, Integer.MAX_VALUE, Integer.MIN_VALUE };
+    private static final long[] LONGS = { 0L, -1L, 63L, -64L, 1L << 35, -( 1L << 35 ), Long.MAX_VALUE, Long.MIN_VALUE };
+
+    @Test
+    public void varIntsRoundTrip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        for ( int value : INTS ) {
+            ModelEncoding.writeVarInt( out, value );
+        }
+        for ( long value : LONGS ) {
+            ModelEncoding.writeVarLong( out, value );
+        }
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+        for ( int value : INTS ) {
+            assertEquals( value, ModelEncoding.readVarInt( in ) );
+        }
+        for ( long value : LONGS ) {
+            assertEquals( value, ModelEncoding.readVarLong( in ) );
+        }
+        assertEquals( -1, in.read() );
+
+        // small values of either sign take one byte
+        bytes.reset();
+        ModelEncoding.writeVarInt( out, -64 );
+        ModelEncoding.writeVarInt( out, 63 );
+        assertEquals( 2, bytes.size() );
+    }
+
+    @Test
+    public void factsRoundTrip() throws Exception {
+        List<Object> facts = new ArrayList<Object>();
+        for ( int value : INTS ) {
+            facts.add( new BasicFactA( value, "a" + value ) );
+            facts.add( new BasicFactB( value, "b" + value, value / 3.0 ) );
+        }
+        facts.add( new BasicFactA( -1, null ) );
+        facts.add( new BasicFactB( Integer.MIN_VALUE, null, Double.NaN ) );
+        facts.add( new CompositeFactC( Integer.MAX_VALUE, null, null ) );
+        facts.add( new CompositeFactC( -1, new BasicFactA( 1, null ), null ) );
+
+        List<?> read = roundTrip( facts );
+        assertEquals( facts, read );
+        assertNull( ( (CompositeFactC) read.get( read.size() - 2 ) ).getFactA() );
+        assertNull( ( (CompositeFactC) read.get( read.size() - 1 ) ).getFactB() );
+    }
+
+    @Test
+    public void sharedFactsComeBackAsTheSameInstance() throws Exception {
+        BasicFactA factA = new BasicFactA( 1, "shared" );
+        CompositeFactC shared = new CompositeFactC( 1, factA, new BasicFactB( 1, "shared", 1.0 ) );
+        CompositeFactC own = new CompositeFactC( 2, factA, null );
+        AggregateFactD first = new AggregateFactD();
+        first.addFact( shared );
+        first.addFact( own );
+        AggregateFactD second = new AggregateFactD();
+        second.addFact( shared );
+
+        List<?> read = roundTrip( Arrays.asList( first, second ) );
+        AggregateFactD readFirst = (AggregateFactD) read.get( 0 );
+        AggregateFactD readSecond = (AggregateFactD) read.get( 1 );
+        assertEquals( 2, readFirst.getFacts().size() );
+        assertEquals( 1, readSecond.getFacts().size() );
+
+        List<CompositeFactC> firstFacts = new ArrayList<CompositeFactC>( readFirst.getFacts() );
+        CompositeFactC readShared = readSecond.getFacts().iterator().next();
+        assertSame( firstFacts.get( 0 ), readShared );
+        assertNotSame( shared, readShared );
+        assertEquals( shared, readShared );
+        // the BasicFactA of both composites is shared as well
+        assertSame( readShared.getFactA(), firstFacts.get( 1 ).getFactA() );
+        assertNull( firstFacts.get( 1 ).getFactB() );
+    }
+
+    private static List<?> roundTrip( List<?> objects ) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( ObjectOutputStream out = new ObjectOutputStream( bytes ) ) {
+            out.writeObject( new ArrayList<Object>( objects ) );
+        }
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) ) {
+            return (List<?>) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.redhat.kie.serialization;
+
+import static com.redhat.kie.serialization.util.Utils.createKieModule;
+import static com.redhat.kie.serialization.util.Utils.deserializeKieBase;
+import static com.redhat.kie.serialization.util.Utils.serializeKieBase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.kie.api.KieBase;
+import org.kie.api.runtime.ClassObjectFilter;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.CompositeFactC;
+import com.redhat.model.GlobalFunctions;
+import com.redhat.util.KieSessionPool;
+import com.redhat.util.PartitionedKieExecutor;
+
+/**
+ *
+ * Groups of facts sharing the id of their CompositeFactC are evaluated in parallel sessions
+ *
+ */
+@SuppressWarnings( "serial" )
+public class PartitionedKieExecutorTest {
+
+    private static final String KBASE_BIN_FILE = Utils.TARGET_DIR + File.separator + "partition-kbase.bin";
+    private static final int PARTITIONS = 4;
+
+    @Test
+    public void groupsAreEvaluatedInPartitions() throws Exception {
+        List<Map<String, String>> resources = new ArrayList<Map<String, String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesOnly.drl" ); } } );
+        serializeKieBase( KBASE_BIN_FILE, createKieModule( resources ) );
+        KieBase kBase = deserializeKieBase( KBASE_BIN_FILE );
+
+        List<Object> facts = new ArrayList<Object>();
+        for ( int i = 0; i < 40; i++ ) {
+            BasicFactA factA = new BasicFactA( i, "partition" );
+            BasicFactB factB = new BasicFactB( i, "partition", i );
+            facts.add( factA );
+            facts.add( factB );
+            facts.add( new CompositeFactC( i, factA, factB ) );
+        }
+
+        try ( KieSessionPool pool = new KieSessionPool( kBase, PARTITIONS, session -> session.setGlobal( "functions", new GlobalFunctions() ) );
+                PartitionedKieExecutor executor = new PartitionedKieExecutor( pool, PARTITIONS, PartitionedKieExecutorTest::groupOf ) ) {
+            List<Object> composites = executor.fireAllRules( facts, new ClassObjectFilter( CompositeFactC.class ) );
+            assertEquals( 40, composites.size() );
+            for ( Object factC : composites ) {
+                // Debug Rule 4 and 5 matched every group in its partition
+                assertNull( ( (CompositeFactC) factC ).getFactA() );
+                assertNull( ( (CompositeFactC) factC ).getFactB() );
+            }
+
+            // the groups were spread over the partitions, each with its own session
+            assertTrue( pool.getSize() > 1 && pool.getSize() <= PARTITIONS );
+            assertEquals( 0, executor.fireAllRules( new ArrayList<Object>() ) );
+        }
+    }
+
+    private static Object groupOf( Object fact ) {
+        if ( fact instanceof BasicFactA ) {
+            return ( (BasicFactA) fact ).getNum();
+        } else if ( fact instanceof BasicFactB ) {
+            return ( (BasicFactB) fact ).getId();
+        }
+        return ( (CompositeFactC) fact ).getId();
+    }
+}
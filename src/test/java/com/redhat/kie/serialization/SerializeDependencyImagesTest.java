@@ -0,0 +1,144 @@
+package com.redhat.kie.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.KieModule;
+import org.kie.api.builder.Message.Level;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.builder.model.KieBaseModel;
+import org.kie.api.builder.model.KieModuleModel;
+import org.kie.api.builder.model.KieSessionModel.KieSessionType;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BinaryImageFormat;
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.BinaryKModuleExternalizer;
+import com.redhat.util.DependencyImages;
+
+/**
+ *
+ * Two modules include the KieBase of a shared rules KJAR, the KJAR is stored once as a dependency image and read once
+ * when both modules are restored
+ *
+ */
+public class SerializeDependencyImagesTest {
+
+    private static final String DEPENDENCIES_DIR = Utils.TARGET_DIR + File.separator + "dependencies";
+
+    private static final String TENANT_DRL = "package com.redhat.rules.tenant;\n" //
+            + "import com.redhat.rules.generated.facts.TransientFact;\n" //
+            + "rule \"Tenant Rule\"\n" //
+            + "when\n" //
+            + "    TransientFact()\n" //
+            + "then\n" //
+            + "end\n";
+
+    @Before
+    public void setup() throws Exception {
+        if ( Files.exists( Paths.get( DEPENDENCIES_DIR ) ) ) {
+            try ( Stream<Path> files = Files.walk( Paths.get( DEPENDENCIES_DIR ) ) ) {
+                files.sorted( Comparator.reverseOrder() ).forEach( file -> file.toFile().delete() );
+            }
+        }
+        Files.createDirectories( Paths.get( DEPENDENCIES_DIR ) );
+    }
+
+    @Test
+    public void restoreModulesSharingOneDependencyImage() throws Exception {
+        KieModule sharedModule = createSharedModule();
+        DependencyImages dependencyImages = DependencyImages.forDirectory( new File( DEPENDENCIES_DIR ) );
+        long writes = dependencyImages.getWrites();
+
+        File[] images = new File[] { new File( DEPENDENCIES_DIR, "tenant-1.bin" ), new File( DEPENDENCIES_DIR, "tenant-2.bin" ) };
+        for ( int i = 0; i < images.length; i++ ) {
+            BinaryKModuleExternalizer.kieModuleToBinary( createTenantModule( "tenant-" + ( i + 1 ), sharedModule ), images[i], Codec.DEFLATE, dependencyImages );
+        }
+        assertEquals( 1, dependencyImages.getWrites() - writes );
+        try ( Stream<Path> files = Files.list( Paths.get( DEPENDENCIES_DIR ) ) ) {
+            assertEquals( 3, files.filter( file -> file.toString().endsWith( DependencyImages.IMAGE_SUFFIX ) ).count() );
+        }
+
+        dependencyImages.clear();
+        long reads = dependencyImages.getReads();
+        for ( File image : images ) {
+            KieContainer container = BinaryKModuleExternalizer.restoreKieContainer( image );
+            assertNotNull( container.getKieBase().getRule( "com.redhat.rules", "Debug Rule 1" ) );
+            KieSession session = container.newKieSession( "ksession" );
+            assertEquals( 3, session.fireAllRules() );
+            session.dispose();
+        }
+        assertEquals( 1, dependencyImages.getReads() - reads );
+    }
+
+    @Test
+    public void restoreModuleWithEmbeddedDependency() throws Exception {
+        File image = new File( DEPENDENCIES_DIR, "tenant-embedded.bin" );
+        BinaryKModuleExternalizer.kieModuleToBinary( createTenantModule( "tenant-embedded", createSharedModule() ), image, Codec.NONE );
+        // the packages of an uncompressed image are read in place from the mapping
+        assertTrue( BinaryImageFormat.readHeader( image ).getSectionsLength() > 0 );
+        // a load only checks the object stream, the whole payload is checked here
+        assertTrue( BinaryImageFormat.verify( image ) );
+
+        KieContainer container = BinaryKModuleExternalizer.restoreKieContainer( image );
+        KieSession session = container.newKieSession( "ksession" );
+        assertEquals( 3, session.fireAllRules() );
+        session.dispose();
+        assertTrue( container.getKieBase().getFactType( "com.redhat.rules.generated.facts", "TransientFact" ) != null );
+    }
+
+    /**
+     * The KieBase "sharedKBase" with the declared fact and the rules of the other tests, without KieSession
+     */
+    private static KieModule createSharedModule() throws Exception {
+        KieModuleModel kModuleModel = Utils.KIE_SERVICES.newKieModuleModel();
+        kModuleModel.newKieBaseModel( "sharedKBase" ).addPackage( "com.redhat.rules.generated.facts" ).addPackage( "com.redhat.rules" );
+
+        KieFileSystem kfs = Utils.KIE_SERVICES.newKieFileSystem();
+        kfs.writeKModuleXML( kModuleModel.toXML() );
+        kfs.generateAndWritePomXML( Utils.KIE_SERVICES.newReleaseId( "com.redhat.rules", "shared-rules", "0.0.1-SNAPSHOT" ) );
+        kfs.write( "src/main/resources/com.redhat.rules.generated.facts/DeclaredFact.drl",
+                Files.readAllBytes( Paths.get( Utils.SRC_MAIN_RESOURCES, Utils.RULES_FOLDER, "DeclaredFact.drl" ) ) );
+        kfs.write( "src/main/resources/com.redhat.rules/RulesOnly.drl", Files.readAllBytes( Paths.get( Utils.SRC_MAIN_RESOURCES, Utils.RULES_FOLDER, "RulesOnly.drl" ) ) );
+        return build( Utils.KIE_SERVICES.newKieBuilder( kfs ) );
+    }
+
+    /**
+     * The default KieBase "kbase" includes "sharedKBase" and adds one rule of its own
+     */
+    private static KieModule createTenantModule( String artifactId, KieModule sharedModule ) throws Exception {
+        KieModuleModel kModuleModel = Utils.KIE_SERVICES.newKieModuleModel();
+        KieBaseModel kBaseModel = kModuleModel.newKieBaseModel( "kbase" ).setDefault( true ).addInclude( "sharedKBase" ).addPackage( "com.redhat.rules.tenant" );
+        kBaseModel.newKieSessionModel( "ksession" ).setType( KieSessionType.STATEFUL ).setDefault( true );
+
+        KieFileSystem kfs = Utils.KIE_SERVICES.newKieFileSystem();
+        kfs.writeKModuleXML( kModuleModel.toXML() );
+        ReleaseId releaseId = Utils.KIE_SERVICES.newReleaseId( "com.redhat.rules", artifactId, "0.0.1-SNAPSHOT" );
+        kfs.generateAndWritePomXML( releaseId );
+        kfs.write( "src/main/resources/com.redhat.rules.tenant/Tenant.drl", TENANT_DRL );
+        return build( Utils.KIE_SERVICES.newKieBuilder( kfs ).setDependencies( sharedModule ) );
+    }
+
+    private static KieModule build( KieBuilder kBuilder ) {
+        kBuilder.buildAll();
+        if ( kBuilder.getResults().hasMessages( Level.ERROR ) ) {
+            fail( kBuilder.getResults().toString() );
+        }
+        return kBuilder.getKieModule();
+    }
+}
@@ -0,0 +1,113 @@
+package com.redhat.kie.serialization;
+
+import static com.redhat.kie.serialization.util.Utils.createKieModule;
+import static com.redhat.kie.serialization.util.Utils.deserializeKiePackages;
+import static com.redhat.kie.serialization.util.Utils.serializeKiePackages;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.KieBase;
+import org.kie.api.definition.KiePackage;
+import org.kie.api.runtime.KieSession;
+import org.kie.internal.KnowledgeBase;
+import org.kie.internal.KnowledgeBaseFactory;
+import org.kie.internal.definition.KnowledgePackage;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.SerializationDictionary;
+
+/**
+ *
+ * The KiePackages of similar rule sets share most of their class descriptors and strings, written once in a
+ * dictionary instead of in every image
+ *
+ */
+@SuppressWarnings( "serial" )
+public class SerializeDictionaryKiePackagesTest {
+
+    private static final String KPACKAGE_BIN_FILE = Utils.TARGET_DIR + File.separator + "kpackages.bin";
+    private static final String KPACKAGE_DICTIONARY_BIN_FILE = Utils.TARGET_DIR + File.separator + "kpackages-dictionary.bin";
+    private static final String DICTIONARY_FILE = Utils.TARGET_DIR + File.separator + "kpackages.dict";
+
+    private MemoryKieModule originalModule;
+    private KieBase originalKieBase;
+    private SerializationDictionary dictionary;
+
+    @Before
+    public void setup() throws Exception {
+        Files.deleteIfExists( Paths.get( KPACKAGE_BIN_FILE ) );
+        Files.deleteIfExists( Paths.get( KPACKAGE_DICTIONARY_BIN_FILE ) );
+        Files.deleteIfExists( Paths.get( DICTIONARY_FILE ) );
+
+        List<Map<String, String>> originalResources = new ArrayList<Map<String, String>>();
+        originalResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        originalResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesOnly.drl" ); } } );
+        List<Map<String, String>> modifiedResources = new ArrayList<Map<String, String>>();
+        modifiedResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        modifiedResources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "ModifiedRulesOnly.drl" ); } } );
+
+        originalModule = createKieModule( originalResources );
+        originalKieBase = Utils.KIE_SERVICES.newKieContainer( originalModule.getReleaseId() ).getKieBase();
+        KieBase modifiedKieBase = Utils.KIE_SERVICES.newKieContainer( createKieModule( modifiedResources ).getReleaseId() ).getKieBase();
+
+        List<Collection<KiePackage>> samples = new ArrayList<Collection<KiePackage>>();
+        samples.add( originalKieBase.getKiePackages() );
+        samples.add( modifiedKieBase.getKiePackages() );
+        dictionary = SerializationDictionary.build( samples, 2 );
+    }
+
+    /**
+     * The image written with the dictionary is smaller and loads the same rules
+     */
+    @SuppressWarnings( "unchecked" )
+    @Test
+    public void serializeKiePackagesWithDictionary() throws Exception {
+        dictionary.write( new File( DICTIONARY_FILE ) );
+        SerializationDictionary readDictionary = SerializationDictionary.read( new File( DICTIONARY_FILE ) );
+        assertEquals( dictionary.getId(), readDictionary.getId() );
+
+        serializeKiePackages( KPACKAGE_BIN_FILE, originalModule );
+        serializeKiePackages( KPACKAGE_DICTIONARY_BIN_FILE, originalModule, dictionary );
+        assertTrue( new File( KPACKAGE_DICTIONARY_BIN_FILE ).length() < new File( KPACKAGE_BIN_FILE ).length() );
+
+        ClassLoader classLoader = originalKieBase.getRootClassLoader();
+        Collection<KiePackage> packages = deserializeKiePackages( KPACKAGE_DICTIONARY_BIN_FILE, classLoader, readDictionary );
+        KnowledgeBase kbase = KnowledgeBaseFactory.newKnowledgeBase( KnowledgeBaseFactory.newKnowledgeBaseConfiguration( null, classLoader ) );
+        kbase.addKnowledgePackages( (Collection<KnowledgePackage>) (Collection<?>) packages );
+
+        KieSession session = kbase.newKieSession();
+        assertEquals( 2, session.fireAllRules() );
+        session.dispose();
+    }
+
+    /**
+     * An image can only be read with the dictionary it was written with
+     */
+    @Test
+    public void readWithAnotherDictionaryFails() throws Exception {
+        serializeKiePackages( KPACKAGE_DICTIONARY_BIN_FILE, originalModule, dictionary );
+        SerializationDictionary other = SerializationDictionary.build( Collections.singletonList( "another rule set" ), 1 );
+        try {
+            deserializeKiePackages( KPACKAGE_DICTIONARY_BIN_FILE, originalKieBase.getRootClassLoader(), other );
+            fail( "read with the wrong dictionary" );
+        }
+        catch ( IOException e ) {
+            assertTrue( e.getMessage().contains( dictionary.getId() ) );
+        }
+    }
+}
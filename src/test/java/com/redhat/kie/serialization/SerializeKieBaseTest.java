@@ -4,8 +4,11 @@ import static com.redhat.kie.serialization.util.Utils.createKieModule;
 import static com.redhat.kie.serialization.util.Utils.deserializeKieBase;
 import static com.redhat.kie.serialization.util.Utils.serializeKieBase;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -13,12 +16,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
 import org.junit.Before;
 import org.junit.Test;
 import org.kie.api.KieBase;
 import org.kie.api.runtime.KieSession;
 
 import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BinaryImageFormat;
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.BinaryImageFormat.ImageHeader;
 
 /**
  * 
@@ -76,4 +83,62 @@ public class SerializeKieBaseTest {
         assertEquals( 2, count );
 
     }
-}
\ No newline at end of file
+
+    /**
+     * The framed image can be checked without deserializing it and loads with every codec
+     */
+    @Test
+    public void serializeKieBaseAsFramedImage() throws Exception {
+        List<Map<String,String>> resources = new ArrayList<Map<String,String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
+        MemoryKieModule kmodule = createKieModule( resources );
+
+        for ( Codec codec : Codec.values() ) {
+            serializeKieBase( KBASE_BIN_FILE, kmodule, codec );
+
+            ImageHeader header = BinaryImageFormat.readHeader( new File( KBASE_BIN_FILE ) );
+            assertEquals( codec, header.getCodec() );
+            assertEquals( kmodule.getReleaseId().toExternalForm(), header.getReleaseId() );
+            assertTrue( BinaryImageFormat.verify( new File( KBASE_BIN_FILE ) ) );
+
+            KieBase kbase = deserializeKieBase( KBASE_BIN_FILE );
+            KieSession session = kbase.newKieSession();
+            assertEquals( 2, session.fireAllRules() );
+            session.dispose();
+        }
+    }
+
+    /**
+     * A damaged payload is detected from the checksum
+     */
+    @Test
+    public void corruptedFramedImageFailsVerification() throws Exception {
+        List<Map<String,String>> resources = new ArrayList<Map<String,String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
+        serializeKieBase( KBASE_BIN_FILE, createKieModule( resources ), Codec.DEFLATE );
+
+        byte[] image = Files.readAllBytes( Paths.get( KBASE_BIN_FILE ) );
+        image[image.length - 10] ^= 0xFF;
+        Files.write( Paths.get( KBASE_BIN_FILE ), image );
+
+        assertFalse( BinaryImageFormat.verify( new File( KBASE_BIN_FILE ) ) );
+    }
+
+    /**
+     * An unknown codec in the header is reported as an IOException
+     */
+    @Test( expected = IOException.class )
+    public void unknownCodecFailsReadingHeader() throws Exception {
+        List<Map<String,String>> resources = new ArrayList<Map<String,String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
+        serializeKieBase( KBASE_BIN_FILE, createKieModule( resources ), Codec.NONE );
+
+        ImageHeader header = BinaryImageFormat.readHeader( new File( KBASE_BIN_FILE ) );
+        byte[] image = Files.readAllBytes( Paths.get( KBASE_BIN_FILE ) );
+        // magic, format version, then the two UTF strings
+        image[4 + 2 + 2 + header.getDroolsVersion().length() + 2 + header.getReleaseId().length()] = 42;
+        Files.write( Paths.get( KBASE_BIN_FILE ), image );
+
+        BinaryImageFormat.readHeader( new File( KBASE_BIN_FILE ) );
+    }
+}
@@ -2,6 +2,7 @@ package com.redhat.kie.serialization;
 
 import static com.redhat.kie.serialization.util.Utils.createKieModule;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -9,6 +10,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,7 +26,14 @@ import org.kie.api.runtime.KieContainer;
 import org.kie.api.runtime.KieSession;
 
 import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BinaryImageFormat.Codec;
 import com.redhat.util.BinaryKModuleExternalizer;
+import com.redhat.util.BinaryKModuleExternalizer.ConversionReport;
+import com.redhat.util.MappedImage;
+import com.redhat.util.StartupProfiler;
+import com.redhat.util.StartupProfiler.Listener;
+import com.redhat.util.StartupProfiler.Phase;
+import com.redhat.util.StartupProfiler.Sample;
 
 /**
  * 
@@ -50,28 +60,163 @@ public class SerializeKieJarTest {
      * 
      * Generate a KJar and serialize it using the code from Osamu provided on sme-brms
      * 
-     * This will fail because the declared fact type class is not found
+     * This used to fail because the declared fact type class was not found, the bytecode of TransientFact is now part
+     * of the binary file
      * 
      */
     @Test
-    public void loadKjarFromBinaryResultsInClassNotFoundExceptionForDeclaredModel() throws Exception {
-        try {
-            List<Map<String,String>> resources = new ArrayList<Map<String,String>>();
-            resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
-            createKJar( KJAR_NAME, createKieModule( resources ) );
-            convertKjarToBin();
-            
-            KieContainer container = BinaryKModuleExternalizer.getKieContainer( new File( Utils.TARGET_DIR + File.separator + KJAR_NAME + ".bin" ) );
+    public void loadKjarFromBinaryRestoresDeclaredModel() throws Exception {
+        List<Map<String,String>> resources = new ArrayList<Map<String,String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
+        createKJar( KJAR_NAME, createKieModule( resources ) );
+        convertKjarToBin();
+
+        KieContainer container = BinaryKModuleExternalizer.getKieContainer( new File( Utils.TARGET_DIR + File.separator + KJAR_NAME + ".bin" ) );
+        KieSession session = container.newKieSession( "ksession" );
+
+        int fired = session.fireAllRules();
+        session.dispose();
+
+        assertEquals( 2, fired );
+    }
+
+    /**
+     * 
+     * Same as above without the KieBuilder, the declared fact type is defined from the binary file only
+     * 
+     */
+    @Test
+    public void restoreKjarFromBinaryWithDeclaredModelInSeparatePackage() throws Exception {
+        List<Map<String,String>> resources = new ArrayList<Map<String,String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesOnly.drl" ); } } );
+        createKJar( KJAR_NAME, createKieModule( resources ) );
+        convertKjarToBin();
+
+        KieContainer container = BinaryKModuleExternalizer.restoreKieContainer( new File( Utils.TARGET_DIR + File.separator + KJAR_NAME + ".bin" ) );
+        KieSession session = container.newKieSession( "ksession" );
+
+        int fired = session.fireAllRules();
+        session.dispose();
+
+        assertEquals( 2, fired );
+        assertTrue( container.getKieBase().getFactType( "com.redhat.rules.generated.facts", "TransientFact" ) != null );
+    }
+
+    /**
+     * 
+     * Several containers restored from one memory mapped image share the mapping
+     * 
+     */
+    @Test
+    public void restoreKjarTwiceFromMappedBinary() throws Exception {
+        List<Map<String,String>> resources = new ArrayList<Map<String,String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
+        createKJar( KJAR_NAME, createKieModule( resources ) );
+        convertKjarToBin();
+
+        File binKjar = new File( Utils.TARGET_DIR + File.separator + KJAR_NAME + ".bin" );
+        MappedImage image = MappedImage.open( binKjar );
+        assertSame( image, MappedImage.open( binKjar ) );
+
+        for ( int i = 0; i < 2; i++ ) {
+            KieContainer container = BinaryKModuleExternalizer.restoreKieContainer( image, null );
             KieSession session = container.newKieSession( "ksession" );
-            
-            session.fireAllRules();
+            assertEquals( 2, session.fireAllRules() );
             session.dispose();
         }
-        catch ( RuntimeException re ) {
-            System.err.println( "Runtime exception throw for error " + re.getCause() );
-            assertTrue( re.getCause() instanceof ClassNotFoundException );
-            assertTrue( re.getCause().getMessage().contains( "TransientFact" ) ); // Declared fact type is not found
+        MappedImage.release( binKjar );
+    }
+
+    /**
+     * 
+     * The KJAR is converted without adding it to the KieRepository, one KieBase at a time
+     * 
+     */
+    @Test
+    public void convertKjarOneKieBaseAtATime() throws Exception {
+        List<Map<String,String>> resources = new ArrayList<Map<String,String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesOnly.drl" ); } } );
+        createKJar( KJAR_NAME, createKieModule( resources ) );
+
+        File kjar = new File( Utils.TARGET_DIR + File.separator + KJAR_NAME + ".jar" );
+        File binKjar = new File( Utils.TARGET_DIR + File.separator + KJAR_NAME + ".bin" );
+        ConversionReport report = BinaryKModuleExternalizer.kjarToBinary( kjar, binKjar, Codec.DEFLATE );
+        assertEquals( 1, report.getKieBases() );
+        assertEquals( binKjar.length(), report.getImageBytes() );
+
+        KieContainer container = BinaryKModuleExternalizer.restoreKieContainer( binKjar );
+        KieSession session = container.newKieSession( "ksession" );
+        assertEquals( 2, session.fireAllRules() );
+        session.dispose();
+    }
+
+    /**
+     * 
+     * With the startup profiler enabled, each phase of loading the binary file is reported to the listeners
+     * 
+     */
+    @Test
+    public void profileStartupFromBinary() throws Exception {
+        List<Map<String,String>> resources = new ArrayList<Map<String,String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
+        createKJar( KJAR_NAME, createKieModule( resources ) );
+        convertKjarToBin();
+
+        StartupProfiler profiler = StartupProfiler.getInstance();
+        Map<Phase, Sample> samples = new EnumMap<Phase, Sample>( Phase.class );
+        Listener listener = sample -> samples.put( sample.getPhase(), sample );
+        profiler.reset();
+        profiler.setEnabled( true );
+        profiler.addListener( listener );
+        try {
+            BinaryKModuleExternalizer.getKieContainer( new File( Utils.TARGET_DIR + File.separator + KJAR_NAME + ".bin" ) );
+        }
+        finally {
+            profiler.removeListener( listener );
+            profiler.setEnabled( false );
         }
+
+        assertEquals( EnumSet.of( Phase.READ_IMAGE, Phase.RESOLVE_CLASSES, Phase.BUILD_CONTAINER, Phase.READ_PACKAGES, Phase.ADD_PACKAGES ), samples.keySet() );
+        assertTrue( samples.get( Phase.READ_IMAGE ).getBytes() > 0 );
+        assertTrue( samples.get( Phase.READ_PACKAGES ).getObjects() > 0 );
+        assertEquals( "kbase", samples.get( Phase.ADD_PACKAGES ).getDetail() );
+        assertTrue( profiler.getReport().contains( Phase.ADD_PACKAGES.name() ) );
+    }
+
+    /**
+     * The first KieSession of each KieBase of a restored container is recorded, the next ones are not
+     */
+    @Test
+    public void profileFirstSessionOfRestoredContainer() throws Exception {
+        List<Map<String,String>> resources = new ArrayList<Map<String,String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
+        createKJar( KJAR_NAME, createKieModule( resources ) );
+        convertKjarToBin();
+
+        StartupProfiler profiler = StartupProfiler.getInstance();
+        List<Sample> firstSessions = new ArrayList<Sample>();
+        Listener listener = sample -> {
+            if ( sample.getPhase() == Phase.FIRST_SESSION ) {
+                firstSessions.add( sample );
+            }
+        };
+        profiler.reset();
+        profiler.setEnabled( true );
+        profiler.addListener( listener );
+        try {
+            KieContainer kContainer = BinaryKModuleExternalizer.restoreKieContainer( new File( Utils.TARGET_DIR + File.separator + KJAR_NAME + ".bin" ) );
+            kContainer.newKieSession( "ksession" ).dispose();
+            kContainer.newKieSession( "ksession" ).dispose();
+        }
+        finally {
+            profiler.removeListener( listener );
+            profiler.setEnabled( false );
+        }
+
+        assertEquals( 1, firstSessions.size() );
+        assertEquals( "kbase", firstSessions.get( 0 ).getDetail() );
     }
 
     /**
@@ -0,0 +1,155 @@
+package com.redhat.kie.serialization;
+
+import static com.redhat.kie.serialization.util.Utils.createKieModule;
+import static com.redhat.kie.serialization.util.Utils.deserializeKieBase;
+import static com.redhat.kie.serialization.util.Utils.serializeKieBase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.KieBase;
+import org.kie.api.runtime.ClassObjectFilter;
+import org.kie.api.runtime.KieSession;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.model.AggregateFactD;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.CompositeFactC;
+import com.redhat.model.GlobalFunctions;
+import com.redhat.util.KieSessionSnapshots;
+import com.redhat.util.RuleEvalCounter;
+import com.redhat.util.SessionJournal;
+
+/**
+ *
+ * The working memory built up by the rules survives a restart, a session restored from a snapshot continues where the
+ * original one stopped
+ *
+ */
+@SuppressWarnings( "serial" )
+public class SerializeKieSessionTest {
+
+    private static final String KBASE_BIN_FILE = Utils.TARGET_DIR + File.separator + "kbase-session.bin";
+    private static final String KSESSION_BIN_FILE = Utils.TARGET_DIR + File.separator + "ksession.bin";
+    private static final String KSESSION_JOURNAL_DIR = Utils.TARGET_DIR + File.separator + "ksession-journal";
+
+    @Before
+    public void setup() throws Exception {
+        Files.deleteIfExists( Paths.get( KBASE_BIN_FILE ) );
+        Files.deleteIfExists( Paths.get( KSESSION_BIN_FILE ) );
+        File[] journalFiles = new File( KSESSION_JOURNAL_DIR ).listFiles();
+        if ( journalFiles != null ) {
+            for ( File journalFile : journalFiles ) {
+                Files.delete( journalFile.toPath() );
+            }
+        }
+
+        List<Map<String, String>> resources = new ArrayList<Map<String, String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesOnly.drl" ); } } );
+        serializeKieBase( KBASE_BIN_FILE, createKieModule( resources ) );
+    }
+
+    @Test
+    public void restoreSessionFromSnapshot() throws Exception {
+        KieBase kbase = deserializeKieBase( KBASE_BIN_FILE );
+        KieSession session = kbase.newKieSession();
+        GlobalFunctions functions = new GlobalFunctions();
+        session.setGlobal( "functions", functions );
+        RuleEvalCounter.attach( session, functions );
+
+        BasicFactA factA = new BasicFactA( 1, "snapshot" );
+        BasicFactB factB = new BasicFactB( 1, "snapshot", 1.0 );
+        session.insert( factA );
+        session.insert( factB );
+        session.insert( new CompositeFactC( 1, factA, factB ) );
+        int fired = session.fireAllRules();
+
+        KieSessionSnapshots.snapshot( session, new File( KSESSION_BIN_FILE ) );
+
+        // restore into another copy of the kie base, as after a restart
+        KieSession restored = KieSessionSnapshots.restore( deserializeKieBase( KBASE_BIN_FILE ), new File( KSESSION_BIN_FILE ) );
+        assertEquals( session.getFactCount(), restored.getFactCount() );
+        assertEquals( functions.getEvals(), ( (GlobalFunctions) restored.getGlobal( "functions" ) ).getEvals() );
+        assertEquals( functions.getEvalsByRule(), ( (GlobalFunctions) restored.getGlobal( "functions" ) ).getEvalsByRule() );
+        assertTrue( functions.getEvals( "Debug Rule 4" ) > 0 );
+        // the rules without an eval are not counted
+        assertEquals( 0, functions.getEvals( "Debug Rule 3" ) );
+
+        // the composite fact accumulated by Debug Rule 3 is the same object as the composite fact in working memory
+        AggregateFactD aggregate = (AggregateFactD) restored.getObjects( new ClassObjectFilter( AggregateFactD.class ) ).iterator().next();
+        CompositeFactC factC = (CompositeFactC) restored.getObjects( new ClassObjectFilter( CompositeFactC.class ) ).iterator().next();
+        assertEquals( 1, aggregate.getFacts().size() );
+        assertSame( factC, aggregate.getFacts().iterator().next() );
+
+        // nothing left to fire, and the restored session still reacts to new facts like the original one
+        assertEquals( 0, restored.fireAllRules() );
+        BasicFactA newFactA = new BasicFactA( 2, "snapshot" );
+        BasicFactB newFactB = new BasicFactB( 2, "snapshot", 2.0 );
+        restored.insert( newFactA );
+        restored.insert( newFactB );
+        restored.insert( new CompositeFactC( 2, newFactA, newFactB ) );
+        assertEquals( fired - 2, restored.fireAllRules() );
+    }
+
+    @Test( expected = IOException.class )
+    public void rejectSnapshotOfAnotherLayout() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( KieSessionSnapshots.MAGIC );
+        out.writeShort( KieSessionSnapshots.LAYOUT_VERSION + 1 );
+        out.writeInt( 0 );
+        KieSessionSnapshots.restore( deserializeKieBase( KBASE_BIN_FILE ), new ByteArrayInputStream( bytes.toByteArray() ) );
+    }
+
+    /**
+     * Only the changes since the last snapshot are written, restoring replays them on top of the snapshot
+     */
+    @Test
+    public void restoreSessionFromJournal() throws Exception {
+        KieSession session = deserializeKieBase( KBASE_BIN_FILE ).newKieSession();
+        session.setGlobal( "functions", new GlobalFunctions() );
+        SessionJournal journal = SessionJournal.attach( session, new File( KSESSION_JOURNAL_DIR ) );
+
+        BasicFactA factA = new BasicFactA( 1, "journal" );
+        BasicFactB factB = new BasicFactB( 1, "journal", 1.0 );
+        CompositeFactC factC = new CompositeFactC( 1, factA, factB );
+        session.insert( factA );
+        session.insert( factB );
+        session.insert( factC );
+        session.fireAllRules();
+        journal.checkpoint();
+        assertTrue( journal.getJournalSize() > 0 );
+        journal.close();
+
+        SessionJournal restoredJournal = SessionJournal.restore( deserializeKieBase( KBASE_BIN_FILE ), new File( KSESSION_JOURNAL_DIR ) );
+        KieSession restored = restoredJournal.getSession();
+        assertEquals( session.getFactCount(), restored.getFactCount() );
+
+        // the modify calls of Debug Rule 4 and 5 were replayed on the composite fact held by the aggregate
+        AggregateFactD aggregate = (AggregateFactD) restored.getObjects( new ClassObjectFilter( AggregateFactD.class ) ).iterator().next();
+        CompositeFactC restoredFactC = (CompositeFactC) restored.getObjects( new ClassObjectFilter( CompositeFactC.class ) ).iterator().next();
+        assertSame( restoredFactC, aggregate.getFacts().iterator().next() );
+        assertEquals( factC.getFactA(), restoredFactC.getFactA() );
+        assertEquals( factC.getFactB(), restoredFactC.getFactB() );
+
+        // restoring compacted the journal into a new snapshot
+        assertEquals( 0, restoredJournal.getJournalSize() );
+        restoredJournal.close();
+    }
+}
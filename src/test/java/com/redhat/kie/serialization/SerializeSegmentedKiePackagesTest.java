@@ -0,0 +1,79 @@
+package com.redhat.kie.serialization;
+
+import static com.redhat.kie.serialization.util.Utils.createKieModule;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.drools.core.impl.KnowledgeBaseImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.KieBase;
+import org.kie.api.runtime.KieSession;
+import org.kie.internal.KnowledgeBaseFactory;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.SegmentedPackageImage;
+
+/**
+ * 
+ * Each package is a separate segment of the image, only the packages that are asked for and their dependencies are
+ * deserialized
+ *
+ */
+@SuppressWarnings( "serial" )
+public class SerializeSegmentedKiePackagesTest {
+
+    private static final String SEGMENTED_BIN_FILE = Utils.TARGET_DIR + File.separator + "kpackages-segmented.bin";
+
+    @Before
+    public void setup() throws Exception {
+        Files.deleteIfExists( Paths.get( SEGMENTED_BIN_FILE ) );
+
+        List<Map<String, String>> resources = new ArrayList<Map<String, String>>();
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules.generated.facts" ); put( "filename", "DeclaredFact.drl" ); } } );
+        resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesOnly.drl" ); } } );
+        KieBase kbase = Utils.KIE_SERVICES.newKieContainer( createKieModule( resources ).getReleaseId() ).getKieBase();
+        SegmentedPackageImage.write( new File( SEGMENTED_BIN_FILE ), kbase.getKiePackages() );
+    }
+
+    /**
+     * Asking for the rules package loads the declared fact package first
+     */
+    @Test
+    public void loadRulesPackageWithItsDeclaredTypes() throws Exception {
+        try ( SegmentedPackageImage.Reader reader = SegmentedPackageImage.open( new File( SEGMENTED_BIN_FILE ) ) ) {
+            assertEquals( Arrays.asList( "com.redhat.rules.generated.facts", "com.redhat.rules" ), reader.resolve( Collections.singleton( "com.redhat.rules" ) ) );
+
+            KnowledgeBaseImpl kbase = (KnowledgeBaseImpl) KnowledgeBaseFactory.newKnowledgeBase();
+            reader.loadInto( kbase, Collections.singleton( "com.redhat.rules" ) );
+
+            KieSession session = kbase.newKieSession();
+            assertEquals( 2, session.fireAllRules() );
+            session.dispose();
+        }
+    }
+
+    /**
+     * Packages that are not needed are never read
+     */
+    @Test
+    public void loadOnlyTheDeclaredFactPackage() throws Exception {
+        try ( SegmentedPackageImage.Reader reader = SegmentedPackageImage.open( new File( SEGMENTED_BIN_FILE ) ) ) {
+            KnowledgeBaseImpl kbase = (KnowledgeBaseImpl) KnowledgeBaseFactory.newKnowledgeBase();
+            List<String> loaded = reader.loadInto( kbase, Collections.singleton( "com.redhat.rules.generated.facts" ) );
+
+            assertEquals( Collections.singletonList( "com.redhat.rules.generated.facts" ), loaded );
+            assertNull( kbase.getPackage( "com.redhat.rules" ) );
+        }
+    }
+}
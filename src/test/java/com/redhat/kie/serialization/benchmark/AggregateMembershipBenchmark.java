@@ -0,0 +1,89 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.kie.api.KieBase;
+import org.kie.api.runtime.KieSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.model.AggregateFactD;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.CompositeFactC;
+
+/**
+ *
+ * The membership check of "Debug Rule 3", facts not contains $factC, as the number of CompositeFactC grows. "indexed"
+ * collects into AggregateFactD, "list" into LegacyAggregateFactD, the ArrayList it used to be.<BR>
+ * ※ every modify of the aggregate re-evaluates the check for all the composite facts, so the number of checks grows
+ * quadratically with either collection, only the cost of one check differs
+ *
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class AggregateMembershipBenchmark {
+
+    @Param( { "1000", "5000", "20000" } )
+    public int factCount;
+
+    @Param( { "indexed", "list" } )
+    public String aggregate;
+
+    private KieBase kBase;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        String type = "indexed".equals( aggregate ) ? AggregateFactD.class.getName() : LegacyAggregateFactD.class.getName();
+        MemoryKieModule kModule = Utils.createKieModule( BenchmarkRuleSets.SYNTHETIC_PACKAGE, generateDrl( type ) );
+        kBase = Utils.KIE_SERVICES.newKieContainer( kModule.getReleaseId() ).getKieBase();
+    }
+
+    @Benchmark
+    public int collect() {
+        KieSession session = kBase.newKieSession();
+        try {
+            session.insert( "indexed".equals( aggregate ) ? new AggregateFactD() : new LegacyAggregateFactD() );
+            for ( int i = 0; i < factCount; i++ ) {
+                session.insert( new CompositeFactC( i, new BasicFactA( i, "aggregate" ), new BasicFactB( i, "aggregate", i ) ) );
+            }
+            return session.fireAllRules();
+        }
+        finally {
+            session.dispose();
+        }
+    }
+
+    private static String generateDrl( String aggregateType ) {
+        StringBuilder drl = new StringBuilder();
+        drl.append( "package " ).append( BenchmarkRuleSets.SYNTHETIC_PACKAGE ).append( ";\n\n" );
+        drl.append( "import com.redhat.model.CompositeFactC;\n" );
+        drl.append( "import " ).append( aggregateType ).append( ";\n\n" );
+        drl.append( "rule \"Collect Composite Facts\"\n" );
+        drl.append( "\twhen\n" );
+        drl.append( "\t\t$factC : CompositeFactC()\n" );
+        drl.append( "\t\t$aggregate : " ).append( aggregateType.substring( aggregateType.lastIndexOf( '.' ) + 1 ) ).append( "( facts not contains $factC )\n" );
+        drl.append( "\tthen\n" );
+        drl.append( "\t\tmodify( $aggregate ) {\n" );
+        drl.append( "\t\t\taddFact( $factC )\n" );
+        drl.append( "\t\t};\n" );
+        drl.append( "end\n\n" );
+        return drl.toString();
+    }
+}
@@ -0,0 +1,87 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BatchImageCompiler;
+import com.redhat.util.BatchImageCompiler.BatchReport;
+import com.redhat.util.BinaryImageFormat.Codec;
+
+/**
+ *
+ * Compiling a directory of generated DRL sets with BatchImageCompiler on more and more workers. The throughput of
+ * each batch, in modules per minute, is printed.
+ *
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 1 )
+@Measurement( iterations = 3 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class BatchCompilerBenchmark {
+
+    @Param( { "1", "2", "4", "8" } )
+    public int workers;
+
+    @Param( { "32" } )
+    public int modules;
+
+    @Param( { "200" } )
+    public int rulesPerModule;
+
+    private File inputDir;
+    private File outputDir;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        inputDir = new File( Utils.TARGET_DIR, "batch-benchmark-input" );
+        outputDir = new File( Utils.TARGET_DIR, "batch-benchmark-output" );
+        String drl = BenchmarkRuleSets.generateDrl( rulesPerModule );
+        for ( int i = 0; i < modules; i++ ) {
+            File drlSet = new File( inputDir, "tenant-" + i );
+            Files.createDirectories( drlSet.toPath() );
+            Files.write( new File( drlSet, "generated.drl" ).toPath(), drl.getBytes( "UTF-8" ) );
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        delete( inputDir );
+        delete( outputDir );
+    }
+
+    @Benchmark
+    public int compile() throws Exception {
+        BatchReport report = new BatchImageCompiler( workers, Codec.NONE ).compile( inputDir, outputDir );
+        System.out.println( report );
+        return report.getModules();
+    }
+
+    private static void delete( File dir ) throws Exception {
+        if ( dir.exists() ) {
+            try ( Stream<Path> files = Files.walk( dir.toPath() ) ) {
+                files.sorted( Comparator.reverseOrder() ).forEach( file -> file.toFile().delete() );
+            }
+        }
+    }
+}
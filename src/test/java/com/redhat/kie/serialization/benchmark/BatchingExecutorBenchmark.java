@@ -0,0 +1,84 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.kie.api.KieBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.GlobalFunctions;
+import com.redhat.util.BatchingKieExecutor;
+import com.redhat.util.KieSessionPool;
+
+/**
+ *
+ * Requests of a BasicFactA and a BasicFactB joined by the synthetic rules, sent by 32 client threads to a
+ * BatchingKieExecutor. The throughput and the latency percentiles of SampleTime are reported per batch size, a batch
+ * size of 2 is one request per batch, i.e. inserting and firing per request.
+ *
+ */
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@Threads( 32 )
+@State( Scope.Benchmark )
+public class BatchingExecutorBenchmark {
+
+    @Param( { "2", "16", "64", "256" } )
+    public int maxBatchSize;
+
+    private File kBaseImage;
+    private KieSessionPool pool;
+    private BatchingKieExecutor executor;
+    private final AtomicInteger ids = new AtomicInteger();
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        Files.createDirectories( new File( Utils.TARGET_DIR ).toPath() );
+        kBaseImage = new File( Utils.TARGET_DIR, "batch-kbase.bin" );
+        Utils.serializeKieBase( kBaseImage.getPath(), BenchmarkRuleSets.createKieModule( "100" ) );
+        KieBase kBase = Utils.deserializeKieBase( kBaseImage.getPath() );
+
+        int workers = Runtime.getRuntime().availableProcessors();
+        pool = new KieSessionPool( kBase, workers, session -> session.setGlobal( "functions", new GlobalFunctions() ) );
+        executor = new BatchingKieExecutor( pool, workers, maxBatchSize, 1, TimeUnit.MILLISECONDS );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        executor.close();
+        pool.close();
+        System.out.println( "Batch size " + maxBatchSize + " : " + executor.getBatches() + " batches of " + executor.getAverageBatchSize() + " facts on average" );
+        Files.deleteIfExists( kBaseImage.toPath() );
+    }
+
+    @Benchmark
+    public Object request() throws Exception {
+        // the synthetic rules join facts with the same number, one per rule, and the same string, unique per request,
+        // so the facts of two requests of a batch never join
+        int request = ids.getAndIncrement();
+        int id = request % 100;
+        String str = "batch-" + request;
+        return executor.submit( new BasicFactA( id, str ), new BasicFactB( id, str, id ) ).get();
+    }
+}
@@ -0,0 +1,77 @@
+package com.redhat.kie.serialization.benchmark;
+
+import static com.redhat.kie.serialization.util.Utils.createKieModule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.kie.api.runtime.KieSession;
+
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.CompositeFactC;
+import com.redhat.model.GlobalFunctions;
+
+/**
+ * 
+ * Rule sets shared by the benchmarks. The rule set parameter is either "drl", for the rules in com.redhat.rules,
+ * or the number of rules to generate synthetically.
+ *
+ */
+@SuppressWarnings( "serial" )
+public class BenchmarkRuleSets {
+
+    public static final String DRL = "drl";
+    public static final String SYNTHETIC_PACKAGE = "com.redhat.rules.synthetic";
+
+    public static MemoryKieModule createKieModule( String ruleSet ) throws Exception {
+        if ( DRL.equals( ruleSet ) ) {
+            List<Map<String, String>> resources = new ArrayList<Map<String, String>>();
+            resources.add( new HashMap<String, String>() { { put( "package", "com.redhat.rules" ); put( "filename", "RulesAndDeclaredFact.drl" ); } } );
+            return createKieModule( resources );
+        }
+        return createKieModule( SYNTHETIC_PACKAGE, generateDrl( Integer.parseInt( ruleSet ) ) );
+    }
+
+    /**
+     * Generates a rule set where rule N joins the BasicFactA and BasicFactB with number N into a CompositeFactC
+     */
+    public static String generateDrl( int ruleCount ) {
+        StringBuilder drl = new StringBuilder();
+        drl.append( "package " ).append( SYNTHETIC_PACKAGE ).append( ";\n\n" );
+        drl.append( "import com.redhat.model.BasicFactA;\n" );
+        drl.append( "import com.redhat.model.BasicFactB;\n" );
+        drl.append( "import com.redhat.model.CompositeFactC;\n\n" );
+        drl.append( "global com.redhat.model.GlobalFunctions functions;\n\n" );
+        for ( int i = 0; i < ruleCount; i++ ) {
+            drl.append( "rule \"Synthetic Rule " ).append( i ).append( "\"\n" );
+            drl.append( "\twhen\n" );
+            drl.append( "\t\t$factA : BasicFactA( num == " ).append( i ).append( " )\n" );
+            drl.append( "\t\t$factB : BasicFactB( id == " ).append( i ).append( ", str == $factA.str )\n" );
+            drl.append( "\tthen\n" );
+            drl.append( "\t\tinsert( new CompositeFactC( " ).append( i ).append( ", $factA, $factB ) );\n" );
+            drl.append( "end\n\n" );
+        }
+        return drl.toString();
+    }
+
+    /**
+     * Inserts a small working set that makes a handful of rules of the given rule set fire
+     */
+    public static void insertFacts( KieSession session, String ruleSet ) {
+        session.setGlobal( "functions", new GlobalFunctions() );
+        int count = DRL.equals( ruleSet ) ? 1 : Math.min( 10, Integer.parseInt( ruleSet ) );
+        for ( int i = 0; i < count; i++ ) {
+            BasicFactA factA = new BasicFactA( i, "benchmark" );
+            BasicFactB factB = new BasicFactB( i, "benchmark", i );
+            session.insert( factA );
+            session.insert( factB );
+            if ( DRL.equals( ruleSet ) ) {
+                session.insert( new CompositeFactC( i, factA, factB ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.core.common.DroolsObjectInputStream;
+import org.kie.api.KieBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.CachingObjectInputStream;
+
+/**
+ *
+ * Repeated loads of the KiePackages of a tenant with the class loader of its KieBase, as a tenant reload does, with a
+ * plain DroolsObjectInputStream and with a CachingObjectInputStream. The lookups answered by the cache are printed
+ * when the trial ends.
+ *
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ClassResolutionBenchmark {
+
+    @Param( { BenchmarkRuleSets.DRL, "1000" } )
+    public String ruleSet;
+
+    @Param( { "false", "true" } )
+    public boolean cached;
+
+    private File image;
+    private ClassLoader classLoader;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        Files.createDirectories( new File( Utils.TARGET_DIR ).toPath() );
+        image = new File( Utils.TARGET_DIR, "resolution-" + ruleSet + ".bin" );
+        KieBase kBase = Utils.KIE_SERVICES.newKieContainer( BenchmarkRuleSets.createKieModule( ruleSet ).getReleaseId() ).getKieBase();
+        Utils.serializeKiePackages( image.getPath(), BenchmarkRuleSets.createKieModule( ruleSet ) );
+        classLoader = kBase.getRootClassLoader();
+        CachingObjectInputStream.invalidateAll();
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        System.out.println( "class lookups from the cache : " + CachingObjectInputStream.getHits() + ", from the class loader : " + CachingObjectInputStream.getMisses() );
+        Files.deleteIfExists( image.toPath() );
+    }
+
+    @Benchmark
+    public int load() throws Exception {
+        BufferedInputStream in = new BufferedInputStream( new FileInputStream( image ) );
+        try ( ObjectInputStream objects = cached ? new CachingObjectInputStream( in, classLoader ) : new DroolsObjectInputStream( in, classLoader ) ) {
+            return ( (Collection<?>) objects.readObject() ).size();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BinaryKModuleExternalizer;
+
+/**
+ * 
+ * Cold start latency of a BinKieModule image: the first container load in a fresh JVM, up to a usable KieSession.
+ * 
+ * BUILD_ALL is the getKieContainer path that runs the KieBuilder on empty resources, RESTORE is restoreKieContainer
+ * which creates the KieBases directly. The image is written by the first fork only, so the later forks start without
+ * any Drools class loaded.
+ *
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 0 )
+@Measurement( iterations = 1 )
+@Fork( 10 )
+@State( Scope.Benchmark )
+public class ColdStartBenchmark {
+
+    public enum Restore {
+        BUILD_ALL, RESTORE
+    }
+
+    @Param( { "10", "1000" } )
+    public String ruleSet;
+
+    @Param
+    public Restore restore;
+
+    private File image;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        image = new File( Utils.TARGET_DIR, "coldstart-" + ruleSet + ".bin" );
+        // written every trial, an image left by an earlier build may have another layout
+        Files.createDirectories( image.getParentFile().toPath() );
+        BinaryKModuleExternalizer.kieModuleToBinary( BenchmarkRuleSets.createKieModule( ruleSet ), image );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        Files.deleteIfExists( image.toPath() );
+    }
+
+    @Benchmark
+    public KieSession coldStart() throws Exception {
+        KieContainer kContainer = restore == Restore.RESTORE ? BinaryKModuleExternalizer.restoreKieContainer( image ) : BinaryKModuleExternalizer.getKieContainer( image );
+        KieSession session = kContainer.newKieSession();
+        session.dispose();
+        return session;
+    }
+}
@@ -0,0 +1,138 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.KieModule;
+import org.kie.api.builder.Message;
+import org.kie.api.builder.model.KieModuleModel;
+import org.kie.api.builder.model.KieSessionModel.KieSessionType;
+import org.kie.api.runtime.KieContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.BinaryKModuleExternalizer;
+import com.redhat.util.DependencyImages;
+
+/**
+ *
+ * Restoring many modules that include the KieBase of one generated rules KJAR. "shared" stores the KJAR once as a
+ * dependency image, "embedded" copies it into the image of every module. The total size of the images on disk is
+ * printed once per trial.
+ *
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 1 )
+@Measurement( iterations = 3 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class DependencyImagesBenchmark {
+
+    @Param( { "50" } )
+    public int modules;
+
+    @Param( { "500" } )
+    public int sharedRules;
+
+    @Param( { "shared", "embedded" } )
+    public String dependencies;
+
+    private File imageDir;
+    private DependencyImages dependencyImages;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        imageDir = new File( Utils.TARGET_DIR, "dependency-benchmark-" + dependencies );
+        delete( imageDir );
+        Files.createDirectories( imageDir.toPath() );
+        dependencyImages = DependencyImages.forDirectory( imageDir );
+
+        KieServices ks = Utils.KIE_SERVICES;
+        KieModule sharedModule = createSharedModule( ks );
+        for ( int i = 0; i < modules; i++ ) {
+            KieModuleModel kModuleModel = ks.newKieModuleModel();
+            kModuleModel.newKieBaseModel( "kbase" ).setDefault( true ).addInclude( "sharedKBase" ).newKieSessionModel( "ksession" ).setType( KieSessionType.STATEFUL )
+                    .setDefault( true );
+            KieFileSystem kfs = ks.newKieFileSystem();
+            kfs.writeKModuleXML( kModuleModel.toXML() );
+            kfs.generateAndWritePomXML( ks.newReleaseId( "com.redhat.rules", "tenant-" + i, "0.0.1-SNAPSHOT" ) );
+            KieModule kModule = build( ks.newKieBuilder( kfs ).setDependencies( sharedModule ) );
+
+            File image = new File( imageDir, "tenant-" + i + ".bin" );
+            if ( "shared".equals( dependencies ) ) {
+                BinaryKModuleExternalizer.kieModuleToBinary( kModule, image, Codec.NONE, dependencyImages );
+            } else {
+                BinaryKModuleExternalizer.kieModuleToBinary( kModule, image, Codec.NONE );
+            }
+            ks.getRepository().removeKieModule( kModule.getReleaseId() );
+        }
+        try ( Stream<Path> files = Files.list( imageDir.toPath() ) ) {
+            System.out.println( dependencies + " dependencies : " + modules + " modules, " + files.mapToLong( file -> file.toFile().length() ).sum() + " bytes of images" );
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        delete( imageDir );
+    }
+
+    @Benchmark
+    public int restoreAll() throws Exception {
+        // every iteration reads the dependency again
+        dependencyImages.clear();
+        int kBases = 0;
+        for ( int i = 0; i < modules; i++ ) {
+            KieContainer container = BinaryKModuleExternalizer.restoreKieContainer( new File( imageDir, "tenant-" + i + ".bin" ) );
+            kBases += container.getKieBaseNames().size();
+            container.dispose();
+        }
+        return kBases;
+    }
+
+    private KieModule createSharedModule( KieServices ks ) throws Exception {
+        KieModuleModel kModuleModel = ks.newKieModuleModel();
+        kModuleModel.newKieBaseModel( "sharedKBase" ).addPackage( BenchmarkRuleSets.SYNTHETIC_PACKAGE );
+        KieFileSystem kfs = ks.newKieFileSystem();
+        kfs.writeKModuleXML( kModuleModel.toXML() );
+        kfs.generateAndWritePomXML( ks.newReleaseId( "com.redhat.rules", "shared-rules", "0.0.1-SNAPSHOT" ) );
+        kfs.write( "src/main/resources/" + BenchmarkRuleSets.SYNTHETIC_PACKAGE.replace( '.', '/' ) + "/generated.drl", BenchmarkRuleSets.generateDrl( sharedRules ) );
+        return build( ks.newKieBuilder( kfs ) );
+    }
+
+    private static KieModule build( KieBuilder kBuilder ) {
+        kBuilder.buildAll();
+        if ( kBuilder.getResults().hasMessages( Message.Level.ERROR ) ) {
+            throw new IllegalStateException( kBuilder.getResults().toString() );
+        }
+        return kBuilder.getKieModule();
+    }
+
+    private static void delete( File dir ) throws Exception {
+        if ( dir.exists() ) {
+            try ( Stream<Path> files = Files.walk( dir.toPath() ) ) {
+                files.sorted( Comparator.reverseOrder() ).forEach( file -> file.toFile().delete() );
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.drools.core.common.DroolsObjectInputStream;
+import org.kie.api.KieBase;
+import org.kie.api.definition.KiePackage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.DictionaryObjectInputStream;
+import com.redhat.util.SerializationDictionary;
+
+/**
+ *
+ * Size and deserialization time of a corpus of KiePackages images, one per tenant, written with and without a
+ * {@link SerializationDictionary} built from the whole corpus. Each tenant has a synthetic rule set of a different
+ * size. The corpus size, and the size of the dictionary, is printed when the trial starts. read deserializes every
+ * image of the corpus.
+ *
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class DictionaryEncodingBenchmark {
+
+    @Param( { "10", "50" } )
+    public int tenants;
+
+    @Param( { "false", "true" } )
+    public boolean useDictionary;
+
+    private final List<File> images = new ArrayList<File>();
+    private final List<ClassLoader> classLoaders = new ArrayList<ClassLoader>();
+    private SerializationDictionary dictionary;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        Files.createDirectories( new File( Utils.TARGET_DIR ).toPath() );
+        List<MemoryKieModule> kModules = new ArrayList<MemoryKieModule>();
+        List<Collection<KiePackage>> samples = new ArrayList<Collection<KiePackage>>();
+        for ( int i = 0; i < tenants; i++ ) {
+            MemoryKieModule kModule = Utils.createKieModule( BenchmarkRuleSets.SYNTHETIC_PACKAGE, BenchmarkRuleSets.generateDrl( 10 + i * 5 ) );
+            KieBase kBase = Utils.KIE_SERVICES.newKieContainer( kModule.getReleaseId() ).getKieBase();
+            kModules.add( kModule );
+            samples.add( kBase.getKiePackages() );
+            classLoaders.add( kBase.getRootClassLoader() );
+        }
+        // an entry shared by half of the tenants is worth a place in the dictionary
+        dictionary = useDictionary ? SerializationDictionary.build( samples, Math.max( 1, tenants / 2 ) ) : null;
+
+        long total = 0;
+        for ( int i = 0; i < tenants; i++ ) {
+            File image = new File( Utils.TARGET_DIR, "dictionary-" + useDictionary + "-" + i + ".bin" );
+            if ( useDictionary ) {
+                Utils.serializeKiePackages( image.getPath(), kModules.get( i ), dictionary );
+            } else {
+                Utils.serializeKiePackages( image.getPath(), kModules.get( i ) );
+            }
+            images.add( image );
+            total += image.length();
+        }
+        if ( useDictionary ) {
+            File dictionaryFile = new File( Utils.TARGET_DIR, "dictionary-" + tenants + ".dict" );
+            dictionary.write( dictionaryFile );
+            System.out.println( tenants + " images with dictionary : " + total + " bytes, dictionary of " + dictionary.getClassCount() + " classes and "
+                    + dictionary.getStringCount() + " strings : " + dictionaryFile.length() + " bytes" );
+            Files.deleteIfExists( dictionaryFile.toPath() );
+        } else {
+            System.out.println( tenants + " images without dictionary : " + total + " bytes" );
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        for ( File image : images ) {
+            Files.deleteIfExists( image.toPath() );
+        }
+    }
+
+    @Benchmark
+    public int read() throws Exception {
+        int packages = 0;
+        for ( int i = 0; i < images.size(); i++ ) {
+            BufferedInputStream in = new BufferedInputStream( new FileInputStream( images.get( i ) ) );
+            try ( ObjectInputStream objects = useDictionary ? new DictionaryObjectInputStream( in, classLoaders.get( i ), dictionary )
+                    : new DroolsObjectInputStream( in, classLoaders.get( i ) ) ) {
+                packages += ( (Collection<?>) objects.readObject() ).size();
+            }
+        }
+        return packages;
+    }
+}
@@ -0,0 +1,119 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.kie.api.KieBase;
+import org.kie.api.runtime.KieSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.GlobalFunctions;
+import com.redhat.util.RuleEvalCounter;
+
+/**
+ *
+ * A session of 100k facts, each one going through an eval calling the global functions. "legacy" is the
+ * GlobalFunctions as it was, building its log message at INFO and counting with a plain long, "instrumented" the
+ * current one, with the evaluations counted for each rule by a RuleEvalCounter.
+ *
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class GlobalFunctionsBenchmark {
+
+    static final int FACTS = 100000;
+
+    @Param( { "instrumented", "legacy" } )
+    public String functions;
+
+    private KieBase kBase;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        MemoryKieModule kModule = Utils.createKieModule( BenchmarkRuleSets.SYNTHETIC_PACKAGE, generateDrl() );
+        kBase = Utils.KIE_SERVICES.newKieContainer( kModule.getReleaseId() ).getKieBase();
+    }
+
+    @Benchmark
+    public long evaluate() {
+        boolean legacy = "legacy".equals( functions );
+        GlobalFunctions global = legacy ? new LegacyGlobalFunctions() : new GlobalFunctions();
+        KieSession session = kBase.newKieSession();
+        try {
+            session.setGlobal( "functions", global );
+            if ( !legacy ) {
+                RuleEvalCounter.attach( session, global );
+            }
+            for ( int i = 0; i < FACTS / 2; i++ ) {
+                session.insert( new BasicFactA( i, "eval" ) );
+                session.insert( new BasicFactB( i, "eval", i ) );
+            }
+            session.fireAllRules();
+            return global.getEvals();
+        }
+        finally {
+            session.dispose();
+        }
+    }
+
+    private static String generateDrl() {
+        StringBuilder drl = new StringBuilder();
+        drl.append( "package " ).append( BenchmarkRuleSets.SYNTHETIC_PACKAGE ).append( ";\n\n" );
+        drl.append( "import com.redhat.model.BasicFactA;\n" );
+        drl.append( "import com.redhat.model.BasicFactB;\n\n" );
+        drl.append( "global com.redhat.model.GlobalFunctions functions;\n\n" );
+        drl.append( "rule \"Eval Rule A\"\n" );
+        drl.append( "\twhen\n" );
+        drl.append( "\t\t$factA : BasicFactA()\n" );
+        drl.append( "\t\teval( functions.evaluate( $factA ) == true )\n" );
+        drl.append( "\tthen\n" );
+        drl.append( "end\n\n" );
+        drl.append( "rule \"Eval Rule B\"\n" );
+        drl.append( "\twhen\n" );
+        drl.append( "\t\t$factB : BasicFactB()\n" );
+        drl.append( "\t\teval( functions.evaluate( $factB ) == true )\n" );
+        drl.append( "\tthen\n" );
+        drl.append( "end\n\n" );
+        return drl.toString();
+    }
+
+    /**
+     * The global functions before the counters and the logging were reworked
+     */
+    static class LegacyGlobalFunctions extends GlobalFunctions {
+        private static final Logger LOG = LoggerFactory.getLogger( LegacyGlobalFunctions.class );
+        private long numEval = 0;
+
+        @Override
+        public boolean evaluate( Object o ) {
+            LOG.info( "executing global function on object " + o.toString() );
+            numEval++;
+            return o != null;
+        }
+
+        @Override
+        public long getEvals() {
+            return this.numEval;
+        }
+    }
+}
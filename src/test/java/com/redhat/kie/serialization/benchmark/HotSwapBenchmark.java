@@ -0,0 +1,105 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.core.impl.KnowledgeBaseImpl;
+import org.kie.api.definition.KiePackage;
+import org.kie.api.runtime.KieSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.KieBaseHotSwap;
+import com.redhat.util.KieBaseHotSwap.SwapReport;
+import com.redhat.util.KiePackageDelta;
+import com.redhat.util.KiePackageDiff;
+
+/**
+ *
+ * Deploying a synthetic package where a single rule was edited into a KieBase with a live session, either by swapping
+ * the whole package or by applying the rule level delta. Each measurement starts from a freshly deserialized KieBase.
+ *
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class HotSwapBenchmark {
+
+    @Param( { "1000", "10000" } )
+    public String ruleSet;
+
+    private File kBaseImage;
+    private File originalImage;
+    private File modifiedImage;
+
+    private KnowledgeBaseImpl kBase;
+    private KieSession liveSession;
+    private Collection<KiePackage> modifiedPackages;
+    private List<KiePackageDelta> deltas;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        Files.createDirectories( new File( Utils.TARGET_DIR ).toPath() );
+        kBaseImage = new File( Utils.TARGET_DIR, "hotswap-kbase-" + ruleSet + ".bin" );
+        originalImage = new File( Utils.TARGET_DIR, "hotswap-original-" + ruleSet + ".bin" );
+        modifiedImage = new File( Utils.TARGET_DIR, "hotswap-modified-" + ruleSet + ".bin" );
+
+        int ruleCount = Integer.parseInt( ruleSet );
+        String drl = BenchmarkRuleSets.generateDrl( ruleCount );
+        Utils.serializeKieBase( kBaseImage.getPath(), Utils.createKieModule( BenchmarkRuleSets.SYNTHETIC_PACKAGE, drl ) );
+        Utils.serializeKiePackages( originalImage.getPath(), Utils.createKieModule( BenchmarkRuleSets.SYNTHETIC_PACKAGE, drl ) );
+        // edit the consequence of the last rule
+        String modifiedDrl = drl.replace( "new CompositeFactC( " + ( ruleCount - 1 ) + ",", "new CompositeFactC( " + ruleCount + "," );
+        Utils.serializeKiePackages( modifiedImage.getPath(), Utils.createKieModule( BenchmarkRuleSets.SYNTHETIC_PACKAGE, modifiedDrl ) );
+    }
+
+    @Setup( Level.Iteration )
+    public void loadKieBase() throws Exception {
+        kBase = (KnowledgeBaseImpl) Utils.deserializeKieBase( kBaseImage.getPath() );
+        liveSession = kBase.newKieSession();
+        BenchmarkRuleSets.insertFacts( liveSession, ruleSet );
+        liveSession.fireAllRules();
+        modifiedPackages = Utils.deserializeKiePackages( modifiedImage.getPath(), kBase.getRootClassLoader() );
+        deltas = KiePackageDiff.diff( originalImage, modifiedImage, kBase.getRootClassLoader() );
+    }
+
+    @TearDown( Level.Iteration )
+    public void disposeSession() {
+        liveSession.dispose();
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        Files.deleteIfExists( kBaseImage.toPath() );
+        Files.deleteIfExists( originalImage.toPath() );
+        Files.deleteIfExists( modifiedImage.toPath() );
+    }
+
+    @Benchmark
+    public SwapReport swapPackage() {
+        return KieBaseHotSwap.swap( kBase, modifiedPackages );
+    }
+
+    @Benchmark
+    public SwapReport applyDelta() {
+        return KieBaseHotSwap.apply( kBase, deltas );
+    }
+}
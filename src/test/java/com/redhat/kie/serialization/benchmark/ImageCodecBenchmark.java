@@ -0,0 +1,83 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.kie.api.runtime.KieContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BinaryImageFormat;
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.BinaryKModuleExternalizer;
+
+/**
+ * 
+ * Size and load time of a BinKieModule image for each codec of the framed format. The image size is printed when the
+ * trial starts. write includes creating the KieBases of the module, as kieModuleToBinary does.
+ *
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ImageCodecBenchmark {
+
+    @Param( { BenchmarkRuleSets.DRL, "1000", "10000" } )
+    public String ruleSet;
+
+    @Param
+    public Codec codec;
+
+    private MemoryKieModule kModule;
+    private File image;
+    private File scratch;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        Files.createDirectories( new File( Utils.TARGET_DIR ).toPath() );
+        kModule = BenchmarkRuleSets.createKieModule( ruleSet );
+        image = new File( Utils.TARGET_DIR, "codec-" + codec + "-" + ruleSet + ".bin" );
+        scratch = new File( Utils.TARGET_DIR, "codec-" + codec + "-" + ruleSet + ".tmp" );
+        BinaryKModuleExternalizer.kieModuleToBinary( kModule, image, codec );
+        System.out.println( codec + " image for rule set " + ruleSet + " : " + image.length() + " bytes, " + BinaryImageFormat.readHeader( image ) );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        Files.deleteIfExists( image.toPath() );
+        Files.deleteIfExists( scratch.toPath() );
+    }
+
+    @Benchmark
+    public long write() throws Exception {
+        BinaryKModuleExternalizer.kieModuleToBinary( kModule, scratch, codec );
+        return scratch.length();
+    }
+
+    @Benchmark
+    public KieContainer load() throws Exception {
+        return BinaryKModuleExternalizer.restoreKieContainer( image );
+    }
+
+    @Benchmark
+    public boolean verify() throws Exception {
+        return BinaryImageFormat.verify( image );
+    }
+}
@@ -0,0 +1,166 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.compiler.kie.builder.impl.InternalKieModule;
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.kie.api.KieServices;
+import org.kie.api.builder.KieBuilder;
+import org.kie.api.builder.KieFileSystem;
+import org.kie.api.builder.Message;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.builder.model.KieModuleModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BinaryImageFormat;
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.BinaryKModuleExternalizer;
+import com.redhat.util.BinaryKModuleExternalizer.BinKieModule;
+import com.redhat.util.BinaryKModuleExternalizer.ConversionReport;
+
+/**
+ *
+ * Time and peak heap of converting a KJAR with several KieBases to a Binary File. "streaming" is kjarToBinary, which
+ * builds and writes one KieBase at a time, "repository" is what it used to do: add the KJAR to the KieRepository and
+ * copy every KieBase of a KieContainer before writing. The peak heap of each conversion is printed, sampled every
+ * millisecond by a thread of the benchmark, so it includes the garbage not collected yet and can miss a short spike.
+ * The allocations are reported by the gc profiler of the benchmark profile. Run with a small -Xmx to see the
+ * repository conversion fail first.
+ *
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 1 )
+@Measurement( iterations = 3 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class KJarConversionBenchmark {
+
+    @Param( { "5", "20" } )
+    public int kBases;
+
+    @Param( { "500" } )
+    public int rulesPerKieBase;
+
+    @Param( { "streaming", "repository" } )
+    public String conversion;
+
+    private File kjar;
+    private File image;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        Files.createDirectories( new File( Utils.TARGET_DIR ).toPath() );
+        String name = "multi-base-kjar-" + kBases;
+        kjar = new File( Utils.TARGET_DIR, name + ".jar" );
+        image = new File( Utils.TARGET_DIR, name + ".bin" );
+        createMultiBaseKJar( name );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        Files.deleteIfExists( kjar.toPath() );
+        Files.deleteIfExists( image.toPath() );
+    }
+
+    @Benchmark
+    public long convert() throws Exception {
+        System.gc();
+        try ( HeapSampler heap = new HeapSampler() ) {
+            if ( "streaming".equals( conversion ) ) {
+                ConversionReport report = BinaryKModuleExternalizer.kjarToBinary( kjar, image, Codec.NONE );
+                System.out.println( "streaming conversion : " + report + ", peak heap " + ( heap.peak() >> 20 ) + " MB" );
+                return report.getImageBytes();
+            }
+            KieServices ks = KieServices.Factory.get();
+            InternalKieModule kModule = (InternalKieModule) ks.getRepository().addKieModule( ks.getResources().newFileSystemResource( kjar ) );
+            BinKieModule binKModule = new BinKieModule();
+            binKModule.copy( ks, kModule );
+            BinaryImageFormat.write( image, kModule.getReleaseId().toExternalForm(), Codec.NONE, so -> so.writeObject( binKModule ) );
+            System.out.println( "repository conversion : " + kBases + " KieBases, " + image.length() + " bytes, peak heap " + ( heap.peak() >> 20 ) + " MB" );
+            return image.length();
+        }
+    }
+
+    /**
+     * One package of generated rules per KieBase
+     */
+    private void createMultiBaseKJar( String name ) throws Exception {
+        KieServices ks = Utils.KIE_SERVICES;
+        KieModuleModel kModuleModel = ks.newKieModuleModel();
+        KieFileSystem kfs = ks.newKieFileSystem();
+        for ( int i = 0; i < kBases; i++ ) {
+            String packageName = BenchmarkRuleSets.SYNTHETIC_PACKAGE + ".base" + i;
+            kModuleModel.newKieBaseModel( "kbase" + i ).setDefault( i == 0 ).addPackage( packageName );
+            String drl = BenchmarkRuleSets.generateDrl( rulesPerKieBase ).replace( "package " + BenchmarkRuleSets.SYNTHETIC_PACKAGE + ";", "package " + packageName + ";" );
+            kfs.write( "src/main/resources/" + packageName.replace( '.', '/' ) + "/generated.drl", drl );
+        }
+        kfs.writeKModuleXML( kModuleModel.toXML() );
+        ReleaseId releaseId = ks.newReleaseId( "com.redhat.rules", name, "0.0.1-SNAPSHOT" );
+        kfs.generateAndWritePomXML( releaseId );
+
+        KieBuilder kBuilder = ks.newKieBuilder( kfs );
+        kBuilder.buildAll();
+        if ( kBuilder.getResults().hasMessages( Message.Level.ERROR ) ) {
+            throw new IllegalStateException( kBuilder.getResults().toString() );
+        }
+        ( (MemoryKieModule) kBuilder.getKieModule() ).getMemoryFileSystem().writeAsJar( new File( Utils.TARGET_DIR ), name );
+        // the conversions start from the jar only
+        ks.getRepository().removeKieModule( releaseId );
+    }
+
+    /**
+     * Highest heap usage seen while it runs, read from the MemoryMXBean so nothing of the JVM is reset
+     */
+    static class HeapSampler implements AutoCloseable {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final Thread sampler;
+        private volatile boolean running = true;
+        private volatile long peak;
+
+        HeapSampler() {
+            peak = memory.getHeapMemoryUsage().getUsed();
+            sampler = new Thread( () -> {
+                while ( running ) {
+                    peak = Math.max( peak, memory.getHeapMemoryUsage().getUsed() );
+                    try {
+                        Thread.sleep( 1 );
+                    }
+                    catch ( InterruptedException e ) {
+                        return;
+                    }
+                }
+            }, "heap-sampler" );
+            sampler.setDaemon( true );
+            sampler.start();
+        }
+
+        long peak() {
+            return Math.max( peak, memory.getHeapMemoryUsage().getUsed() );
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            running = false;
+            sampler.interrupt();
+            sampler.join();
+        }
+    }
+}
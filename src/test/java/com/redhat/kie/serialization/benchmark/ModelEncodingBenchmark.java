@@ -0,0 +1,134 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.kie.api.KieBase;
+import org.kie.api.KieServices;
+import org.kie.api.marshalling.Marshaller;
+import org.kie.api.marshalling.ObjectMarshallingStrategy;
+import org.kie.api.runtime.KieSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.model.AggregateFactD;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.CompositeFactC;
+import com.redhat.model.GlobalFunctions;
+import com.redhat.util.KieSessionSnapshots;
+
+/**
+ *
+ * The com.redhat.model facts through the session marshaller, written by the ModelObjectMarshallingStrategy of
+ * KieSessionSnapshots against Java serialization of their Externalizable form. The session holds FACTS
+ * CompositeFactC with their own BasicFactA and BasicFactB, all inserted, and aggregates that share half of the
+ * composites. Bytes per fact are printed when the trial starts, ns per fact is the score.
+ *
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ModelEncodingBenchmark {
+
+    static final int FACTS = 10000;
+    static final int AGGREGATES = 100;
+    static final int SESSION_FACTS = FACTS * 3 + AGGREGATES;
+
+    @Param( { "strategy", "serializable" } )
+    public String encoding;
+
+    private File kBaseImage;
+    private KieBase kBase;
+    private KieSession session;
+    private Marshaller marshaller;
+    private byte[] bytes;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        Files.createDirectories( new File( Utils.TARGET_DIR ).toPath() );
+        kBaseImage = new File( Utils.TARGET_DIR, "model-encoding-kbase.bin" );
+        // a single synthetic rule, the facts are what is measured, not the rules
+        Utils.serializeKieBase( kBaseImage.getPath(), BenchmarkRuleSets.createKieModule( "1" ) );
+        kBase = Utils.deserializeKieBase( kBaseImage.getPath() );
+
+        if ( "strategy".equals( encoding ) ) {
+            marshaller = KieSessionSnapshots.newMarshaller( kBase );
+        } else {
+            KieServices ks = KieServices.Factory.get();
+            marshaller = ks.getMarshallers().newMarshaller( kBase, new ObjectMarshallingStrategy[] { ks.getMarshallers().newSerializeMarshallingStrategy() } );
+        }
+
+        session = kBase.newKieSession();
+        session.setGlobal( "functions", new GlobalFunctions() );
+        insertModelGraph( session );
+        session.fireAllRules();
+
+        bytes = write();
+        System.out.println( encoding + " : " + bytes.length / session.getFactCount() + " bytes per fact" );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        session.dispose();
+        Files.deleteIfExists( kBaseImage.toPath() );
+    }
+
+    @Benchmark
+    @OperationsPerInvocation( SESSION_FACTS )
+    public byte[] write() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( bytes != null ? bytes.length : 1024 * 1024 );
+        marshaller.marshall( out, session );
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation( SESSION_FACTS )
+    public long read() throws Exception {
+        KieSession restored = marshaller.unmarshall( new ByteArrayInputStream( bytes ) );
+        long count = restored.getFactCount();
+        restored.dispose();
+        return count;
+    }
+
+    private static void insertModelGraph( KieSession session ) {
+        List<AggregateFactD> aggregates = new ArrayList<AggregateFactD>();
+        for ( int i = 0; i < AGGREGATES; i++ ) {
+            aggregates.add( new AggregateFactD() );
+        }
+        for ( int i = 0; i < FACTS; i++ ) {
+            BasicFactA factA = new BasicFactA( i, "model" );
+            BasicFactB factB = new BasicFactB( i, "model", i );
+            CompositeFactC factC = new CompositeFactC( i, factA, factB );
+            session.insert( factA );
+            session.insert( factB );
+            session.insert( factC );
+            aggregates.get( i % AGGREGATES ).addFact( factC );
+            if ( i % 2 == 0 ) {
+                aggregates.get( ( i + 1 ) % AGGREGATES ).addFact( factC );
+            }
+        }
+        aggregates.forEach( session::insert );
+    }
+}
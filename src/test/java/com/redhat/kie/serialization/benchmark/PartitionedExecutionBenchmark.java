@@ -0,0 +1,99 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.kie.api.KieBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.util.KieSessionPool;
+import com.redhat.util.PartitionedKieExecutor;
+
+/**
+ *
+ * 100k pairs of BasicFactA and BasicFactB joined into a CompositeFactC, evaluated in 1 session or sharded by their
+ * number over several sessions, each on its own thread.
+ *
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( value = 1, jvmArgsAppend = "-Xmx4g" )
+@State( Scope.Benchmark )
+public class PartitionedExecutionBenchmark {
+
+    static final int PAIRS = 100000;
+
+    @Param( { "1", "2", "4", "8" } )
+    public int partitions;
+
+    private File kBaseImage;
+    private KieSessionPool pool;
+    private PartitionedKieExecutor executor;
+    private List<Object> facts;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        Files.createDirectories( new File( Utils.TARGET_DIR ).toPath() );
+        kBaseImage = new File( Utils.TARGET_DIR, "partition-kbase.bin" );
+        Utils.serializeKieBase( kBaseImage.getPath(), Utils.createKieModule( BenchmarkRuleSets.SYNTHETIC_PACKAGE, generateDrl() ) );
+        KieBase kBase = Utils.deserializeKieBase( kBaseImage.getPath() );
+
+        pool = new KieSessionPool( kBase, partitions );
+        executor = new PartitionedKieExecutor( pool, partitions, fact -> fact instanceof BasicFactA ? ( (BasicFactA) fact ).getNum() : ( (BasicFactB) fact ).getId() );
+
+        // the rule modifies no fact, the same facts are inserted on every invocation
+        facts = new ArrayList<Object>( PAIRS * 2 );
+        for ( int i = 0; i < PAIRS; i++ ) {
+            facts.add( new BasicFactA( i, "partition" ) );
+            facts.add( new BasicFactB( i, "partition", i ) );
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        executor.close();
+        pool.close();
+        Files.deleteIfExists( kBaseImage.toPath() );
+    }
+
+    @Benchmark
+    public int evaluate() throws Exception {
+        return executor.fireAllRules( facts );
+    }
+
+    private static String generateDrl() {
+        StringBuilder drl = new StringBuilder();
+        drl.append( "package " ).append( BenchmarkRuleSets.SYNTHETIC_PACKAGE ).append( ";\n\n" );
+        drl.append( "import com.redhat.model.BasicFactA;\n" );
+        drl.append( "import com.redhat.model.BasicFactB;\n" );
+        drl.append( "import com.redhat.model.CompositeFactC;\n\n" );
+        drl.append( "rule \"Join By Number\"\n" );
+        drl.append( "\twhen\n" );
+        drl.append( "\t\t$factA : BasicFactA()\n" );
+        drl.append( "\t\t$factB : BasicFactB( id == $factA.num, str == $factA.str )\n" );
+        drl.append( "\tthen\n" );
+        drl.append( "\t\tinsert( new CompositeFactC( $factA.getNum(), $factA, $factB ) );\n" );
+        drl.append( "end\n\n" );
+        return drl.toString();
+    }
+}
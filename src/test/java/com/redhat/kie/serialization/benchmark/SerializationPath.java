@@ -0,0 +1,155 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.drools.core.common.DroolsObjectInputStream;
+import org.drools.core.common.DroolsObjectOutputStream;
+import org.kie.api.KieBase;
+import org.kie.api.builder.KieModule;
+import org.kie.api.definition.KiePackage;
+import org.kie.api.runtime.KieContainer;
+import org.kie.internal.KnowledgeBase;
+import org.kie.internal.KnowledgeBaseFactory;
+import org.kie.internal.definition.KnowledgePackage;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.util.BinaryImageFormat;
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.BinaryKModuleExternalizer;
+import com.redhat.util.BinaryKModuleExternalizer.BinKieModule;
+import com.redhat.util.CachingObjectInputStream;
+
+/**
+ *
+ * The ways a KieBase can be written to and restored from a file<BR>
+ * ※ what a path writes is captured once from a container the KieModule is built in, so serialize measures the write
+ * only. The containers a path creates while reading are handed back to be disposed and removed from the KieRepository
+ *
+ */
+public enum SerializationPath {
+
+    /**
+     * The KieBase written by a DroolsObjectOutputStream, as {@link Utils#serializeKieBase} does
+     */
+    KIE_BASE {
+        @Override
+        public Object capture( MemoryKieModule kModule, KieContainer kContainer ) {
+            return kContainer.getKieBase();
+        }
+
+        @Override
+        public void serialize( MemoryKieModule kModule, Object captured, File file ) throws Exception {
+            try ( ObjectOutputStream out = new DroolsObjectOutputStream( new FileOutputStream( file ) ) ) {
+                out.writeObject( captured );
+            }
+        }
+
+        @Override
+        public KieBase deserialize( File file, ClassLoader classLoader, List<KieContainer> containers ) throws Exception {
+            try ( ObjectInputStream in = new DroolsObjectInputStream( BinaryImageFormat.openPayload( new FileInputStream( file ) ) ) ) {
+                return (KieBase) in.readObject();
+            }
+        }
+    },
+
+    /**
+     * The KiePackages of the KieBase, as {@link Utils#serializeKiePackages} does, read into a new KnowledgeBase
+     */
+    KIE_PACKAGES {
+        @Override
+        public Object capture( MemoryKieModule kModule, KieContainer kContainer ) {
+            return kContainer.getKieBase().getKiePackages();
+        }
+
+        @Override
+        public void serialize( MemoryKieModule kModule, Object captured, File file ) throws Exception {
+            try ( ObjectOutputStream out = new DroolsObjectOutputStream( new FileOutputStream( file ) ) ) {
+                out.writeObject( captured );
+            }
+        }
+
+        @SuppressWarnings( "unchecked" )
+        @Override
+        public KieBase deserialize( File file, ClassLoader classLoader, List<KieContainer> containers ) throws Exception {
+            Collection<KiePackage> packages;
+            try ( ObjectInputStream in = new CachingObjectInputStream( new FileInputStream( file ), classLoader ) ) {
+                packages = (Collection<KiePackage>) in.readObject();
+            }
+            KnowledgeBase kbase = KnowledgeBaseFactory.newKnowledgeBase( KnowledgeBaseFactory.newKnowledgeBaseConfiguration( null, classLoader ) );
+            kbase.addKnowledgePackages( (Collection<KnowledgePackage>) (Collection<?>) packages );
+            return kbase;
+        }
+    },
+
+    /**
+     * The Binary KieModule, as {@link BinaryKModuleExternalizer#kieModuleToBinary} writes it /
+     * {@link BinaryKModuleExternalizer#getKieContainer}
+     */
+    BIN_KIE_MODULE {
+        @Override
+        public Object capture( MemoryKieModule kModule, KieContainer kContainer ) {
+            BinKieModule binKModule = new BinKieModule();
+            binKModule.copy( kContainer, kModule );
+            return binKModule;
+        }
+
+        @Override
+        public void serialize( MemoryKieModule kModule, Object captured, File file ) throws Exception {
+            BinaryImageFormat.write( file, kModule.getReleaseId().toExternalForm(), Codec.NONE, out -> out.writeObject( captured ) );
+        }
+
+        @Override
+        public KieBase deserialize( File file, ClassLoader classLoader, List<KieContainer> containers ) throws Exception {
+            KieContainer kContainer = BinaryKModuleExternalizer.getKieContainer( file );
+            containers.add( kContainer );
+            return kContainer.getKieBase();
+        }
+    },
+
+    /**
+     * The KJAR itself, rebuilt from DRL by KieContainerImpl.createKieBase when the KieBase is requested
+     */
+    KJAR {
+        @Override
+        public Object capture( MemoryKieModule kModule, KieContainer kContainer ) {
+            return kModule.getMemoryFileSystem().writeAsBytes();
+        }
+
+        @Override
+        public void serialize( MemoryKieModule kModule, Object captured, File file ) throws Exception {
+            Files.write( file.toPath(), (byte[]) captured );
+        }
+
+        @Override
+        public KieBase deserialize( File file, ClassLoader classLoader, List<KieContainer> containers ) throws Exception {
+            byte[] kJar = Files.readAllBytes( file.toPath() );
+            KieModule kieModule = Utils.KIE_SERVICES.getRepository().addKieModule( Utils.KIE_SERVICES.getResources().newByteArrayResource( kJar ) );
+            KieContainer kContainer = Utils.KIE_SERVICES.newKieContainer( kieModule.getReleaseId() );
+            containers.add( kContainer );
+            return kContainer.getKieBase();
+        }
+    };
+
+    /**
+     * What the path writes, taken from the KieModule or from the container it is built in
+     */
+    public abstract Object capture( MemoryKieModule kModule, KieContainer kContainer ) throws Exception;
+
+    public abstract void serialize( MemoryKieModule kModule, Object captured, File file ) throws Exception;
+
+    /**
+     * @param classLoader
+     *            the class loader that holds the declared types of the rule set, only used by paths that need one
+     * @param containers
+     *            the containers the path creates are added to it, their modules are in the KieRepository
+     */
+    public abstract KieBase deserialize( File file, ClassLoader classLoader, List<KieContainer> containers ) throws Exception;
+}
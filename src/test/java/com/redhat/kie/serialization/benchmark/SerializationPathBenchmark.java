@@ -0,0 +1,130 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.compiler.kie.builder.impl.MemoryKieModule;
+import org.kie.api.KieBase;
+import org.kie.api.builder.ReleaseId;
+import org.kie.api.runtime.KieContainer;
+import org.kie.api.runtime.KieSession;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+
+/**
+ * 
+ * Compares every serialization path on the rules in com.redhat.rules and on generated rule sets.
+ * 
+ * Run with mvn -P benchmark verify -Dbenchmark.include=SerializationPathBenchmark, the profile adds the gc profiler for
+ * the allocation rate. The KieModule is built and captured once per trial, serialize only writes it, and its bytes are
+ * reported as the imageBytes counter. The containers a read creates are disposed after each invocation.
+ *
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class SerializationPathBenchmark {
+
+    @Param( { BenchmarkRuleSets.DRL, "10", "1000", "10000" } )
+    public String ruleSet;
+
+    @Param
+    public SerializationPath path;
+
+    private MemoryKieModule kModule;
+    private KieContainer kContainer;
+    private Object captured;
+    private File image;
+    private File scratch;
+    private final List<KieContainer> containers = new ArrayList<KieContainer>();
+
+    /**
+     * Bytes of the image each serialize writes
+     */
+    @AuxCounters( AuxCounters.Type.EVENTS )
+    @State( Scope.Thread )
+    public static class ImageBytes {
+        public long imageBytes;
+    }
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        Files.createDirectories( new File( Utils.TARGET_DIR ).toPath() );
+        kModule = BenchmarkRuleSets.createKieModule( ruleSet );
+        kContainer = Utils.KIE_SERVICES.newKieContainer( kModule.getReleaseId() );
+        // the container keeps the module, the KieRepository only gets the ones the reads add
+        Utils.KIE_SERVICES.getRepository().removeKieModule( kModule.getReleaseId() );
+        captured = path.capture( kModule, kContainer );
+        image = new File( Utils.TARGET_DIR, "benchmark-" + path + "-" + ruleSet + ".bin" );
+        scratch = new File( Utils.TARGET_DIR, "benchmark-" + path + "-" + ruleSet + ".tmp" );
+        path.serialize( kModule, captured, image );
+    }
+
+    @TearDown( Level.Invocation )
+    public void release() {
+        for ( KieContainer container : containers ) {
+            ReleaseId releaseId = container.getReleaseId();
+            container.dispose();
+            Utils.KIE_SERVICES.getRepository().removeKieModule( releaseId );
+        }
+        containers.clear();
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        kContainer.dispose();
+        Files.deleteIfExists( image.toPath() );
+        Files.deleteIfExists( scratch.toPath() );
+    }
+
+    @Benchmark
+    public void serialize( ImageBytes counters ) throws Exception {
+        path.serialize( kModule, captured, scratch );
+        counters.imageBytes = scratch.length();
+    }
+
+    @Benchmark
+    public KieBase deserialize() throws Exception {
+        return read();
+    }
+
+    @Benchmark
+    public int firstFireAllRules() throws Exception {
+        KieSession session = read().newKieSession();
+        try {
+            BenchmarkRuleSets.insertFacts( session, ruleSet );
+            return session.fireAllRules();
+        }
+        finally {
+            session.dispose();
+        }
+    }
+
+    private KieBase read() throws Exception {
+        KieBase kBase = path.deserialize( image, kContainer.getClassLoader(), containers );
+        if ( kBase == null ) {
+            throw new IllegalStateException( path + " restored no KieBase from " + image );
+        }
+        return kBase;
+    }
+}
@@ -0,0 +1,119 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.kie.api.KieBase;
+import org.kie.api.runtime.KieSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.model.GlobalFunctions;
+import com.redhat.util.KieSessionPool;
+
+/**
+ *
+ * Requests against one KieBase deserialized from an image, each request inserting a few facts and firing the rules.
+ * "pool" borrows a session from a KieSessionPool, "new" creates and disposes a session per request.<BR>
+ * <BR>
+ * The main method runs the benchmark for 1, 2, 4... threads up to the number of cores and prints the throughput and
+ * the p99 latency of each thread count:<BR>
+ * mvn -P benchmark verify -Dbenchmark.include=SessionPoolBenchmark runs it for one thread only
+ *
+ */
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class SessionPoolBenchmark {
+
+    @Param( { "pool", "new" } )
+    public String sessions;
+
+    private File kBaseImage;
+    private KieBase kBase;
+    private KieSessionPool pool;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        Files.createDirectories( new File( Utils.TARGET_DIR ).toPath() );
+        kBaseImage = new File( Utils.TARGET_DIR, "pool-kbase.bin" );
+        Utils.serializeKieBase( kBaseImage.getPath(), BenchmarkRuleSets.createKieModule( "100" ) );
+        kBase = Utils.deserializeKieBase( kBaseImage.getPath() );
+        pool = new KieSessionPool( kBase, Runtime.getRuntime().availableProcessors(), session -> session.setGlobal( "functions", new GlobalFunctions() ) );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        pool.close();
+        Files.deleteIfExists( kBaseImage.toPath() );
+    }
+
+    @Benchmark
+    public int request() throws Exception {
+        if ( "pool".equals( sessions ) ) {
+            return pool.execute( SessionPoolBenchmark::fire );
+        }
+        KieSession session = kBase.newKieSession();
+        try {
+            return fire( session );
+        }
+        finally {
+            session.dispose();
+        }
+    }
+
+    private static int fire( KieSession session ) {
+        BenchmarkRuleSets.insertFacts( session, "100" );
+        return session.fireAllRules();
+    }
+
+    public static void main( String[] args ) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for ( int threads = 1; threads < cores; threads *= 2 ) {
+            threadCounts.add( threads );
+        }
+        threadCounts.add( cores );
+
+        StringBuilder report = new StringBuilder( String.format( "%-8s %8s %16s %14s%n", "sessions", "threads", "requests/s", "p99 (us)" ) );
+        for ( int threads : threadCounts ) {
+            // sessions -> requests/s, p99
+            Map<String, double[]> scores = new TreeMap<String, double[]>();
+            for ( RunResult run : new Runner( new OptionsBuilder().include( SessionPoolBenchmark.class.getSimpleName() ).threads( threads ).build() ).run() ) {
+                double[] score = scores.computeIfAbsent( run.getParams().getParam( "sessions" ), k -> new double[2] );
+                Result<?> result = run.getPrimaryResult();
+                if ( run.getParams().getMode() == Mode.Throughput ) {
+                    score[0] = result.getScore() * 1000000;
+                } else {
+                    score[1] = result.getStatistics().getPercentile( 99 );
+                }
+            }
+            scores.forEach( ( sessions, score ) -> report.append( String.format( "%-8s %8d %16.0f %14.1f%n", sessions, threads, score[0], score[1] ) ) );
+        }
+        System.out.println( report );
+    }
+}
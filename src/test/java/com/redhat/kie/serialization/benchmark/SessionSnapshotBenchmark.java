@@ -0,0 +1,98 @@
+package com.redhat.kie.serialization.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.kie.api.KieBase;
+import org.kie.api.runtime.KieSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.kie.serialization.util.Utils;
+import com.redhat.model.BasicFactA;
+import com.redhat.model.BasicFactB;
+import com.redhat.model.CompositeFactC;
+import com.redhat.model.GlobalFunctions;
+import com.redhat.util.KieSessionSnapshots;
+
+/**
+ *
+ * Snapshot and restore of a session holding facts BasicFactA, BasicFactB and the CompositeFactC joining them. The
+ * snapshot size is printed when the trial starts, the facts per second are the fact count divided by the average time.
+ *
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( value = 1, jvmArgsAppend = "-Xmx4g" )
+@State( Scope.Benchmark )
+public class SessionSnapshotBenchmark {
+
+    @Param( { "10000", "100000", "1000000" } )
+    public int factCount;
+
+    private File kBaseImage;
+    private KieBase kBase;
+    private KieSession session;
+    private byte[] snapshot;
+
+    @Setup( Level.Trial )
+    public void setUp() throws Exception {
+        Files.createDirectories( new File( Utils.TARGET_DIR ).toPath() );
+        kBaseImage = new File( Utils.TARGET_DIR, "snapshot-kbase.bin" );
+        // a single synthetic rule, the working memory is what is measured, not the rules
+        Utils.serializeKieBase( kBaseImage.getPath(), BenchmarkRuleSets.createKieModule( "1" ) );
+        kBase = Utils.deserializeKieBase( kBaseImage.getPath() );
+
+        session = kBase.newKieSession();
+        session.setGlobal( "functions", new GlobalFunctions() );
+        // a third of the facts each, the composite facts share the basic ones
+        for ( int i = 0; i < factCount / 3; i++ ) {
+            BasicFactA factA = new BasicFactA( i, "snapshot" );
+            BasicFactB factB = new BasicFactB( i, "snapshot", i );
+            session.insert( factA );
+            session.insert( factB );
+            session.insert( new CompositeFactC( i, factA, factB ) );
+        }
+        session.fireAllRules();
+
+        snapshot = snapshot();
+        System.out.println( "Snapshot of " + session.getFactCount() + " facts : " + snapshot.length + " bytes" );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws Exception {
+        session.dispose();
+        Files.deleteIfExists( kBaseImage.toPath() );
+    }
+
+    @Benchmark
+    public byte[] snapshot() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( snapshot != null ? snapshot.length : 1024 * 1024 );
+        KieSessionSnapshots.snapshot( session, out );
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public long restore() throws Exception {
+        KieSession restored = KieSessionSnapshots.restore( kBase, new ByteArrayInputStream( snapshot ) );
+        long count = restored.getFactCount();
+        restored.dispose();
+        return count;
+    }
+}
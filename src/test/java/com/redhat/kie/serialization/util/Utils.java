@@ -2,13 +2,17 @@ package com.redhat.kie.serialization.util;
 
 import static org.junit.Assert.fail;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +38,18 @@ import org.kie.api.runtime.KieContainer;
 import org.kie.api.runtime.conf.ClockTypeOption;
 import org.kie.internal.io.ResourceFactory;
 
+import com.redhat.util.BinaryImageFormat;
+import com.redhat.util.BinaryImageFormat.Codec;
+import com.redhat.util.CachingObjectInputStream;
+import com.redhat.util.DictionaryObjectInputStream;
+import com.redhat.util.DictionaryObjectOutputStream;
+import com.redhat.util.MappedImage;
+import com.redhat.util.ProfilingObjectInputStream;
+import com.redhat.util.SerializationDictionary;
+import com.redhat.util.StartupProfiler;
+import com.redhat.util.StartupProfiler.Phase;
+import com.redhat.util.StartupProfiler.Timer;
+
 public class Utils {
 
     public static final String SRC_MAIN_RESOURCES = System.getProperty( "user.dir" ) + File.separator + "src" + File.separator + "main" + File.separator + "resources";
@@ -42,6 +58,40 @@ public class Utils {
     public static final String RULES_FOLDER = "com.redhat.rules";
 
     public static MemoryKieModule createKieModule( List<Map<String, String>> resources ) throws Exception {
+        KieBuilder kBuilder = KIE_SERVICES.newKieBuilder( newKieFileSystem( resources ) );
+        buildAll( kBuilder );
+
+        MemoryKieModule memoryKieModule = (MemoryKieModule) kBuilder.getKieModule();
+
+        return memoryKieModule;
+    }
+
+    /**
+     * Same as {@link #createKieModule(List)} but for DRL that only exists in memory, e.g. generated rule sets
+     */
+    public static MemoryKieModule createKieModule( String packageName, String drl ) throws Exception {
+        KieFileSystemImpl kfs = newKieFileSystemForPackages( Collections.singletonList( packageName ) );
+        kfs.write( "src/main/resources/" + packageName + "/generated.drl", drl );
+
+        KieBuilder kBuilder = KIE_SERVICES.newKieBuilder( kfs );
+        buildAll( kBuilder );
+
+        return (MemoryKieModule) kBuilder.getKieModule();
+    }
+
+    /**
+     * The KieFileSystem {@link #createKieModule(List)} builds, with the kmodule.xml, the pom.xml and the resources
+     */
+    public static KieFileSystem newKieFileSystem( List<Map<String, String>> resources ) {
+        List<String> packages = new ArrayList<String>();
+        resources.forEach( resource -> packages.add( resource.get( "package" ) ) );
+
+        KieFileSystemImpl kfs = newKieFileSystemForPackages( packages );
+        writeRules( kfs, resources );
+        return kfs;
+    }
+
+    private static KieFileSystemImpl newKieFileSystemForPackages( List<String> packages ) {
         KieModuleModel kproj = new KieModuleModelImpl();
 
         //@formatter:off
@@ -50,9 +100,9 @@ public class Utils {
             .setEventProcessingMode( EventProcessingOption.CLOUD )
             .setDefault( true );
         
-        resources.forEach( resource -> {
-            System.out.println( "adding package " + resource.get( "package" ) );
-            kieModule.addPackage( resource.get( "package" ) );
+        packages.forEach( pkg -> {
+            System.out.println( "adding package " + pkg );
+            kieModule.addPackage( pkg );
          } );
 
         kieModule.newKieSessionModel( "ksession" )
@@ -67,12 +117,7 @@ public class Utils {
         ReleaseId releaseId = KIE_SERVICES.newReleaseId( "com.redhat.rules", "test-kjar", "0.0.1-SNAPSHOT" );
         kfs.generateAndWritePomXML( releaseId );
 
-        KieBuilder kBuilder = KIE_SERVICES.newKieBuilder( kfs );
-        buildRules( kfs, kBuilder, resources );
-
-        MemoryKieModule memoryKieModule = (MemoryKieModule) kBuilder.getKieModule();
-
-        return memoryKieModule;
+        return kfs;
     }
 
     public static void serializeKieBase( String filename, MemoryKieModule kmodule ) throws Exception {
@@ -84,13 +129,21 @@ public class Utils {
         out.close();
     }
 
+    public static void serializeKieBase( String filename, MemoryKieModule kmodule, Codec codec ) throws Exception {
+        KieContainer container = Utils.KIE_SERVICES.newKieContainer( kmodule.getReleaseId(), Thread.currentThread().getContextClassLoader() );
+        KieBase kbase = container.getKieBase();
+        BinaryImageFormat.write( new File( filename ), kmodule.getReleaseId().toExternalForm(), codec, out -> out.writeObject( kbase ) );
+    }
+
     public static KieBase deserializeKieBase( String filename ) throws Exception {
         KieBase kbase = null;
         try {
-            FileInputStream fis = new FileInputStream( new File( filename ) );
-            DroolsObjectInputStream in = new DroolsObjectInputStream( fis );
-            kbase = (KieBase) in.readObject();
-            in.close();
+            try ( Timer timer = StartupProfiler.getInstance().start( Phase.READ_IMAGE, filename ) ) {
+                InputStream fis = BinaryImageFormat.openPayload( new FileInputStream( new File( filename ) ) );
+                DroolsObjectInputStream in = new ProfilingObjectInputStream( fis, null, timer, filename );
+                kbase = (KieBase) in.readObject();
+                in.close();
+            }
             return kbase;
         }
         catch ( Exception e ) {
@@ -102,6 +155,15 @@ public class Utils {
 
     }
 
+    public static KieBase deserializeKieBase( MappedImage image ) throws Exception {
+        try ( Timer timer = StartupProfiler.getInstance().start( Phase.READ_IMAGE, image.getFile().getName() ) ) {
+            DroolsObjectInputStream in = new ProfilingObjectInputStream( BinaryImageFormat.openPayload( image.newInputStream() ), null, timer, image.getFile().getName() );
+            KieBase kbase = (KieBase) in.readObject();
+            in.close();
+            return kbase;
+        }
+    }
+
     public static void serializeKiePackages( String filename, MemoryKieModule kmodule ) throws Exception {
         KieContainer container = Utils.KIE_SERVICES.newKieContainer( kmodule.getReleaseId(), Thread.currentThread().getContextClassLoader() );
         KieBase kbase = container.getKieBase();
@@ -112,12 +174,27 @@ public class Utils {
         out.close();
     }
 
+    public static void serializeKiePackages( String filename, MemoryKieModule kmodule, SerializationDictionary dictionary ) throws Exception {
+        KieContainer container = Utils.KIE_SERVICES.newKieContainer( kmodule.getReleaseId(), Thread.currentThread().getContextClassLoader() );
+        Collection<KiePackage> packages = container.getKieBase().getKiePackages();
+        try ( DroolsObjectOutputStream out = new DictionaryObjectOutputStream( new FileOutputStream( new File( filename ) ), dictionary ) ) {
+            out.writeObject( packages );
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public static Collection<KiePackage> deserializeKiePackages( String filename, ClassLoader classloader, SerializationDictionary dictionary ) throws Exception {
+        try ( DroolsObjectInputStream in = new DictionaryObjectInputStream( new BufferedInputStream( new FileInputStream( new File( filename ) ) ), classloader, dictionary ) ) {
+            return (Collection<KiePackage>) in.readObject();
+        }
+    }
+
     @SuppressWarnings( "unchecked" )
     public static Collection<KiePackage> deserializeKiePackages( String filename, ClassLoader classloader ) throws Exception {
         Collection<KiePackage> packages = null;
         try {
             FileInputStream fis = new FileInputStream( new File( filename ) );
-            DroolsObjectInputStream in = new DroolsObjectInputStream( fis, classloader );
+            DroolsObjectInputStream in = new CachingObjectInputStream( fis, classloader );
             packages = (Collection<KiePackage>) in.readObject();
             in.close();
             return packages;
@@ -131,7 +208,7 @@ public class Utils {
 
     }
 
-    private static void buildRules( KieFileSystem kfs, KieBuilder kBuilder, List<Map<String, String>> resources ) throws Exception {
+    private static void writeRules( KieFileSystem kfs, List<Map<String, String>> resources ) {
 
         resources.forEach( resource -> {
             try {
@@ -143,7 +220,9 @@ public class Utils {
                 fail( e.getMessage() );
             }
         } );
+    }
 
+    private static void buildAll( KieBuilder kBuilder ) {
         kBuilder.buildAll();
         if ( kBuilder.getResults().hasMessages( Level.ERROR ) ) {
             for ( Message m : kBuilder.getResults().getMessages( Level.ERROR ) ) {